@@ -0,0 +1,39 @@
+package ZJChain.benchmark;
+
+import ZJChain.Block;
+import ZJChain.BlockHeader;
+import org.openjdk.jmh.annotations.*;
+import utils.StringUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 挖矿循环中单次hash尝试的开销（不同hash计算方式）。
+ * 加 -prof gc 运行可以看到每次尝试的分配：DIGEST为0，MIDSTATE因克隆摘要对象约为224字节
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockHeaderBenchmark {
+
+    @Param({"DIGEST", "MIDSTATE"})
+    public BlockHeader.HashMode mode;
+
+    private BlockHeader.Hasher hasher;
+    private int nonce;
+
+    @Setup
+    public void setup() throws Exception {
+        Block block = new Block(StringUtil.applySha256("prevHash"));
+        block.merkleRoot = StringUtil.applySha256("merkleRoot");
+        hasher = new BlockHeader(block).newHasher(mode);
+    }
+
+    @Benchmark
+    public byte[] hashNonce() {
+        return hasher.hash(nonce++);
+    }
+}
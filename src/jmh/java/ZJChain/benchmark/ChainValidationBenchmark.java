@@ -0,0 +1,64 @@
+package ZJChain.benchmark;
+
+import ZJChain.Amount;
+import ZJChain.Block;
+import ZJChain.ChainContext;
+import ZJChain.ChainValidator;
+import ZJChain.Wallet;
+import ZJChain.ZJChain;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验不同长度区块链的耗时，每个块包含一笔已签名的转账交易。
+ * 为了控制准备时间，链以难度1挖出并按难度1校验。
+ * fullValidation每次丢弃检查点从头校验；isChainValid在已有检查点时只检查新块
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainValidationBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int blocks;
+
+    private ZJChain chain;
+    private ChainContext context;
+    private ChainValidator validator;
+
+    @Setup
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+        chain = new ZJChain();
+        chain.setDifficulty(1);
+        context = chain.getContext();
+
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        Block prev = chain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(blocks * 10));
+        for(int i = 1; i < blocks; i++) {
+            Block block = new Block(prev.hash);
+            block.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(1)), context);
+            chain.addBlock(block);
+            prev = block;
+        }
+        validator = new ChainValidator();
+    }
+
+    @Benchmark
+    public boolean fullValidation() {
+        validator.reset();
+        return validator.validate(context.blockChain, context.genesisTransaction, context.difficulty);
+    }
+
+    @Benchmark
+    public boolean isChainValid() {
+        return chain.isChainValid();
+    }
+}
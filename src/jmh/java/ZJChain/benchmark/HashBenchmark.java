@@ -0,0 +1,39 @@
+package ZJChain.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import utils.StringUtil;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StringUtil.applySha256 在不同输入长度下的吞吐量
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    /**
+     * 输入字符串长度，141为区块头前缀（prevHash+merkleRoot+timestamp）的长度
+     */
+    @Param({"16", "141", "1024"})
+    public int length;
+
+    private String input;
+
+    @Setup
+    public void setup() {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'a');
+        input = new String(chars);
+    }
+
+    @Benchmark
+    public String applySha256() throws Exception {
+        return StringUtil.applySha256(input);
+    }
+}
@@ -0,0 +1,61 @@
+package ZJChain.benchmark;
+
+import ZJChain.Amount;
+import ZJChain.Transaction;
+import org.openjdk.jmh.annotations.*;
+import utils.MerkleProof;
+import utils.MerkleTree;
+import utils.StringUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同交易数量下计算merkleRoot的耗时，以及生成、验证一个包含证明的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MerkleBenchmark {
+
+    @Param({"1", "100", "1000", "10000", "100000"})
+    public int transactions;
+
+    private ArrayList<Transaction> list;
+    private List<String> ids;
+    private MerkleTree tree;
+    private String root;
+
+    @Setup
+    public void setup() throws Exception {
+        list = new ArrayList<>(transactions);
+        for(int i = 0; i < transactions; i++) {
+            //计算merkleRoot只用到transactionId，不需要真实的密钥
+            Transaction transaction = new Transaction(null, null, Amount.coins(1), null);
+            transaction.transactionId = StringUtil.applySha256(String.valueOf(i));
+            list.add(transaction);
+        }
+        ids = new ArrayList<>();
+        for(Transaction transaction : list) {
+            ids.add(transaction.transactionId);
+        }
+        tree = new MerkleTree(ids);
+        root = tree.getRootHex();
+    }
+
+    @Benchmark
+    public String getMerkleRoot() {
+        return StringUtil.getMerkleRoot(list);
+    }
+
+    @Benchmark
+    public boolean proveAndVerify() {
+        int index = transactions / 2;
+        MerkleProof proof = tree.getProof(index);
+        return proof.verify(ids.get(index), root);
+    }
+}
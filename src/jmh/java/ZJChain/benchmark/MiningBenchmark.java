@@ -0,0 +1,56 @@
+package ZJChain.benchmark;
+
+import ZJChain.Block;
+import ZJChain.Miner;
+import ZJChain.MiningResult;
+import ZJChain.ParallelMiner;
+import ZJChain.SerialMiner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同难度与挖矿器下挖出一个块的平均耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MiningBenchmark {
+
+    @Param({"1", "2", "3", "4"})
+    public int difficulty;
+
+    @Param({"serial", "parallel"})
+    public String miner;
+
+    private Miner instance;
+    private Block block;
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setupMiner() {
+        instance = "parallel".equals(miner) ? new ParallelMiner() : new SerialMiner();
+    }
+
+    @Setup(Level.Invocation)
+    public void setupBlock() {
+        //每次使用不同的时间戳，避免重复挖出同一个nonce
+        block = new Block("0");
+        block.timestamp = timestamp++;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if(instance instanceof ParallelMiner) {
+            ((ParallelMiner) instance).shutdown();
+        }
+    }
+
+    @Benchmark
+    public MiningResult mineBlock() {
+        return block.mineBlock(difficulty, instance);
+    }
+}
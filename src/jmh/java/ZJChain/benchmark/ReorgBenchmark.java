@@ -0,0 +1,89 @@
+package ZJChain.benchmark;
+
+import ZJChain.Amount;
+import ZJChain.Block;
+import ZJChain.BlockTree;
+import ZJChain.ChainContext;
+import ZJChain.ChainValidator;
+import ZJChain.Wallet;
+import ZJChain.ZJChain;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+import utils.Log;
+
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在两条分叉深度为depth的分支之间来回切换主链的耗时，每个块包含一笔已签名的转账交易。
+ * reorganize每次撤销depth个块并执行另一分支的depth个块，与链长无关；
+ * replayFromGenesis是没有撤销记录时的做法：丢弃状态并从创世块重新校验整条链
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReorgBenchmark {
+
+    @Param({"1000"})
+    public int blocks;
+
+    @Param({"1", "10", "100"})
+    public int depth;
+
+    private ChainContext context;
+    private BlockTree tree;
+    private String tipA;
+    private String tipB;
+    private boolean onA;
+
+    @Setup
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+        //切换分支时的日志不输出到控制台
+        Log.setLevel(Log.Level.WARN);
+        ZJChain chain = new ZJChain();
+        chain.setDifficulty(1);
+        context = chain.getContext();
+
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        Wallet walletC = new Wallet();
+        chain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(blocks * 10));
+        extend(chain, walletA, walletB, blocks - 1);
+        tipA = context.getTip().hash;
+
+        //回退到分叉点，在另一条分支上挖出同样多的块
+        tree = chain.getBlockTree();
+        tree.switchTo(context.blockChain.get(blocks - 1 - depth).hash);
+        extend(chain, walletA, walletC, depth);
+        tipB = context.getTip().hash;
+    }
+
+    private void extend(ZJChain chain, Wallet from, Wallet to, int count) {
+        for(int i = 0; i < count; i++) {
+            Block block = new Block(context.getTip().hash);
+            block.addTransaction(from.sendFunds(context, to.publicKey, Amount.coins(1)), context);
+            chain.addBlock(block);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @Benchmark
+    public boolean reorganize() {
+        onA = !onA;
+        return tree.switchTo(onA ? tipA : tipB);
+    }
+
+    @Benchmark
+    public boolean replayFromGenesis() {
+        ChainValidator validator = new ChainValidator();
+        return validator.validate(context.blockChain, context.genesisTransaction, context.getDifficultyEngine());
+    }
+}
@@ -0,0 +1,52 @@
+package ZJChain.benchmark;
+
+import ZJChain.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+import utils.StringUtil;
+
+import java.security.Security;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ECDSA签名与验签
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+
+    /**
+     * 被签名数据的长度，约两个Base64公钥加金额的长度为交易签名数据的实际大小
+     */
+    @Param({"200", "4096"})
+    public int length;
+
+    private Wallet wallet;
+    private String data;
+    private byte[] signature;
+
+    @Setup
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+        wallet = new Wallet();
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'a');
+        data = new String(chars);
+        signature = StringUtil.applyECDSASig(wallet.privateKey, data);
+    }
+
+    @Benchmark
+    public byte[] applyECDSASig() {
+        return StringUtil.applyECDSASig(wallet.privateKey, data);
+    }
+
+    @Benchmark
+    public boolean verifyECDSASig() throws Exception {
+        return StringUtil.verifyECDSASig(wallet.publicKey, data, signature);
+    }
+}
@@ -0,0 +1,63 @@
+package ZJChain.benchmark;
+
+import ZJChain.Amount;
+import ZJChain.SigningService;
+import ZJChain.Transaction;
+import ZJChain.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量生成钱包与批量签名交易的耗时，比较单线程与多线程
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningServiceBenchmark {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"1000"})
+    public int transactions;
+
+    private SigningService service;
+    private List<Wallet> wallets;
+    private List<Transaction> batch;
+
+    @Setup
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+        service = new SigningService(threads);
+        wallets = service.generateWallets(16);
+        batch = new ArrayList<>(transactions);
+        for(int i = 0; i < transactions; i++) {
+            Wallet from = wallets.get(i % wallets.size());
+            Wallet to = wallets.get((i + 1) % wallets.size());
+            batch.add(new Transaction(from.publicKey, to.publicKey, Amount.coins(1), null));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public List<Transaction> signBatch() {
+        return service.sign(batch, wallets);
+    }
+
+    @Benchmark
+    public List<Wallet> generateWallets() {
+        return service.generateWallets(100);
+    }
+}
@@ -0,0 +1,77 @@
+package ZJChain.benchmark;
+
+import ZJChain.MemoryUTXOStore;
+import ZJChain.OffHeapUTXOStore;
+import ZJChain.TransactionOutput;
+import ZJChain.UTXOStore;
+import ZJChain.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+import utils.HashUtil;
+
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 堆中与堆外UTXO存储的查找与"花费一个、创建一个"的吞吐量。
+ * 加 -prof gc 运行可以比较两者的堆分配与GC次数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UTXOStoreBenchmark {
+
+    @Param({"memory", "offheap"})
+    public String store;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private UTXOStore utxos;
+    private Wallet[] wallets;
+    private String[] ids;
+    private int next;
+    private int created;
+
+    @Setup
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+        utxos = "offheap".equals(store) ? new OffHeapUTXOStore(size) : new MemoryUTXOStore();
+        wallets = new Wallet[16];
+        for(int i = 0; i < wallets.length; i++) {
+            wallets[i] = new Wallet();
+        }
+        ids = new String[size];
+        for(int i = 0; i < size; i++) {
+            TransactionOutput output = create(i);
+            utxos.put(output.id, output);
+            ids[i] = output.id;
+        }
+        created = size;
+    }
+
+    private TransactionOutput create(int n) {
+        String parent = HashUtil.toHex(HashUtil.sha256(ByteBuffer.allocate(4).putInt(n).array()));
+        return new TransactionOutput(wallets[n & (wallets.length - 1)].publicKey, n + 1, parent);
+    }
+
+    @Benchmark
+    public TransactionOutput get() {
+        next = (next + 7919) % size;
+        return utxos.get(ids[next]);
+    }
+
+    @Benchmark
+    public TransactionOutput spendAndCreate() {
+        next = (next + 7919) % size;
+        utxos.remove(ids[next]);
+        TransactionOutput output = create(created++);
+        utxos.put(output.id, output);
+        ids[next] = output.id;
+        return output;
+    }
+}
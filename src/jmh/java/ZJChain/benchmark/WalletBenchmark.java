@@ -0,0 +1,47 @@
+package ZJChain.benchmark;
+
+import ZJChain.Amount;
+import ZJChain.ChainContext;
+import ZJChain.TransactionOutput;
+import ZJChain.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UTXO集合规模不同时查询钱包余额的耗时，钱包拥有其中1%的UTXO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WalletBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int utxos;
+
+    private Wallet wallet;
+    private ChainContext context;
+
+    @Setup
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+        wallet = new Wallet();
+        Wallet other = new Wallet();
+        context = new ChainContext();
+        for(int i = 0; i < utxos; i++) {
+            Wallet owner = (i % 100 == 0) ? wallet : other;
+            TransactionOutput output = new TransactionOutput(owner.publicKey, Amount.coins(1), String.valueOf(i));
+            context.UTXOs.put(output.id, output);
+        }
+    }
+
+    @Benchmark
+    public long getBalance() {
+        return wallet.getBalance(context);
+    }
+}
@@ -0,0 +1,101 @@
+package ZJChain;
+
+import utils.HashUtil;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * 地址：公钥的不可变包装，创建时缓存公钥的X.509编码与地址hash（编码的SHA-256的前20字节），
+ * 字符串形式（与 StringUtil.getStringFromKey 相同的Base64）在第一次使用时生成并缓存。
+ * equals/hashCode基于公钥编码，同一个公钥反序列化得到的不同对象也相等，可以直接作为Map的键
+ */
+public final class Address {
+
+    /**
+     * 地址hash的长度（字节）
+     */
+    public static final int HASH_LENGTH = 20;
+
+    private final PublicKey key;
+    private final byte[] encoded;
+    private final byte[] hash;
+    private final int hashCode;
+    private volatile String string;
+
+    private Address(PublicKey key) {
+        this.key = key;
+        this.encoded = key.getEncoded();
+        this.hash = Arrays.copyOf(HashUtil.sha256(encoded), HASH_LENGTH);
+        this.hashCode = (hash[0] & 0xff) << 24 | (hash[1] & 0xff) << 16 | (hash[2] & 0xff) << 8 | (hash[3] & 0xff);
+    }
+
+    /**
+     * 由公钥创建地址，公钥为null时返回null
+     * @param key
+     * @return
+     */
+    public static Address of(PublicKey key) {
+        return key == null ? null : new Address(key);
+    }
+
+    public PublicKey getKey() {
+        return key;
+    }
+
+    /**
+     * 公钥的X.509编码（副本）
+     * @return
+     */
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+
+    /**
+     * 地址hash（副本）
+     * @return
+     */
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    /**
+     * 地址hash的16进制字符串
+     * @return
+     */
+    public String getHashHex() {
+        return HashUtil.toHex(hash);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof Address)) {
+            return false;
+        }
+        Address other = (Address) o;
+        return hashCode == other.hashCode && Arrays.equals(encoded, other.encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * 公钥编码的Base64字符串
+     * @return
+     */
+    @Override
+    public String toString() {
+        String s = string;
+        if(s == null) {
+            s = Base64.getEncoder().encodeToString(encoded);
+            string = s;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,37 @@
+package ZJChain;
+
+/**
+ * 金额工具：所有金额都是long类型的最小单位，1个币等于 {@link #COIN} 个最小单位。
+ * 加减使用溢出检查的整数运算，溢出时抛出ArithmeticException，结果是精确的
+ */
+public final class Amount {
+
+    /**
+     * 1个币对应的最小单位数
+     */
+    public static final long COIN = 100_000_000L;
+
+    private Amount() {
+    }
+
+    /**
+     * 将整数个币换算为最小单位
+     * @param coins
+     * @return
+     */
+    public static long coins(long coins) {
+        return Math.multiplyExact(coins, COIN);
+    }
+
+    /**
+     * 以币为单位显示，例如 150000000 显示为 "1.50000000"
+     * @param amount
+     * @return
+     */
+    public static String format(long amount) {
+        long whole = amount / COIN;
+        long fraction = Math.abs(amount % COIN);
+        String sign = amount < 0 && whole == 0 ? "-" : "";
+        return sign + whole + "." + String.format("%08d", fraction);
+    }
+}
@@ -1,9 +1,12 @@
 package ZJChain;
 
-import utils.StringUtil;
+import utils.Log;
+import utils.MerkleProof;
+import utils.MerkleTree;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Objects;
 
 public class Block {
 
@@ -14,6 +17,10 @@ public class Block {
     public ArrayList<Transaction> transactions = new ArrayList<>();
     //merkleRoot充当data的作用（因为区块block本质就是个账本，用交易来充当数据最合理）
     public String merkleRoot;
+    /**
+     * 按transactions缓存的Merkle树，追加交易后只需增量更新
+     */
+    private MerkleTree merkleTree;
 
     public Block(String prevHash) {
         this.prevHash = prevHash;
@@ -26,6 +33,17 @@ public class Block {
         }
     }
 
+    /**
+     * 由已有数据恢复区块（用于反序列化），不重新计算hash
+     */
+    Block(String hash, String prevHash, String merkleRoot, long timestamp, int nonce) {
+        this.hash = hash;
+        this.prevHash = prevHash;
+        this.merkleRoot = merkleRoot;
+        this.timestamp = timestamp;
+        this.nonce = nonce;
+    }
+
     /**
      * 计算当前块的哈希值
      * @return
@@ -33,48 +51,117 @@ public class Block {
      */
     public String calculateHash() throws Exception {
         //取消使用data生成hash而使用merkleRoot
-        String calculatedHash = StringUtil.applySha256(prevHash+merkleRoot+timestamp+nonce);
+        String calculatedHash = calculateHash(nonce);
         return calculatedHash;
     }
 
+    /**
+     * 使用指定的nonce计算当前块的哈希值（不修改块本身，供挖矿线程并发调用）
+     * @param nonce
+     * @return
+     */
+    public String calculateHash(int nonce) {
+        //与 StringUtil.applySha256(prevHash+merkleRoot+timestamp+nonce) 结果相同，但直接在字节上计算
+        return new BlockHeader(this).hashHex(nonce);
+    }
+
     /**
      * 挖矿计算
      * @param difficulty
+     * @return
+     */
+    public MiningResult mineBlock(int difficulty) {
+        return mineBlock(difficulty, new SerialMiner());
+    }
+
+    /**
+     * 使用指定的挖矿器进行挖矿计算
+     * @param difficulty
+     * @param miner
+     * @return
      */
-    public void mineBlock(int difficulty) {
+    public MiningResult mineBlock(int difficulty, Miner miner) {
+        return mineBlock(Target.ofNibbles(difficulty), miner);
+    }
+
+    /**
+     * 使用指定的挖矿器挖出满足目标的区块
+     * @param target
+     * @param miner
+     * @return
+     */
+    public MiningResult mineBlock(Target target, Miner miner) {
         //挖矿前计算merkleRoot值
-        merkleRoot = StringUtil.getMerkleRoot(transactions);
-        //生成目标字符串：此处是包含指定数量（difficulty）个连续的0的字符串
-        String target = new String(new char[difficulty]).replace('\0', '0');
-        //检查当前块的hash值中从0到difficulty部分是否与target字符串相同，如果不相同，则修改nonce，重新计算hash
-        while(!hash.substring(0, difficulty).equals(target)) {
-            nonce++;
-            try {
-                hash = calculateHash();
-            } catch (Exception e) {
-                e.printStackTrace();
+        updateMerkleRoot();
+        MiningResult result = miner.mine(this, target);
+        nonce = result.nonce;
+        hash = result.hash;
+        Log.debug(() -> "nonce：" + nonce);
+        return result;
+    }
+
+    /**
+     * 按当前的交易计算merkleRoot。只在末尾追加了交易时增量更新缓存的Merkle树，
+     * 其它修改（替换、删除交易或修改交易id）会重新构建
+     * @return
+     */
+    public String updateMerkleRoot() {
+        merkleRoot = syncMerkleTree().getRootHex();
+        return merkleRoot;
+    }
+
+    /**
+     * 生成第index笔交易的Merkle包含证明，可用 proof.verify(交易id, merkleRoot) 验证
+     * @param index
+     * @return
+     */
+    public MerkleProof getMerkleProof(int index) {
+        return syncMerkleTree().getProof(index);
+    }
+
+    private MerkleTree syncMerkleTree() {
+        if(merkleTree != null && merkleTree.size() <= transactions.size()) {
+            for(int i = 0; i < merkleTree.size(); i++) {
+                if(!Objects.equals(merkleTree.getTransactionId(i), transactions.get(i).transactionId)) {
+                    merkleTree = null;
+                    break;
+                }
+            }
+        } else {
+            merkleTree = null;
+        }
+        if(merkleTree == null) {
+            ArrayList<String> transactionIds = new ArrayList<>(transactions.size());
+            for(Transaction transaction : transactions) {
+                transactionIds.add(transaction.transactionId);
+            }
+            merkleTree = new MerkleTree(transactionIds);
+        } else {
+            for(int i = merkleTree.size(); i < transactions.size(); i++) {
+                merkleTree.append(transactions.get(i).transactionId);
             }
         }
-        System.out.println("nonce：" + nonce);
+        return merkleTree;
     }
 
     /**
-     * 在将交易添加到块时执行交易
+     * 在将交易添加到块时在指定的链上执行交易
      * @param transaction
+     * @param context
      * @return
      */
-    public boolean addTransaction(Transaction transaction) {
+    public boolean addTransaction(Transaction transaction, ChainContext context) {
         //验证交易的有效性
         if(transaction == null) return false;
         if(!prevHash.equals("0")) {
-            if(!transaction.processTransaction()) {
-                System.out.println("交易处理失败！");
+            if(!transaction.processTransaction(context)) {
+                Log.warn("交易处理失败！");
                 return false;
             }
         }
         //将交易添加到
         transactions.add(transaction);
-        System.out.println("交易成功添加到Block中！");
+        Log.debug("交易成功添加到Block中！");
         return true;
     }
 }
@@ -0,0 +1,545 @@
+package ZJChain;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECParameterSpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import utils.HashUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.KeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 区块与交易的紧凑二进制编码（带版本号），用于存储、导入导出与节点间传输。
+ * <ul>
+ *     <li>长度与数量使用变长整数（varint），有符号数先做zigzag变换</li>
+ *     <li>64位16进制的hash/id直接存32字节原始值，其它字符串（如初始交易的"0"）存UTF-8</li>
+ *     <li>已知曲线上的EC公钥存压缩点（prime192v1为25字节），其它公钥存X.509编码</li>
+ * </ul>
+ * 区块编码以版本号开头，其后第一个字段为区块hash，读取索引时无需解码整个区块。
+ * 支持直接在DataOutput/DataInput（如网络或文件流）上逐个编解码
+ */
+public class BlockCodec {
+
+    /**
+     * 当前编码版本（3：金额由float改为zigzag变长整数）
+     */
+    public static final int VERSION = 3;
+
+    //hash字段的类型标记
+    private static final int HASH_NULL = 0;
+    private static final int HASH_RAW = 1;
+    private static final int HASH_STRING = 2;
+
+    //公钥字段的类型标记
+    private static final int KEY_NULL = 0;
+    private static final int KEY_COMPRESSED = 1;
+    private static final int KEY_X509 = 2;
+
+    //交易输入中UTXO的类型标记
+    private static final int UTXO_NONE = 0;
+    /**
+     * UTXO的id与transactionOutputId相同，不再重复存储
+     */
+    private static final int UTXO_SAME_ID = 1;
+    private static final int UTXO_FULL = 2;
+
+    /**
+     * 支持压缩存储的曲线，下标即曲线编号
+     */
+    private static final String[] CURVES = {"prime192v1", "secp256k1", "prime256v1"};
+
+    /**
+     * 字节串（签名、公钥、非hash字符串）长度的上限，解码时先检查再分配，防止伪造的长度占用大量内存
+     */
+    static final int MAX_BYTES = 1 << 16;
+
+    /**
+     * 列表按编码中的数量预分配的上限，更多的元素随实际读到的数据增长
+     */
+    private static final int MAX_PREALLOCATE = 1024;
+
+    /**
+     * 最近解码的公钥缓存，大小固定：按编码的hash放入对应的槽，冲突时直接覆盖。
+     * 同一个公钥反复出现时只解码一次，公钥编码与地址hash也只计算一次
+     */
+    private static final AtomicReferenceArray<CachedKey> KEYS = new AtomicReferenceArray<>(4096);
+
+    private static final class CachedKey {
+        private final int type;
+        private final byte[] encoded;
+        private final Address address;
+
+        private CachedKey(int type, byte[] encoded, Address address) {
+            this.type = type;
+            this.encoded = encoded;
+            this.address = address;
+        }
+    }
+
+    /**
+     * 将区块编码为字节数组
+     * @param block
+     * @return
+     */
+    public static byte[] encode(Block block) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            writeBlock(new DataOutputStream(bytes), block);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 由字节数组解码区块
+     * @param bytes
+     * @return
+     */
+    public static Block decode(byte[] bytes) {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 由字节数组的一部分解码区块，不复制数组（例如网络消息中紧跟在消息头之后的区块编码）
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static Block decode(byte[] bytes, int offset, int length) {
+        try {
+            return readBlock(new DataInputStream(new ByteArrayInputStream(bytes, offset, length)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 将单笔交易编码为字节数组，以版本号开头
+     * @param transaction
+     * @return
+     */
+    public static byte[] encodeTransaction(Transaction transaction) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            writeTransaction(out, transaction);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 由字节数组的一部分解码 encodeTransaction 得到的交易
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static Transaction decodeTransaction(byte[] bytes, int offset, int length) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+            checkVersion(in.readUnsignedByte());
+            return readTransaction(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 从buffer当前位置只读取编码中的区块hash，不改变buffer的position
+     * @param buffer
+     * @return hash，编码中没有hash时返回null
+     * @throws IllegalArgumentException 编码版本不支持、数据不完整或长度字段无效
+     */
+    public static String decodeHash(ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate();
+        try {
+            checkVersion(in.get() & 0xff);
+            int tag = in.get();
+            if(tag == HASH_RAW) {
+                byte[] raw = new byte[HashUtil.SHA256_LENGTH];
+                in.get(raw);
+                return HashUtil.toHex(raw);
+            } else if(tag == HASH_STRING) {
+                int length = readVarInt(in);
+                //writeBytes写入的是长度加1
+                if(length == 0) {
+                    return null;
+                }
+                if(length - 1 > in.remaining()) {
+                    throw new IllegalArgumentException("长度超过剩余数据：" + (length - 1));
+                }
+                byte[] bytes = new byte[length - 1];
+                in.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            return null;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("编码不完整", e);
+        }
+    }
+
+    /**
+     * 从ByteBuffer读取非负int范围内的变长整数，最多5个字节
+     */
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for(int shift = 0; shift <= 28; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7f) << shift;
+            if(b >= 0) {
+                if(value < 0) {
+                    throw new IllegalArgumentException("长度无效：" + Integer.toUnsignedString(value));
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint过长");
+    }
+
+    public static void writeBlock(DataOutput out, Block block) throws IOException {
+        out.writeByte(VERSION);
+        writeHash(out, block.hash);
+        writeHash(out, block.prevHash);
+        writeHash(out, block.merkleRoot);
+        writeVarLong(out, block.timestamp);
+        writeVarLong(out, zigzag(block.nonce));
+        writeVarLong(out, block.transactions.size());
+        for(Transaction transaction : block.transactions) {
+            writeTransaction(out, transaction);
+        }
+    }
+
+    public static Block readBlock(DataInput in) throws IOException {
+        checkVersion(in.readUnsignedByte());
+        String hash = readHash(in);
+        String prevHash = readHash(in);
+        String merkleRoot = readHash(in);
+        long timestamp = readVarLong(in);
+        int nonce = (int) unzigzag(readVarLong(in));
+        Block block = new Block(hash, prevHash, merkleRoot, timestamp, nonce);
+        int count = readCount(in);
+        block.transactions.ensureCapacity(Math.min(count, MAX_PREALLOCATE));
+        for(int i = 0; i < count; i++) {
+            block.transactions.add(readTransaction(in));
+        }
+        return block;
+    }
+
+    /**
+     * 编码单笔交易（不带版本号，版本由所在的区块或消息决定）
+     * @param out
+     * @param transaction
+     * @throws IOException
+     */
+    public static void writeTransaction(DataOutput out, Transaction transaction) throws IOException {
+        writeHash(out, transaction.transactionId);
+        writeKey(out, transaction.sender);
+        writeKey(out, transaction.recipient);
+        writeVarLong(out, zigzag(transaction.value));
+        writeBytes(out, transaction.signature);
+        if(transaction.inputs == null) {
+            writeVarLong(out, 0);
+        } else {
+            //数量加1，0表示inputs为null
+            writeVarLong(out, transaction.inputs.size() + 1L);
+            for(TransactionInput input : transaction.inputs) {
+                writeHash(out, input.transactionOutputId);
+                if(input.UTXO == null) {
+                    out.writeByte(UTXO_NONE);
+                } else if(input.UTXO.id != null && input.UTXO.id.equals(input.transactionOutputId)) {
+                    out.writeByte(UTXO_SAME_ID);
+                    writeOutputBody(out, input.UTXO);
+                } else {
+                    out.writeByte(UTXO_FULL);
+                    writeOutput(out, input.UTXO);
+                }
+            }
+        }
+        writeVarLong(out, transaction.outputs.size());
+        for(TransactionOutput output : transaction.outputs) {
+            writeOutput(out, output);
+        }
+    }
+
+    public static Transaction readTransaction(DataInput in) throws IOException {
+        String transactionId = readHash(in);
+        Address sender = readKey(in);
+        Address recipient = readKey(in);
+        long value = unzigzag(readVarLong(in));
+        byte[] signature = readBytes(in);
+        ArrayList<TransactionInput> inputs = null;
+        int inputCount = readCount(in) - 1;
+        if(inputCount >= 0) {
+            inputs = new ArrayList<>(Math.min(inputCount, MAX_PREALLOCATE));
+            for(int i = 0; i < inputCount; i++) {
+                TransactionInput input = new TransactionInput(readHash(in));
+                int utxo = in.readUnsignedByte();
+                if(utxo == UTXO_SAME_ID) {
+                    input.UTXO = readOutputBody(in, input.transactionOutputId);
+                } else if(utxo == UTXO_FULL) {
+                    input.UTXO = readOutput(in);
+                } else if(utxo != UTXO_NONE) {
+                    throw new IOException("未知的UTXO类型：" + utxo);
+                }
+                inputs.add(input);
+            }
+        }
+        Transaction transaction = Transaction.create(sender, recipient, value, inputs);
+        transaction.transactionId = transactionId;
+        transaction.signature = signature;
+        int outputCount = readCount(in);
+        for(int i = 0; i < outputCount; i++) {
+            transaction.outputs.add(readOutput(in));
+        }
+        return transaction;
+    }
+
+    static void writeOutput(DataOutput out, TransactionOutput output) throws IOException {
+        writeHash(out, output.id);
+        writeOutputBody(out, output);
+    }
+
+    private static void writeOutputBody(DataOutput out, TransactionOutput output) throws IOException {
+        writeKey(out, output.recipient);
+        writeVarLong(out, zigzag(output.value));
+        writeHash(out, output.parentTransactionId);
+    }
+
+    static TransactionOutput readOutput(DataInput in) throws IOException {
+        return readOutputBody(in, readHash(in));
+    }
+
+    private static TransactionOutput readOutputBody(DataInput in, String id) throws IOException {
+        Address recipient = readKey(in);
+        long value = unzigzag(readVarLong(in));
+        String parentTransactionId = readHash(in);
+        return new TransactionOutput(id, recipient, value, parentTransactionId);
+    }
+
+    private static void checkVersion(int version) {
+        if(version != VERSION) {
+            throw new IllegalArgumentException("不支持的编码版本：" + version);
+        }
+    }
+
+    // ---------------- hash ----------------
+
+    private static void writeHash(DataOutput out, String hash) throws IOException {
+        if(hash == null) {
+            out.writeByte(HASH_NULL);
+        } else if(HashUtil.isSha256Hex(hash)) {
+            //只有小写16进制形式解码后能还原成相同的字符串
+            out.writeByte(HASH_RAW);
+            out.write(HashUtil.fromHex(hash));
+        } else {
+            out.writeByte(HASH_STRING);
+            writeBytes(out, hash.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String readHash(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case HASH_NULL:
+                return null;
+            case HASH_RAW:
+                byte[] raw = new byte[HashUtil.SHA256_LENGTH];
+                in.readFully(raw);
+                return HashUtil.toHex(raw);
+            case HASH_STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            default:
+                throw new IOException("未知的hash类型：" + tag);
+        }
+    }
+
+    // ---------------- 公钥 ----------------
+
+    private static void writeKey(DataOutput out, PublicKey key) throws IOException {
+        if(key == null) {
+            out.writeByte(KEY_NULL);
+            return;
+        }
+        int curve = curveOf(key);
+        if(curve >= 0) {
+            out.writeByte(KEY_COMPRESSED);
+            out.writeByte(curve);
+            writeBytes(out, ((ECPublicKey) key).getQ().getEncoded(true));
+        } else {
+            out.writeByte(KEY_X509);
+            writeBytes(out, key.getEncoded());
+        }
+    }
+
+    private static Address readKey(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case KEY_NULL:
+                return null;
+            case KEY_COMPRESSED: {
+                int curve = in.readUnsignedByte();
+                if(curve >= CURVES.length) {
+                    throw new IOException("未知的曲线编号：" + curve);
+                }
+                byte[] point = readBytes(in);
+                if(point == null) {
+                    throw new IOException("公钥编码为空");
+                }
+                Address cached = cachedKey(curve, point);
+                if(cached != null) {
+                    return cached;
+                }
+                ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec(CURVES[curve]);
+                return cacheKey(curve, point,
+                        Address.of(generatePublic(new ECPublicKeySpec(spec.getCurve().decodePoint(point), spec))));
+            }
+            case KEY_X509: {
+                byte[] encoded = readBytes(in);
+                if(encoded == null) {
+                    throw new IOException("公钥编码为空");
+                }
+                //X.509编码用-1与曲线编号区分
+                Address cached = cachedKey(-1, encoded);
+                if(cached != null) {
+                    return cached;
+                }
+                return cacheKey(-1, encoded, Address.of(generatePublic(new X509EncodedKeySpec(encoded))));
+            }
+            default:
+                throw new IOException("未知的公钥类型：" + tag);
+        }
+    }
+
+    private static int keySlot(int type, byte[] encoded) {
+        int h = Arrays.hashCode(encoded) * 31 + type;
+        return (h ^ (h >>> 16)) & (KEYS.length() - 1);
+    }
+
+    private static Address cachedKey(int type, byte[] encoded) {
+        CachedKey cached = KEYS.get(keySlot(type, encoded));
+        if(cached != null && cached.type == type && Arrays.equals(cached.encoded, encoded)) {
+            return cached.address;
+        }
+        return null;
+    }
+
+    private static Address cacheKey(int type, byte[] encoded, Address address) {
+        KEYS.set(keySlot(type, encoded), new CachedKey(type, encoded, address));
+        return address;
+    }
+
+    /**
+     * 公钥所在曲线在CURVES中的编号，不能压缩存储时返回-1
+     */
+    private static int curveOf(PublicKey key) {
+        if(!(key instanceof ECPublicKey)) {
+            return -1;
+        }
+        ECParameterSpec params = ((ECPublicKey) key).getParameters();
+        if(!(params instanceof ECNamedCurveParameterSpec)) {
+            return -1;
+        }
+        String name = ((ECNamedCurveParameterSpec) params).getName();
+        for(int i = 0; i < CURVES.length; i++) {
+            if(CURVES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static PublicKey generatePublic(KeySpec spec) {
+        try {
+            return KeyFactory.getInstance("ECDSA", "BC").generatePublic(spec);
+        } catch (Exception e) {
+            throw new IllegalStateException("无法解码公钥", e);
+        }
+    }
+
+    // ---------------- 基本类型 ----------------
+
+    private static void writeBytes(DataOutput out, byte[] value) throws IOException {
+        if(value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        //长度加1，0表示null
+        writeVarLong(out, value.length + 1L);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        int length = readCount(in) - 1;
+        if(length < 0) {
+            return null;
+        }
+        if(length > MAX_BYTES) {
+            throw new IOException("字节串长度超过上限：" + length);
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        long count = readVarLong(in);
+        if(count < 0 || count > Integer.MAX_VALUE) {
+            throw new IOException("长度无效：" + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * 无符号变长整数：每字节7位，最高位表示后面还有字节
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint过长");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,255 @@
+package ZJChain;
+
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 出块流水线：组装线程与挖矿线程并行工作。
+ * <ul>
+ *     <li>组装线程：链尾变化或交易池变化时，从交易池中取优先级最高的交易组装下一个区块模板
+ *     （prevHash、交易、merkleRoot），发布为当前模板</li>
+ *     <li>挖矿线程：挖当前模板，发现模板已被替换时立即中止并改挖新模板；挖到后一次性提交模板中所有交易，
+ *     将区块加入区块链并从交易池中移除这些交易，然后唤醒组装线程</li>
+ * </ul>
+ * 区块链只能由本流水线追加，交易池为空时不挖空块
+ */
+public class BlockProducer {
+
+    /**
+     * 组装线程在没有变化时的检查间隔
+     */
+    private static final long ASSEMBLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final ChainContext context;
+    private final Mempool mempool;
+    private final Miner miner;
+    private final int maxTransactions;
+
+    /**
+     * 当前正在挖的模板，没有可打包的交易时为null
+     */
+    private final AtomicReference<Block> template = new AtomicReference<>();
+    private final AtomicLong blocksProduced = new AtomicLong();
+    private final AtomicLong templatesSwitched = new AtomicLong();
+    private final AtomicLong hashes = new AtomicLong();
+    private final Object produced = new Object();
+
+    private volatile boolean running;
+    private Thread assembler;
+    private Thread minerThread;
+
+    /**
+     * @param context 产出的区块加入的链
+     * @param mempool 交易来源
+     * @param miner 挖矿器
+     * @param maxTransactions 每个区块最多包含的交易数
+     */
+    public BlockProducer(ChainContext context, Mempool mempool, Miner miner, int maxTransactions) {
+        if(maxTransactions < 1) {
+            throw new IllegalArgumentException("每个区块的交易数必须大于0：" + maxTransactions);
+        }
+        this.context = context;
+        this.mempool = mempool;
+        this.miner = miner;
+        this.maxTransactions = maxTransactions;
+    }
+
+    /**
+     * 启动组装线程与挖矿线程，区块链中至少要有创世块
+     */
+    public synchronized void start() {
+        if(running) {
+            return;
+        }
+        if(context.blockChain.isEmpty()) {
+            throw new IllegalStateException("区块链中没有创世块");
+        }
+        running = true;
+        assembler = new Thread(this::assembleLoop, "block-assembler");
+        minerThread = new Thread(this::mineLoop, "block-miner");
+        assembler.setDaemon(true);
+        minerThread.setDaemon(true);
+        assembler.start();
+        minerThread.start();
+    }
+
+    /**
+     * 停止流水线并等待线程结束，正在挖的模板被放弃
+     */
+    public synchronized void stop() throws InterruptedException {
+        if(!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(assembler);
+        synchronized (template) {
+            template.notifyAll();
+        }
+        assembler.join();
+        minerThread.join();
+        template.set(null);
+    }
+
+    /**
+     * 等待累计出块数达到count
+     * @param count
+     * @param timeout
+     * @param unit
+     * @return 超时前是否达到
+     */
+    public boolean awaitBlocks(long count, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (produced) {
+            while(blocksProduced.get() < count) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(produced, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 累计产出的区块数
+     * @return
+     */
+    public long getBlocksProduced() {
+        return blocksProduced.get();
+    }
+
+    /**
+     * 模板在挖出之前被新模板替换的次数
+     * @return
+     */
+    public long getTemplatesSwitched() {
+        return templatesSwitched.get();
+    }
+
+    /**
+     * 已产出区块累计计算的hash次数
+     * @return
+     */
+    public long getHashes() {
+        return hashes.get();
+    }
+
+    private void assembleLoop() {
+        String builtOn = null;
+        long builtVersion = -1;
+        while(running) {
+            Block tip = context.getTip();
+            long version = mempool.getVersion();
+            if(!tip.hash.equals(builtOn) || version != builtVersion) {
+                builtOn = tip.hash;
+                builtVersion = version;
+                publish(assemble(tip));
+            }
+            LockSupport.parkNanos(ASSEMBLE_INTERVAL_NANOS);
+        }
+    }
+
+    /**
+     * 以tip为前一块，用交易池中优先级最高的交易组装模板，交易此时尚未提交
+     */
+    private Block assemble(Block tip) {
+        List<Transaction> transactions = mempool.getBlockTemplate(maxTransactions);
+        if(transactions.isEmpty()) {
+            return null;
+        }
+        Block block = new Block(tip.hash);
+        block.transactions.addAll(transactions);
+        block.updateMerkleRoot();
+        return block;
+    }
+
+    private void publish(Block next) {
+        Block previous = template.getAndSet(next);
+        if(previous != null) {
+            templatesSwitched.incrementAndGet();
+        }
+        synchronized (template) {
+            template.notifyAll();
+        }
+    }
+
+    private void mineLoop() {
+        while(running) {
+            Block block;
+            synchronized (template) {
+                while(running && template.get() == null) {
+                    try {
+                        template.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                block = template.get();
+            }
+            if(block == null) {
+                return;
+            }
+            //模板建立在当前链尾上，链尾变化时模板会被替换，因此按当前链计算的目标就是该块高度的目标
+            Target target = context.getNextTarget();
+            MiningResult result = miner.mine(block, target, () -> !running || template.get() != block);
+            if(result == null) {
+                continue;
+            }
+            context.recordMining(result);
+            block.nonce = result.nonce;
+            block.hash = result.hash;
+            template.compareAndSet(block, null);
+            if(commit(block)) {
+                hashes.addAndGet(result.hashes);
+                synchronized (produced) {
+                    blocksProduced.incrementAndGet();
+                    produced.notifyAll();
+                }
+            }
+            //链尾或交易池已变化，立即组装下一个模板
+            LockSupport.unpark(assembler);
+        }
+    }
+
+    /**
+     * 一次性提交区块中的所有交易并加入区块链。模板组装后若有交易的输入已被花费，则整个区块作废，
+     * 并将这些交易从交易池中移除
+     */
+    private boolean commit(Block block) {
+        //模板可能是在上一个区块加入之前组装的
+        Block tip = context.getTip();
+        if(!tip.hash.equals(block.prevHash)) {
+            return false;
+        }
+        List<String> inputIds = new ArrayList<>();
+        List<TransactionOutput> outputs = new ArrayList<>();
+        for(Transaction transaction : block.transactions) {
+            for(TransactionInput input : transaction.inputs) {
+                inputIds.add(input.transactionOutputId);
+            }
+            outputs.addAll(transaction.outputs);
+        }
+        if(!context.UTXOs.spend(inputIds, outputs)) {
+            for(Transaction transaction : block.transactions) {
+                for(TransactionInput input : transaction.inputs) {
+                    if(!context.UTXOs.containsKey(input.transactionOutputId)) {
+                        Log.warn("交易输入已被花费，从交易池中移除：" + transaction.transactionId);
+                        mempool.remove(transaction.transactionId);
+                        break;
+                    }
+                }
+            }
+            return false;
+        }
+        context.blockChain.add(block);
+        mempool.removeBlock(block);
+        return true;
+    }
+}
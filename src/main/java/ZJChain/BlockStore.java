@@ -0,0 +1,38 @@
+package ZJChain;
+
+import java.util.AbstractList;
+
+/**
+ * 区块存储：按高度（下标）或hash读取区块，只能在末尾追加或从末尾截断。
+ * 继承AbstractList，可以像原来的ArrayList<Block>一样按下标遍历
+ */
+public abstract class BlockStore extends AbstractList<Block> {
+
+    /**
+     * 按hash查找区块，不存在时返回null
+     * @param hash
+     * @return
+     */
+    public abstract Block getByHash(String hash);
+
+    /**
+     * 按hash查找区块的高度，不存在时返回-1
+     * @param hash
+     * @return
+     */
+    public abstract int getHeight(String hash);
+
+    /**
+     * 在末尾追加区块
+     * @param block
+     * @return
+     */
+    @Override
+    public abstract boolean add(Block block);
+
+    /**
+     * 删除高度size及之后的区块（切换分支时回退链尾）
+     * @param size 保留的块数，不超过当前块数
+     */
+    public abstract void truncate(int size);
+}
@@ -0,0 +1,410 @@
+package ZJChain;
+
+import utils.Log;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 区块树：保存收到的所有分支，记录每个块的累计工作量（各块目标的期望hash次数之和），
+ * 累计工作量最大的分支作为主链写入 {@link ChainContext} 的区块存储与UTXO集合。
+ * <ul>
+ *     <li>树中每个块只保存hash、高度、累计工作量与前一块，主链上的块从区块存储中读取，只有不在主链上的块保存在内存中</li>
+ *     <li>主链上每个块都有 {@link UndoRecord}（由区块存储中的块生成），切换分支时从链尾逐块撤销到分叉点，再逐块执行新分支，
+ *     代价与回退的深度成正比，与链的长度无关</li>
+ *     <li>新分支中有无效的块时，标记该块及其后代无效，并恢复原来的主链</li>
+ *     <li>通过其它方式（例如 ZJChain.addBlock）追加到区块存储的块在下一次操作时加入树中</li>
+ * </ul>
+ * 交易池中的交易不会随分支切换自动调整
+ */
+public class BlockTree {
+
+    /**
+     * 加入区块的结果
+     */
+    public enum Status {
+        /**
+         * 接在主链末尾
+         */
+        CONNECTED,
+        /**
+         * 所在分支的工作量超过主链，已切换到该分支
+         */
+        REORGANIZED,
+        /**
+         * 保存在工作量不超过主链的分支上
+         */
+        SIDE_CHAIN,
+        /**
+         * 已经收到过
+         */
+        DUPLICATE,
+        /**
+         * 前一块未知
+         */
+        ORPHAN,
+        /**
+         * 区块或其祖先无效
+         */
+        INVALID
+    }
+
+    private static class Node {
+        private final String hash;
+        private final Node parent;
+        private final int height;
+        private final double work;
+        /**
+         * 不在主链上的块，在主链上时为null（从区块存储读取），无效时也为null
+         */
+        private Block block;
+        private boolean invalid;
+
+        private Node(String hash, Node parent, int height, double work) {
+            this.hash = hash;
+            this.parent = parent;
+            this.height = height;
+            this.work = work;
+        }
+    }
+
+    private final ChainContext context;
+    private final HashMap<String, Node> nodes = new HashMap<>();
+    /**
+     * 主链，下标为高度
+     */
+    private final ArrayList<Node> active = new ArrayList<>();
+    private int reorganizations;
+    private int maxReorganizationDepth;
+
+    /**
+     * 以context中已有的区块链作为主链
+     * @param context
+     */
+    public BlockTree(ChainContext context) {
+        this.context = context;
+        sync();
+    }
+
+    /**
+     * 加入一个已挖好的区块
+     * @param block
+     * @return
+     */
+    public synchronized Status add(Block block) {
+        sync();
+        Node existing = nodes.get(block.hash);
+        if(existing != null) {
+            return existing.invalid ? Status.INVALID : Status.DUPLICATE;
+        }
+        Node parent = nodes.get(block.prevHash);
+        if(parent == null) {
+            return Status.ORPHAN;
+        }
+        if(parent.invalid) {
+            return Status.INVALID;
+        }
+        int height = parent.height + 1;
+        Branch branch = new Branch(parent);
+        Target target = context.getDifficultyEngine().getTarget(branch, height);
+        if(!ChainValidator.isHeaderValid(getBlock(parent), block, target, ChainValidator.getMedianTimePast(branch, height),
+                System.currentTimeMillis() + ChainValidator.MAX_FUTURE_MILLIS)) {
+            return Status.INVALID;
+        }
+        Node node = new Node(block.hash, parent, height, parent.work + target.getExpectedHashes());
+        node.block = block;
+        nodes.put(block.hash, node);
+
+        Node tip = getTipNode();
+        if(parent == tip) {
+            if(connect(node)) {
+                return Status.CONNECTED;
+            }
+            invalidate(node);
+            return Status.INVALID;
+        }
+        if(node.work > tip.work) {
+            return activate(node) ? Status.REORGANIZED : Status.INVALID;
+        }
+        return Status.SIDE_CHAIN;
+    }
+
+    /**
+     * 不考虑工作量，将主链切换到以hash为末尾的分支（也可以是主链上较早的块，即回退主链），
+     * 用于人工干预与基准测试
+     * @param hash
+     * @return 切换是否成功，分支上有无效的块时保持原来的主链
+     */
+    public synchronized boolean switchTo(String hash) {
+        sync();
+        Node node = nodes.get(hash);
+        if(node == null || node.invalid) {
+            return false;
+        }
+        return node == getTipNode() || activate(node);
+    }
+
+    /**
+     * 主链末尾的区块
+     * @return
+     */
+    public synchronized Block getTip() {
+        sync();
+        Node tip = getTipNode();
+        return tip == null ? null : getBlock(tip);
+    }
+
+    /**
+     * 主链末尾的累计工作量
+     * @return
+     */
+    public synchronized double getTipWork() {
+        sync();
+        Node tip = getTipNode();
+        return tip == null ? 0 : tip.work;
+    }
+
+    /**
+     * 区块的累计工作量，未知的区块返回-1
+     * @param hash
+     * @return
+     */
+    public synchronized double getWork(String hash) {
+        sync();
+        Node node = nodes.get(hash);
+        return node == null ? -1 : node.work;
+    }
+
+    /**
+     * 是否收到过该区块（包括分支上的块）
+     * @param hash
+     * @return
+     */
+    public synchronized boolean contains(String hash) {
+        sync();
+        return nodes.containsKey(hash);
+    }
+
+    /**
+     * 主链上区块的撤销记录，不在主链上时返回null
+     * @param hash
+     * @return
+     */
+    public synchronized UndoRecord getUndo(String hash) {
+        sync();
+        Node node = nodes.get(hash);
+        return node == null || !isActive(node) ? null : UndoRecord.of(getBlock(node));
+    }
+
+    /**
+     * 收到的区块数（所有分支）
+     * @return
+     */
+    public synchronized int size() {
+        sync();
+        return nodes.size();
+    }
+
+    /**
+     * 切换分支的次数
+     * @return
+     */
+    public synchronized int getReorganizations() {
+        return reorganizations;
+    }
+
+    /**
+     * 切换分支时回退的最大块数
+     * @return
+     */
+    public synchronized int getMaxReorganizationDepth() {
+        return maxReorganizationDepth;
+    }
+
+    private Node getTipNode() {
+        return active.isEmpty() ? null : active.get(active.size() - 1);
+    }
+
+    /**
+     * 节点对应的区块，主链上的块从区块存储中读取
+     */
+    private Block getBlock(Node node) {
+        return node.block != null ? node.block : context.blockChain.get(node.height);
+    }
+
+    /**
+     * 标记无效，不再保存区块（之后收到同一块时直接拒绝）
+     */
+    private static void invalidate(Node node) {
+        node.invalid = true;
+        node.block = null;
+    }
+
+    /**
+     * 将区块存储中还不在树里的块接到主链末尾。主链被其它方式替换时按区块存储重建
+     */
+    private void sync() {
+        BlockStore blockChain = context.blockChain;
+        int size = blockChain.size();
+        if(active.size() > size || (!active.isEmpty()
+                && !getTipNode().hash.equals(blockChain.get(active.size() - 1).hash))) {
+            nodes.clear();
+            active.clear();
+        }
+        int from = active.size();
+        if(from == size) {
+            return;
+        }
+        Target[] targets = context.getDifficultyEngine().getTargets(blockChain, from, size);
+        for(int height = from; height < size; height++) {
+            String hash = blockChain.get(height).hash;
+            Node parent = getTipNode();
+            Node node = new Node(hash, parent, height,
+                    (parent == null ? 0 : parent.work) + targets[height - from].getExpectedHashes());
+            nodes.put(hash, node);
+            active.add(node);
+        }
+    }
+
+    /**
+     * 将主链切换到以target为末尾的分支
+     */
+    private boolean activate(Node target) {
+        //新分支上不在主链中的块，从分叉点之后到target
+        List<Node> branch = new ArrayList<>();
+        Node fork = target;
+        while(!isActive(fork)) {
+            branch.add(fork);
+            fork = fork.parent;
+        }
+        Collections.reverse(branch);
+
+        List<Node> removed = new ArrayList<>();
+        while(getTipNode() != fork) {
+            Node tip = getTipNode();
+            disconnect(tip);
+            removed.add(tip);
+        }
+        for(int i = 0; i < branch.size(); i++) {
+            if(!connect(branch.get(i))) {
+                for(int j = i; j < branch.size(); j++) {
+                    invalidate(branch.get(j));
+                }
+                Log.warn("分支上高度" + branch.get(i).height + "的块无效，恢复原来的主链");
+                while(getTipNode() != fork) {
+                    disconnect(getTipNode());
+                }
+                for(int j = removed.size() - 1; j >= 0; j--) {
+                    if(!connect(removed.get(j))) {
+                        throw new IllegalStateException("无法恢复原来的主链，高度：" + removed.get(j).height);
+                    }
+                }
+                return false;
+            }
+        }
+        if(!removed.isEmpty()) {
+            reorganizations++;
+            maxReorganizationDepth = Math.max(maxReorganizationDepth, removed.size());
+            Log.info("切换分支：回退" + removed.size() + "块，接入" + branch.size() + "块，高度" + target.height);
+        }
+        return true;
+    }
+
+    private boolean isActive(Node node) {
+        return node.height < active.size() && active.get(node.height) == node;
+    }
+
+    /**
+     * 在UTXO集合上执行区块中的交易并追加到区块存储。任何一笔交易无效时撤销已执行的交易并返回false
+     */
+    private boolean connect(Node node) {
+        Block block = node.block;
+        UndoRecord undo = new UndoRecord();
+        for(Transaction transaction : block.transactions) {
+            List<TransactionOutput> spent = apply(transaction);
+            if(spent == null) {
+                undo.undo(context.UTXOs);
+                return false;
+            }
+            undo.add(spent, transaction.outputs);
+        }
+        context.blockChain.add(block);
+        context.index.sync();
+        node.block = null;
+        active.add(node);
+        return true;
+    }
+
+    /**
+     * 从链尾移除区块并撤销它对UTXO集合的修改，区块移出存储后保存在节点中
+     */
+    private void disconnect(Node node) {
+        Block block = context.blockChain.get(node.height);
+        context.index.disconnect(block);
+        context.blockChain.truncate(node.height);
+        UndoRecord.of(block).undo(context.UTXOs);
+        node.block = block;
+        active.remove(active.size() - 1);
+    }
+
+    /**
+     * 检查并执行一笔交易：签名有效，并满足与校验器相同的交易规则（{@link ChainValidator#checkTransaction}）
+     * @return 被花费的输出，交易无效时返回null
+     */
+    private List<TransactionOutput> apply(Transaction transaction) {
+        try {
+            if(!transaction.verifySignature()) {
+                return null;
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        List<TransactionOutput> spent = ChainValidator.checkTransaction(transaction, context.UTXOs::get);
+        if(spent == null) {
+            return null;
+        }
+        List<String> inputIds = new ArrayList<>(spent.size());
+        for(TransactionOutput output : spent) {
+            inputIds.add(output.id);
+        }
+        if(!context.UTXOs.spend(inputIds, transaction.outputs)) {
+            return null;
+        }
+        return spent;
+    }
+
+    /**
+     * 从创世块到指定块的分支，计算分支上的挖矿目标时使用
+     */
+    private class Branch extends AbstractList<Block> {
+        private final Node[] blocks;
+        private final int forkHeight;
+
+        private Branch(Node tip) {
+            List<Node> path = new ArrayList<>();
+            Node node = tip;
+            while(!isActive(node)) {
+                path.add(node);
+                node = node.parent;
+            }
+            forkHeight = node.height;
+            blocks = new Node[path.size()];
+            for(int i = 0; i < blocks.length; i++) {
+                blocks[i] = path.get(blocks.length - 1 - i);
+            }
+        }
+
+        @Override
+        public Block get(int height) {
+            return height <= forkHeight ? context.blockChain.get(height) : blocks[height - forkHeight - 1].block;
+        }
+
+        @Override
+        public int size() {
+            return forkHeight + 1 + blocks.length;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ZJChain;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一条区块链的全部状态：区块存储、UTXO集合、参数与交易序号。
+ * 交易、钱包、交易池与出块流水线都通过参数或构造方法取得所属的链，
+ * 同一个进程中可以同时存在多条互不影响的链（多条分片、多个模拟节点或并行运行的测试）
+ */
+public class ChainContext {
+
+    /**
+     * 默认挖矿难度
+     */
+    public static final int DEFAULT_DIFFICULTY = 5;
+
+    /**
+     * 区块存储，默认保存在内存中，也可以使用持久化的存储，例如 new MappedBlockStore(目录)
+     */
+    public final BlockStore blockChain;
+    /**
+     * 所有有效的UTXO，键是TransactionOutputId，并按拥有者建立索引
+     */
+    public final UTXOSet UTXOs;
+    /**
+     * 按交易id与地址查询的索引，随区块链增量更新
+     */
+    public final ChainIndex index;
+    /**
+     * 固定难度（hash开头0的16进制位数），没有设置difficultyEngine时使用
+     */
+    public volatile int difficulty = DEFAULT_DIFFICULTY;
+    /**
+     * 难度调整，为null时所有区块使用固定难度difficulty
+     */
+    public volatile DifficultyEngine difficultyEngine;
+    /**
+     * 本机挖矿的算力统计
+     */
+    public final HashRateMeter hashRate = new HashRateMeter();
+    /**
+     * 本链的挖矿、交易处理与校验指标，可用 new MetricsServer(metrics, 端口) 输出
+     */
+    public final Metrics metrics = new Metrics();
+    /**
+     * 每次交易的最小交易额（最小单位，默认0.1个币）
+     */
+    public volatile long minimumTransaction = Amount.COIN / 10;
+    /**
+     * 初始交易（创建区块链时初始化第一笔交易）
+     */
+    public volatile Transaction genesisTransaction;
+
+    /**
+     * 交易序号，用于记录交易数量并区分内容相同的交易
+     */
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    public ChainContext() {
+        this(new MemoryBlockStore());
+    }
+
+    /**
+     * @param blockChain 区块存储
+     */
+    public ChainContext(BlockStore blockChain) {
+        this(blockChain, new UTXOSet());
+    }
+
+    public ChainContext(BlockStore blockChain, UTXOSet UTXOs) {
+        this(blockChain, UTXOs, new ChainIndex(blockChain));
+    }
+
+    /**
+     * @param blockChain 区块存储
+     * @param UTXOs UTXO集合
+     * @param index 索引，例如 ChainIndex.load(文件, blockChain) 恢复的持久化索引
+     */
+    public ChainContext(BlockStore blockChain, UTXOSet UTXOs, ChainIndex index) {
+        this.blockChain = blockChain;
+        this.UTXOs = UTXOs;
+        this.index = index;
+        metrics.gauge(Metrics.UTXO_SIZE, UTXOs::size);
+        metrics.gauge(Metrics.CHAIN_HEIGHT, blockChain::size);
+        metrics.gauge(Metrics.LOCAL_HASH_RATE, hashRate::getHashRate);
+    }
+
+    /**
+     * 取得下一个交易序号，多个线程同时准备交易时也不会重复
+     * @return
+     */
+    public int nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * 已经分配的交易序号数
+     * @return
+     */
+    public int getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * 记录本机的一次挖矿，null（被中止的挖矿）被忽略
+     * @param result
+     */
+    public void recordMining(MiningResult result) {
+        if(result != null) {
+            hashRate.record(result);
+            metrics.timer(Metrics.MINING).record(result.elapsedNanos, result.hashes);
+        }
+    }
+
+    /**
+     * 当前使用的难度规则：设置了difficultyEngine时返回它，否则返回固定难度difficulty对应的规则
+     * @return
+     */
+    public DifficultyEngine getDifficultyEngine() {
+        DifficultyEngine engine = difficultyEngine;
+        return engine != null ? engine : DifficultyEngine.fixed(Target.ofNibbles(difficulty));
+    }
+
+    /**
+     * 下一个加入区块链的区块需要满足的目标
+     * @return
+     */
+    public Target getNextTarget() {
+        return getDifficultyEngine().getNextTarget(blockChain);
+    }
+
+    /**
+     * 根据最近blocks个区块估算的全网算力（每秒hash次数）
+     * @param blocks
+     * @return
+     */
+    public double getNetworkHashRate(int blocks) {
+        return getDifficultyEngine().getNetworkHashRate(blockChain, blocks);
+    }
+
+    /**
+     * 链尾的区块，区块链为空时返回null
+     * @return
+     */
+    public Block getTip() {
+        int size = blockChain.size();
+        return size == 0 ? null : blockChain.get(size - 1);
+    }
+}
@@ -0,0 +1,378 @@
+package ZJChain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 区块链的查询索引：区块hash->高度（由区块存储维护）、交易id->(高度, 块内位置)、地址->收到的交易输出与花费记录。
+ * {@link #sync()} 只索引上次之后追加的块，切换分支时由 {@link #disconnect(Block)} 逐块撤销链尾的索引，
+ * 链被其它方式替换时从头重建；查询前也会自动同步。
+ * 交易id与地址以二进制保存在 {@link HashIndex} 中，每条地址记录压缩为一个long，
+ * 可以用 {@link #save(File)} 保存，下次用 {@link #load(File, BlockStore)} 恢复后只需索引新增的块
+ */
+public class ChainIndex {
+
+    private static final int MAGIC = 0x5A4A4349; //"ZJCI"
+    private static final int VERSION = 1;
+
+    /**
+     * 块内交易位置与交易内输入输出下标的上限（压缩记录时各自占用的比特数）
+     */
+    private static final int POSITION_BITS = 20;
+    private static final int INDEX_BITS = 11;
+
+    /**
+     * 交易在区块链中的位置
+     */
+    public static class Location {
+        /**
+         * 所在块的高度
+         */
+        public final int height;
+        /**
+         * 在块的交易列表中的下标
+         */
+        public final int position;
+
+        Location(int height, int position) {
+            this.height = height;
+            this.position = position;
+        }
+
+        @Override
+        public String toString() {
+            return "高度：" + height + " 位置：" + position;
+        }
+    }
+
+    /**
+     * 地址的一条历史记录：收到一个交易输出，或花费了一个交易输出
+     */
+    public static class HistoryEntry extends Location {
+        /**
+         * 收到时为交易输出的下标，花费时为交易输入的下标
+         */
+        public final int index;
+        /**
+         * 是否为花费
+         */
+        public final boolean spend;
+
+        HistoryEntry(int height, int position, int index, boolean spend) {
+            super(height, position);
+            this.index = index;
+            this.spend = spend;
+        }
+
+        @Override
+        public String toString() {
+            return super.toString() + (spend ? " 花费输入：" : " 收到输出：") + index;
+        }
+    }
+
+    private final BlockStore blockChain;
+    /**
+     * 交易id->高度（高32位）与块内位置（低32位）
+     */
+    private HashIndex transactions = new HashIndex();
+    /**
+     * 地址hash->地址编号
+     */
+    private HashIndex addresses = new HashIndex();
+    /**
+     * 每个地址编号的历史记录，按块顺序追加
+     */
+    private long[][] histories = new long[16][];
+    private int[] historySizes = new int[16];
+    private int addressCount;
+    /**
+     * 已索引的块数与其中最后一块的hash
+     */
+    private int indexedHeight;
+    private String indexedHash;
+
+    /**
+     * @param blockChain 被索引的区块存储
+     */
+    public ChainIndex(BlockStore blockChain) {
+        this.blockChain = blockChain;
+    }
+
+    /**
+     * 索引上次同步之后追加的块。已索引的最后一块被替换时丢弃索引并从头重建
+     * @return 本次索引的块数
+     */
+    public synchronized int sync() {
+        int size = blockChain.size();
+        if(indexedHeight > size
+                || (indexedHeight > 0 && !blockChain.get(indexedHeight - 1).hash.equals(indexedHash))) {
+            reset();
+        }
+        int from = indexedHeight;
+        for(int height = from; height < size; height++) {
+            Block block = blockChain.get(height);
+            index(block, height);
+            indexedHeight = height + 1;
+            indexedHash = block.hash;
+        }
+        return size - from;
+    }
+
+    /**
+     * 撤销链尾一块的索引，需要在区块存储截断之前调用。block不是已索引的最后一块时丢弃整个索引，之后从头重建
+     * @param block
+     */
+    public synchronized void disconnect(Block block) {
+        if(indexedHeight == 0 || !block.hash.equals(indexedHash)) {
+            reset();
+            return;
+        }
+        int height = indexedHeight - 1;
+        for(Transaction transaction : block.transactions) {
+            long location = transactions.get(transaction.transactionId);
+            if(location >= 0 && (int) (location >>> 32) == height) {
+                transactions.remove(transaction.transactionId);
+            }
+            if(transaction.inputs != null) {
+                for(TransactionInput input : transaction.inputs) {
+                    if(input.UTXO != null) {
+                        unrecord(input.UTXO.getRecipientAddress(), height);
+                    }
+                }
+            }
+            for(TransactionOutput output : transaction.outputs) {
+                unrecord(output.getRecipientAddress(), height);
+            }
+        }
+        indexedHeight = height;
+        indexedHash = height == 0 ? null : block.prevHash;
+    }
+
+    /**
+     * 已索引的块数
+     * @return
+     */
+    public synchronized int getIndexedHeight() {
+        return indexedHeight;
+    }
+
+    /**
+     * 区块hash对应的高度，不存在时返回-1
+     * @param blockHash
+     * @return
+     */
+    public int getHeight(String blockHash) {
+        return blockChain.getHeight(blockHash);
+    }
+
+    /**
+     * 交易所在的位置，不存在时返回null
+     * @param transactionId
+     * @return
+     */
+    public synchronized Location getLocation(String transactionId) {
+        sync();
+        long location = transactions.get(transactionId);
+        return location < 0 ? null : new Location((int) (location >>> 32), (int) location);
+    }
+
+    /**
+     * 按交易id查找已上链的交易，不存在时返回null
+     * @param transactionId
+     * @return
+     */
+    public Transaction getTransaction(String transactionId) {
+        Location location = getLocation(transactionId);
+        return location == null ? null : blockChain.get(location.height).transactions.get(location.position);
+    }
+
+    /**
+     * 查找产生交易输出的交易（即按 output.parentTransactionId 查找）
+     * @param output
+     * @return
+     */
+    public Transaction getParentTransaction(TransactionOutput output) {
+        return getTransaction(output.parentTransactionId);
+    }
+
+    /**
+     * 地址收到与花费交易输出的全部记录，按块顺序排列
+     * @param address
+     * @return
+     */
+    public synchronized List<HistoryEntry> getHistory(Address address) {
+        sync();
+        List<HistoryEntry> history = new ArrayList<>();
+        long id = address == null ? -1 : addresses.get(address.getHash());
+        if(id < 0) {
+            return history;
+        }
+        long[] records = histories[(int) id];
+        for(int i = 0; i < historySizes[(int) id]; i++) {
+            long record = records[i];
+            history.add(new HistoryEntry((int) (record >>> 32),
+                    (int) (record >>> (INDEX_BITS + 1)) & ((1 << POSITION_BITS) - 1),
+                    (int) (record >>> 1) & ((1 << INDEX_BITS) - 1),
+                    (record & 1) != 0));
+        }
+        return history;
+    }
+
+    /**
+     * 将索引写入文件（先写临时文件再替换，写入中断不会损坏原有的索引文件）
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(indexedHeight);
+            out.writeUTF(indexedHash == null ? "" : indexedHash);
+            transactions.write(out);
+            addresses.write(out);
+            out.writeInt(addressCount);
+            for(int id = 0; id < addressCount; id++) {
+                out.writeInt(historySizes[id]);
+                for(int i = 0; i < historySizes[id]; i++) {
+                    out.writeLong(histories[id][i]);
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取 {@link #save(File)} 保存的索引。保存时的最后一块与区块存储中的不一致时丢弃保存的内容，
+     * 之后的查询会从头重建索引
+     * @param file
+     * @param blockChain
+     * @return
+     * @throws IOException 文件不是有效的索引文件
+     */
+    public static ChainIndex load(File file, BlockStore blockChain) throws IOException {
+        ChainIndex index = new ChainIndex(blockChain);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if(in.readInt() != MAGIC) {
+                throw new IOException("不是有效的索引文件：" + file);
+            }
+            int version = in.readInt();
+            if(version != VERSION) {
+                throw new IOException("不支持的索引版本：" + version);
+            }
+            int height = in.readInt();
+            String hash = in.readUTF();
+            if(height < 0 || height > blockChain.size()
+                    || (height > 0 && !blockChain.get(height - 1).hash.equals(hash))) {
+                return index;
+            }
+            index.transactions = HashIndex.read(in);
+            index.addresses = HashIndex.read(in);
+            int count = in.readInt();
+            if(count < 0 || count != index.addresses.size()) {
+                throw new IOException("索引的地址数不一致：" + count);
+            }
+            index.histories = new long[Math.max(count, 16)][];
+            index.historySizes = new int[index.histories.length];
+            for(int id = 0; id < count; id++) {
+                int size = in.readInt();
+                if(size < 0) {
+                    throw new IOException("地址记录数无效：" + size);
+                }
+                long[] records = new long[Math.max(size, 4)];
+                for(int i = 0; i < size; i++) {
+                    records[i] = in.readLong();
+                }
+                index.histories[id] = records;
+                index.historySizes[id] = size;
+            }
+            index.addressCount = count;
+            index.indexedHeight = height;
+            index.indexedHash = height == 0 ? null : hash;
+        }
+        return index;
+    }
+
+    private void index(Block block, int height) {
+        ArrayList<Transaction> blockTransactions = block.transactions;
+        for(int position = 0; position < blockTransactions.size(); position++) {
+            Transaction transaction = blockTransactions.get(position);
+            if(transaction.transactionId != null) {
+                transactions.put(transaction.transactionId, ((long) height << 32) | position);
+            }
+            if(transaction.inputs != null) {
+                for(int i = 0; i < transaction.inputs.size(); i++) {
+                    TransactionOutput spent = transaction.inputs.get(i).UTXO;
+                    if(spent != null) {
+                        record(spent.getRecipientAddress(), height, position, i, true);
+                    }
+                }
+            }
+            for(int i = 0; i < transaction.outputs.size(); i++) {
+                record(transaction.outputs.get(i).getRecipientAddress(), height, position, i, false);
+            }
+        }
+    }
+
+    private void record(Address address, int height, int position, int index, boolean spend) {
+        if(address == null) {
+            return;
+        }
+        if(position >= 1 << POSITION_BITS || index >= 1 << INDEX_BITS) {
+            throw new IllegalStateException("超出索引范围：块内位置" + position + "，下标" + index);
+        }
+        byte[] hash = address.getHash();
+        long id = addresses.get(hash);
+        if(id < 0) {
+            id = addressCount++;
+            addresses.put(hash, id);
+            if(id == histories.length) {
+                histories = Arrays.copyOf(histories, histories.length * 2);
+                historySizes = Arrays.copyOf(historySizes, histories.length);
+            }
+            histories[(int) id] = new long[4];
+        }
+        int slot = (int) id;
+        if(historySizes[slot] == histories[slot].length) {
+            histories[slot] = Arrays.copyOf(histories[slot], histories[slot].length * 2);
+        }
+        histories[slot][historySizes[slot]++] = ((long) height << 32)
+                | ((long) position << (INDEX_BITS + 1)) | ((long) index << 1) | (spend ? 1 : 0);
+    }
+
+    /**
+     * 删除地址在高度height的记录（都在该地址记录的末尾）
+     */
+    private void unrecord(Address address, int height) {
+        long id = address == null ? -1 : addresses.get(address.getHash());
+        if(id < 0) {
+            return;
+        }
+        int slot = (int) id;
+        while(historySizes[slot] > 0 && (int) (histories[slot][historySizes[slot] - 1] >>> 32) >= height) {
+            historySizes[slot]--;
+        }
+    }
+
+    private void reset() {
+        transactions = new HashIndex();
+        addresses = new HashIndex();
+        histories = new long[16][];
+        historySizes = new int[16];
+        addressCount = 0;
+        indexedHeight = 0;
+        indexedHash = null;
+    }
+}
@@ -0,0 +1,223 @@
+package ZJChain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 区块链的流式导出与导入，不需要把整条链转换为一个字符串。
+ * 流格式为 [int magic][int 版本]，之后每个块一条记录 [int 长度][int CRC32][区块编码]，
+ * 以长度为0的记录结束，结束记录后是 [int 块数]，用于发现被截断的流。
+ * 导出时逐个块编码写出；导入时每读入一批块就用校验器增量校验，通过后才追加到目标存储，
+ * 内存中最多只保留一批块（另外校验器需要保存当前的UTXO集合）
+ */
+public class ChainStream {
+
+    private static final int MAGIC = 0x5A4A4353; //"ZJCS"
+    private static final int VERSION = 1;
+    /**
+     * 导入时每批校验的块数
+     */
+    private static final int BATCH = 64;
+    /**
+     * 单个块编码的最大长度，防止损坏的长度字段导致分配过大的数组
+     */
+    private static final int MAX_BLOCK_LENGTH = 64 << 20;
+
+    /**
+     * 将区块链逐块写入输出流，写完后flush但不关闭流
+     * @param blockChain
+     * @param out
+     * @return 写出的块数
+     * @throws IOException
+     */
+    public static int export(List<Block> blockChain, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        CRC32 crc = new CRC32();
+        int count = 0;
+        //逐个读取，MappedBlockStore等持久化存储不会一次解码所有块
+        for(Block block : blockChain) {
+            byte[] payload = BlockCodec.encode(block);
+            crc.reset();
+            crc.update(payload);
+            data.writeInt(payload.length);
+            data.writeInt((int) crc.getValue());
+            data.write(payload);
+            count++;
+        }
+        data.writeInt(0);
+        data.writeInt(count);
+        data.flush();
+        return count;
+    }
+
+    /**
+     * 将区块链逐块写入通道，写完后不关闭通道
+     * @param blockChain
+     * @param channel
+     * @return 写出的块数
+     * @throws IOException
+     */
+    public static int export(List<Block> blockChain, WritableByteChannel channel) throws IOException {
+        return export(blockChain, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * 从输入流读取区块链，边读边校验并追加到target中。
+     * 第一个块中的第一笔交易作为初始交易。校验失败或流损坏时抛出IOException，
+     * 此时target中保留已通过校验的块
+     * @param in
+     * @param target 必须为空
+     * @param validator 导入完成后保存着整条链的检查点
+     * @param difficulty 固定难度
+     * @return 导入的块数
+     * @throws IOException
+     */
+    public static int importChain(InputStream in, BlockStore target, ChainValidator validator, int difficulty)
+            throws IOException {
+        return importChain(in, target, validator, DifficultyEngine.fixed(Target.ofNibbles(difficulty)));
+    }
+
+    /**
+     * 从输入流读取区块链，每个块需要满足difficultyEngine算出的该高度的目标，
+     * 见 {@link #importChain(InputStream, BlockStore, ChainValidator, int)}
+     */
+    public static int importChain(InputStream in, BlockStore target, ChainValidator validator,
+                                  DifficultyEngine difficultyEngine) throws IOException {
+        if(!target.isEmpty()) {
+            throw new IllegalArgumentException("导入的目标存储必须为空");
+        }
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if(data.readInt() != MAGIC) {
+            throw new IOException("不是有效的区块链导出流");
+        }
+        int version = data.readInt();
+        if(version != VERSION) {
+            throw new IOException("不支持的导出版本：" + version);
+        }
+
+        validator.reset();
+        CRC32 crc = new CRC32();
+        Transaction genesisTransaction = null;
+        List<Block> pending = new ArrayList<>(BATCH);
+        List<Block> view = new PendingView(target, pending);
+        int count = 0;
+        while(true) {
+            int length = data.readInt();
+            if(length == 0) {
+                break;
+            }
+            if(length < 0 || length > MAX_BLOCK_LENGTH) {
+                throw new IOException("第" + count + "个块的长度无效：" + length);
+            }
+            byte[] payload = new byte[length];
+            int checksum = data.readInt();
+            data.readFully(payload);
+            crc.reset();
+            crc.update(payload);
+            if((int) crc.getValue() != checksum) {
+                throw new IOException("第" + count + "个块的CRC校验失败");
+            }
+            Block block;
+            try {
+                block = BlockCodec.decode(payload);
+            } catch (RuntimeException e) {
+                //CRC正确但编码无效（例如其它编码版本或无效的公钥），同样作为流损坏
+                throw new IOException("第" + count + "个块无法解码：" + e, e);
+            }
+            if(count == 0 && !block.transactions.isEmpty()) {
+                genesisTransaction = block.transactions.get(0);
+            }
+            pending.add(block);
+            count++;
+            if(pending.size() == BATCH) {
+                commit(target, pending, view, validator, genesisTransaction, difficultyEngine);
+            }
+        }
+        commit(target, pending, view, validator, genesisTransaction, difficultyEngine);
+
+        int expected;
+        try {
+            expected = data.readInt();
+        } catch (EOFException e) {
+            throw new IOException("导出流缺少结束记录", e);
+        }
+        if(expected != count) {
+            throw new IOException("导出流中应有" + expected + "个块，实际读取" + count + "个");
+        }
+        return count;
+    }
+
+    /**
+     * 从通道读取区块链，见 {@link #importChain(InputStream, BlockStore, ChainValidator, int)}
+     */
+    public static int importChain(ReadableByteChannel channel, BlockStore target, ChainValidator validator,
+                                  int difficulty) throws IOException {
+        return importChain(Channels.newInputStream(channel), target, validator, difficulty);
+    }
+
+    /**
+     * 从通道读取区块链，每个块需要满足difficultyEngine算出的该高度的目标，
+     * 见 {@link #importChain(InputStream, BlockStore, ChainValidator, int)}
+     */
+    public static int importChain(ReadableByteChannel channel, BlockStore target, ChainValidator validator,
+                                  DifficultyEngine difficultyEngine) throws IOException {
+        return importChain(Channels.newInputStream(channel), target, validator, difficultyEngine);
+    }
+
+    /**
+     * 校验 target + pending，通过后将pending追加到target
+     */
+    private static void commit(BlockStore target, List<Block> pending, List<Block> view, ChainValidator validator,
+                               Transaction genesisTransaction, DifficultyEngine difficultyEngine) throws IOException {
+        if(pending.isEmpty()) {
+            return;
+        }
+        if(!validator.validate(view, genesisTransaction, difficultyEngine)) {
+            throw new IOException("第" + target.size() + "到" + (target.size() + pending.size() - 1)
+                    + "个块校验失败，导入终止！");
+        }
+        for(Block block : pending) {
+            target.add(block);
+        }
+        pending.clear();
+    }
+
+    /**
+     * 已导入的块与待校验的块拼接成的只读列表
+     */
+    private static class PendingView extends AbstractList<Block> {
+        private final List<Block> committed;
+        private final List<Block> pending;
+
+        private PendingView(List<Block> committed, List<Block> pending) {
+            this.committed = committed;
+            this.pending = pending;
+        }
+
+        @Override
+        public Block get(int index) {
+            int size = committed.size();
+            return index < size ? committed.get(index) : pending.get(index - size);
+        }
+
+        @Override
+        public int size() {
+            return committed.size() + pending.size();
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package ZJChain;
+
+import utils.Log;
+import utils.StringUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * 区块链校验器。
+ * 与其它块无关的检查（hash计算、是否满足该高度的挖矿目标、与前一块hash的衔接、时间戳范围、交易签名）并行进行；
+ * 依赖先后顺序的UTXO重放按块顺序执行，遇到错误立即返回。
+ * 校验通过后记录检查点（已校验的高度及当时的UTXO状态），再次校验时只需检查之后新加入的块
+ */
+public class ChainValidator {
+
+    /**
+     * 区块的时间戳不能早于前面这么多个块时间戳的中位数
+     */
+    public static final int MEDIAN_TIME_SPAN = 11;
+    /**
+     * 区块的时间戳最多比本机时间晚这么多毫秒
+     */
+    public static final long MAX_FUTURE_MILLIS = 2 * 60 * 60 * 1000L;
+
+    private final SignatureVerifier signatureVerifier;
+    /**
+     * 记录每块的校验耗时与签名验证速度
+     */
+    private final Metrics metrics;
+
+    /**
+     * 已校验通过的最后一个块的下标，-1表示没有检查点
+     */
+    private int validatedHeight = -1;
+    /**
+     * 检查点处块的hash，用于发现链被替换
+     */
+    private String validatedHash;
+    /**
+     * 检查点处重放得到的UTXO集合
+     */
+    private HashMap<String, TransactionOutput> tempUTXOs;
+    /**
+     * 检查点处每个地址的余额与总额，随重放增量更新
+     */
+    private Ledger balances;
+    /**
+     * 建立检查点时使用的初始交易与难度规则，二者改变后检查点失效
+     */
+    private Transaction validatedGenesis;
+    private DifficultyEngine validatedEngine;
+
+    public ChainValidator() {
+        this(new SignatureVerifier());
+    }
+
+    public ChainValidator(SignatureVerifier signatureVerifier) {
+        this(signatureVerifier, new Metrics());
+    }
+
+    /**
+     * @param signatureVerifier
+     * @param metrics 校验计时记录到其中，通常是所属链的 {@link ChainContext#metrics}
+     */
+    public ChainValidator(SignatureVerifier signatureVerifier, Metrics metrics) {
+        this.signatureVerifier = signatureVerifier;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 校验区块链，已通过校验且未被修改的部分不再重复检查
+     * @param blockChain
+     * @param genesisTransaction
+     * @param difficulty 固定难度，所有块hash开头都需要有difficulty个0
+     * @return
+     */
+    public boolean validate(List<Block> blockChain, Transaction genesisTransaction, int difficulty) {
+        return validate(blockChain, genesisTransaction, DifficultyEngine.fixed(Target.ofNibbles(difficulty)));
+    }
+
+    /**
+     * 校验区块链，每个块需要满足difficultyEngine按链上时间戳算出的该高度的目标
+     * @param blockChain
+     * @param genesisTransaction
+     * @param difficultyEngine
+     * @return
+     */
+    public synchronized boolean validate(List<Block> blockChain, Transaction genesisTransaction,
+                                         DifficultyEngine difficultyEngine) {
+        if(!isCheckpointUsable(blockChain, genesisTransaction, difficultyEngine)) {
+            reset();
+            tempUTXOs = new HashMap<>();
+            balances = new Ledger();
+            if(genesisTransaction != null) {
+                TransactionOutput genesisOutput = genesisTransaction.outputs.get(0);
+                tempUTXOs.put(genesisOutput.id, genesisOutput);
+                credit(genesisOutput);
+            }
+            //创世块不需要检查，从下标1开始
+            validatedHeight = Math.min(blockChain.size() - 1, 0);
+            validatedHash = validatedHeight < 0 ? null : blockChain.get(0).hash;
+            validatedGenesis = genesisTransaction;
+            validatedEngine = difficultyEngine;
+        }
+
+        int from = validatedHeight + 1;
+        int to = blockChain.size();
+        if(from >= to) {
+            return true;
+        }
+
+        Metrics.Timer timer = metrics.timer(Metrics.VALIDATION);
+        long start = timer.start();
+        boolean valid = checkHeaders(blockChain, from, to, difficultyEngine)
+                && checkSignatures(blockChain, from, to)
+                && replayTransactions(blockChain, from, to);
+        timer.stop(start, to - from);
+        if(!valid) {
+            //重放可能已修改了UTXO状态，检查点不再可靠
+            reset();
+            return false;
+        }
+
+        validatedHeight = to - 1;
+        validatedHash = blockChain.get(to - 1).hash;
+        return true;
+    }
+
+    /**
+     * 丢弃检查点，下次校验从头开始
+     */
+    public synchronized void reset() {
+        validatedHeight = -1;
+        validatedHash = null;
+        tempUTXOs = null;
+        balances = null;
+        validatedGenesis = null;
+        validatedEngine = null;
+    }
+
+    /**
+     * 获取已校验通过的最后一个块的下标
+     * @return
+     */
+    public synchronized int getValidatedHeight() {
+        return validatedHeight;
+    }
+
+    /**
+     * 获取建立检查点时使用的初始交易
+     * @return
+     */
+    public synchronized Transaction getValidatedGenesis() {
+        return validatedGenesis;
+    }
+
+    /**
+     * 获取检查点处的UTXO集合（副本），没有检查点时返回空集合
+     * @return
+     */
+    public synchronized List<TransactionOutput> getUTXOs() {
+        return tempUTXOs == null ? new ArrayList<>() : new ArrayList<>(tempUTXOs.values());
+    }
+
+    /**
+     * 获取检查点处的余额账本（副本），没有检查点时返回空账本
+     * @return
+     */
+    public synchronized Ledger getBalances() {
+        return balances == null ? new Ledger() : balances.copy();
+    }
+
+    private boolean isCheckpointUsable(List<Block> blockChain, Transaction genesisTransaction,
+                                       DifficultyEngine difficultyEngine) {
+        return tempUTXOs != null
+                && validatedHeight >= 0
+                && validatedGenesis == genesisTransaction
+                && difficultyEngine.equals(validatedEngine)
+                && validatedHeight < blockChain.size()
+                && blockChain.get(validatedHeight).hash.equals(validatedHash);
+    }
+
+    /**
+     * 并行检查区块头：hash计算、前后hash衔接、挖矿目标、时间戳
+     */
+    private boolean checkHeaders(List<Block> blockChain, int from, int to, DifficultyEngine difficultyEngine) {
+        int start = Math.max(from, 1);
+        if(start >= to) {
+            return true;
+        }
+        //各高度的目标与时间戳下限只依赖之前块的时间戳，先顺序算出，再并行检查
+        Target[] targets = difficultyEngine.getTargets(blockChain, start, to);
+        long[] medians = getMedianTimesPast(blockChain, start, to);
+        long latest = System.currentTimeMillis() + MAX_FUTURE_MILLIS;
+        OptionalInt invalid = IntStream.range(start, to).parallel()
+                .filter(i -> !isHeaderValid(blockChain.get(i - 1), blockChain.get(i), targets[i - start],
+                        medians[i - start], latest))
+                .findFirst();
+        return !invalid.isPresent();
+    }
+
+    /**
+     * 高度为height的区块的时间戳下限：前 {@link #MEDIAN_TIME_SPAN} 个块（不足时为所有之前的块）时间戳的中位数
+     * @param blockChain 至少包含高度height之前的所有块
+     * @param height 大于0
+     * @return
+     */
+    static long getMedianTimePast(List<Block> blockChain, int height) {
+        int first = Math.max(height - MEDIAN_TIME_SPAN, 0);
+        long[] timestamps = new long[height - first];
+        for(int i = first; i < height; i++) {
+            timestamps[i - first] = blockChain.get(i).timestamp;
+        }
+        Arrays.sort(timestamps);
+        return timestamps[timestamps.length / 2];
+    }
+
+    /**
+     * 一次算出高度from到to-1的时间戳下限，每个块只读取一次
+     */
+    private static long[] getMedianTimesPast(List<Block> blockChain, int from, int to) {
+        long[] medians = new long[to - from];
+        int first = Math.max(from - MEDIAN_TIME_SPAN, 0);
+        long[] window = new long[MEDIAN_TIME_SPAN];
+        int count = 0;
+        for(int i = first; i < from; i++) {
+            window[count++] = blockChain.get(i).timestamp;
+        }
+        long[] sorted = new long[MEDIAN_TIME_SPAN];
+        for(int height = from; height < to; height++) {
+            System.arraycopy(window, 0, sorted, 0, count);
+            Arrays.sort(sorted, 0, count);
+            medians[height - from] = sorted[count / 2];
+            if(height + 1 < to) {
+                //窗口中按高度顺序保存时间戳，满了之后去掉最早的一个
+                if(count == MEDIAN_TIME_SPAN) {
+                    System.arraycopy(window, 1, window, 0, count - 1);
+                    count--;
+                }
+                window[count++] = blockChain.get(height).timestamp;
+            }
+        }
+        return medians;
+    }
+
+    /**
+     * 检查与前一块相关的区块头规则
+     * @param prevBlock
+     * @param curBlock
+     * @param target 该高度的挖矿目标
+     * @param medianTimePast 时间戳下限，见 {@link #getMedianTimePast(List, int)}
+     * @param latest 时间戳上限（本机时间加 {@link #MAX_FUTURE_MILLIS}）
+     * @return
+     */
+    static boolean isHeaderValid(Block prevBlock, Block curBlock, Target target, long medianTimePast, long latest) {
+        //检查hash值计算有效性
+        if(!curBlock.hash.equals(curBlock.calculateHash(curBlock.nonce))) {
+            Log.warn("block的hash值计算错误");
+            return false;
+        }
+        //检查merkleRoot与块中的交易一致
+        if(!StringUtil.getMerkleRoot(curBlock.transactions).equals(curBlock.merkleRoot)) {
+            Log.warn("block的merkleRoot与交易不一致");
+            return false;
+        }
+        //检查hash值前后对应关系正确性
+        if(!prevBlock.hash.equals(curBlock.prevHash)) {
+            Log.warn("当前block与前面block的hash值不对应");
+            return false;
+        }
+        if(!target.isMetBy(curBlock.hash)) {
+            //如果不满足该高度的挖矿目标，也无效
+            Log.warn("当前块未满足挖矿目标" + target + "！");
+            return false;
+        }
+        //难度调整依赖时间戳，不能随意提前或推后
+        if(curBlock.timestamp < medianTimePast) {
+            Log.warn("当前块的时间戳" + curBlock.timestamp + "早于前面区块的中位数" + medianTimePast);
+            return false;
+        }
+        if(curBlock.timestamp > latest) {
+            Log.warn("当前块的时间戳" + curBlock.timestamp + "超过本机时间太多");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 批量并行验证交易签名
+     */
+    private boolean checkSignatures(List<Block> blockChain, int from, int to) {
+        Metrics.Timer timer = metrics.timer(Metrics.SIGNATURES);
+        long start = timer.start();
+        VerificationResult signatures = signatureVerifier.verifyChain(blockChain.subList(from, to));
+        timer.stop(start, signatures.size());
+        if(!signatures.isValid()) {
+            Log.warn("第" + signatures.getFirstFailure() + "个交易的签名无效！");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 按块顺序重放交易，检查交易输入输出与UTXO的一致性
+     */
+    private boolean replayTransactions(List<Block> blockChain, int from, int to) {
+        for(int i = from; i < to; i++) {
+            Block curBlock = blockChain.get(i);
+            for(int t = 0; t < curBlock.transactions.size(); t++) {
+                Transaction currentTransaction = curBlock.transactions.get(t);
+                List<TransactionOutput> spent = checkTransaction(currentTransaction, tempUTXOs::get);
+                if(spent == null) {
+                    Log.warn("第" + i + "个块的第" + t + "个交易无效！");
+                    return false;
+                }
+                for(TransactionOutput output : spent) {
+                    tempUTXOs.remove(output.id);
+                    debit(output);
+                }
+                //将交易输出加入临时UTXOs
+                for(TransactionOutput output : currentTransaction.outputs) {
+                    tempUTXOs.put(output.id, output);
+                    credit(output);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 区块中一笔交易（初始交易之外）需要满足的规则，校验器重放区块链与 {@link BlockTree} 执行区块时共用；签名由调用方另外检查。
+     * <ul>
+     *     <li>至少有一个交易输入，交易额大于0</li>
+     *     <li>每个交易输入都是utxos中的未花费输出，同一笔交易中不重复；输入中带有UTXO时，其金额与未花费输出一致</li>
+     *     <li>第一个交易输出是发给接收方的交易额，最多还有一个发给发送方的找零（签名只覆盖发送方、接收方与交易额，
+     *     交易输出必须与它们对应，否则打包区块的人可以把交易输出改发给任何人）</li>
+     *     <li>交易输出额不为负、不与已有的未花费输出重复，输入与输出总额相等且求和不溢出</li>
+     * </ul>
+     * 检查通过后，交易输入的UTXO设为找到的未花费输出，撤销区块时按它恢复（见 {@link UndoRecord#of}）
+     * @param transaction
+     * @param utxos 按id查找当前的未花费输出
+     * @return 被花费的输出（与交易输入顺序相同），交易无效时返回null
+     */
+    static List<TransactionOutput> checkTransaction(Transaction transaction, Function<String, TransactionOutput> utxos) {
+        if(transaction.inputs == null || transaction.inputs.isEmpty() || transaction.value <= 0) {
+            Log.warn("交易没有交易输入或交易额无效");
+            return null;
+        }
+        List<TransactionOutput> outputs = transaction.outputs;
+        if(outputs.isEmpty() || outputs.size() > 2) {
+            Log.warn("交易输出的个数无效：" + outputs.size());
+            return null;
+        }
+        //按地址比较，反序列化得到的不同公钥对象也能正确识别
+        if(outputs.get(0).value != transaction.value
+                || !Objects.equals(outputs.get(0).getRecipientAddress(), transaction.getRecipientAddress())) {
+            Log.warn("交易输出的目的方或金额与交易不一致！");
+            return null;
+        }
+        //没有找零时只有一个交易输出
+        if(outputs.size() > 1 && !Objects.equals(outputs.get(1).getRecipientAddress(), transaction.getSenderAddress())) {
+            Log.warn("找零的交易输出没有发给发送者！");
+            return null;
+        }
+
+        List<TransactionOutput> spent = new ArrayList<>(transaction.inputs.size());
+        Set<String> spentIds = new HashSet<>();
+        long inputsValue = 0;
+        long outputsValue = 0;
+        try {
+            for(TransactionInput input : transaction.inputs) {
+                TransactionOutput output = utxos.apply(input.transactionOutputId);
+                if(output == null || !spentIds.add(input.transactionOutputId)) {
+                    Log.warn("交易输入不存在或重复：" + input.transactionOutputId);
+                    return null;
+                }
+                if(input.UTXO != null && input.UTXO.value != output.value) {
+                    Log.warn("交易输入的值无效：" + input.transactionOutputId);
+                    return null;
+                }
+                spent.add(output);
+                inputsValue = Math.addExact(inputsValue, output.value);
+            }
+            for(TransactionOutput output : outputs) {
+                if(output.value < 0 || utxos.apply(output.id) != null) {
+                    Log.warn("交易输出的金额为负或与已有输出重复：" + output.id);
+                    return null;
+                }
+                outputsValue = Math.addExact(outputsValue, output.value);
+            }
+        } catch (ArithmeticException e) {
+            Log.warn("交易金额求和溢出");
+            return null;
+        }
+        //金额是精确的整数，不存在误差
+        if(inputsValue != outputsValue) {
+            Log.warn("交易输出与交易输入额不相等！");
+            return null;
+        }
+        for(int i = 0; i < spent.size(); i++) {
+            transaction.inputs.get(i).UTXO = spent.get(i);
+        }
+        return spent;
+    }
+
+    private void credit(TransactionOutput output) {
+        Address address = output.getRecipientAddress();
+        if(address != null) {
+            balances.credit(address, output.value);
+        }
+    }
+
+    private void debit(TransactionOutput output) {
+        Address address = output.getRecipientAddress();
+        if(address != null) {
+            balances.debit(address, output.value);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package ZJChain;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 难度调整：每window个区块根据上一段区块的时间戳重新计算挖矿目标，使平均出块间隔接近blockIntervalMillis。
+ * <ul>
+ *     <li>高度1到window-1使用初始目标；高度为window的倍数s时，取区块s-1与区块max(0, s-1-window)的时间差，
+ *     新门限 = 旧门限 × 实际用时 / 期望用时，单次调整不超过 {@link #MAX_ADJUSTMENT} 倍，不超过limit</li>
+ *     <li>只依赖链上的时间戳并使用整数运算，任何节点对同一条链算出的目标都相同，校验器据此检查每个区块</li>
+ *     <li>blockIntervalMillis为0时不调整，所有高度都使用初始目标（原来固定难度的行为）</li>
+ * </ul>
+ * 只保存配置与最近一个调整点的缓存；配置相同的两个实例相等
+ */
+public class DifficultyEngine {
+
+    /**
+     * 单次调整的最大倍数
+     */
+    public static final int MAX_ADJUSTMENT = 4;
+
+    private final Target initial;
+    private final long blockIntervalMillis;
+    private final int window;
+    private final Target limit;
+    /**
+     * 最近算出的调整点，下一次计算从这里继续，不必从高度0重放所有调整点
+     */
+    private volatile Checkpoint checkpoint;
+
+    /**
+     * 调整点：从高度epochStart开始的目标。
+     * 目标只依赖epochStart之前的区块，由区块epochStart-1的hash（间接包含之前所有块）确定是同一条链
+     */
+    private static final class Checkpoint {
+        private final int epochStart;
+        private final String lastHash;
+        private final Target target;
+
+        private Checkpoint(int epochStart, String lastHash, Target target) {
+            this.epochStart = epochStart;
+            this.lastHash = lastHash;
+            this.target = target;
+        }
+    }
+
+    /**
+     * @param initial 初始目标
+     * @param blockIntervalMillis 期望的出块间隔（毫秒）
+     * @param window 每隔多少个区块调整一次
+     */
+    public DifficultyEngine(Target initial, long blockIntervalMillis, int window) {
+        this(initial, blockIntervalMillis, window, Target.MAX);
+    }
+
+    /**
+     * @param initial 初始目标
+     * @param blockIntervalMillis 期望的出块间隔（毫秒）
+     * @param window 每隔多少个区块调整一次
+     * @param limit 调整后最容易的目标
+     */
+    public DifficultyEngine(Target initial, long blockIntervalMillis, int window, Target limit) {
+        if(blockIntervalMillis < 0 || window < 1) {
+            throw new IllegalArgumentException("出块间隔不能为负，调整周期必须大于0：" + blockIntervalMillis + "，" + window);
+        }
+        this.initial = initial;
+        this.blockIntervalMillis = blockIntervalMillis;
+        this.window = window;
+        this.limit = limit;
+    }
+
+    /**
+     * 固定目标，不做调整
+     * @param target
+     * @return
+     */
+    public static DifficultyEngine fixed(Target target) {
+        return new DifficultyEngine(target, 0, 1, target);
+    }
+
+    /**
+     * 高度为height的区块需要满足的目标
+     * @param blockChain
+     * @param height 不超过blockChain.size()，等于时为下一个区块的目标
+     * @return
+     */
+    public Target getTarget(List<Block> blockChain, int height) {
+        return getTargets(blockChain, height, height + 1)[0];
+    }
+
+    /**
+     * 下一个加入区块链的区块需要满足的目标
+     * @param blockChain
+     * @return
+     */
+    public Target getNextTarget(List<Block> blockChain) {
+        return getTarget(blockChain, blockChain.size());
+    }
+
+    /**
+     * 一次计算高度from到to-1的区块需要满足的目标。
+     * 从缓存的最近调整点（属于同一条链且不晚于from时）或高度0开始，只遍历一次之后的各个调整点
+     * @param blockChain
+     * @param from
+     * @param to 不超过blockChain.size() + 1
+     * @return 下标0对应高度from
+     */
+    public Target[] getTargets(List<Block> blockChain, int from, int to) {
+        Target[] targets = new Target[Math.max(to - from, 0)];
+        Target current = initial;
+        int epochStart = 0;
+        if(blockIntervalMillis > 0 && targets.length > 0) {
+            Checkpoint cached = checkpoint;
+            if(cached != null && cached.epochStart <= from && cached.epochStart <= blockChain.size()
+                    && cached.lastHash.equals(blockChain.get(cached.epochStart - 1).hash)) {
+                epochStart = cached.epochStart;
+                current = cached.target;
+            }
+        }
+        int computed = epochStart;
+        for(int height = from; height < to; height++) {
+            if(blockIntervalMillis > 0) {
+                //推进到height所在的调整周期
+                int start = height - height % window;
+                while(epochStart < start) {
+                    epochStart += window;
+                    current = retarget(blockChain, current, epochStart);
+                }
+            }
+            targets[height - from] = current;
+        }
+        if(epochStart > computed) {
+            String lastHash = blockChain.get(epochStart - 1).hash;
+            if(lastHash != null) {
+                checkpoint = new Checkpoint(epochStart, lastHash, current);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * 根据最近blocks个区块的目标与时间戳估算全网算力（每秒hash次数），区块不足时使用所有区块
+     * @param blockChain
+     * @param blocks
+     * @return
+     */
+    public double getNetworkHashRate(List<Block> blockChain, int blocks) {
+        int last = blockChain.size() - 1;
+        int first = Math.max(last - blocks, 0);
+        if(last <= first) {
+            return 0;
+        }
+        long millis = blockChain.get(last).timestamp - blockChain.get(first).timestamp;
+        if(millis <= 0) {
+            return 0;
+        }
+        double work = 0;
+        for(Target target : getTargets(blockChain, first + 1, last + 1)) {
+            work += target.getExpectedHashes();
+        }
+        return work * 1000 / millis;
+    }
+
+    public Target getInitial() {
+        return initial;
+    }
+
+    public long getBlockIntervalMillis() {
+        return blockIntervalMillis;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * 计算从高度epochStart开始的调整周期的目标
+     */
+    private Target retarget(List<Block> blockChain, Target previous, int epochStart) {
+        int last = epochStart - 1;
+        int first = Math.max(last - window, 0);
+        if(last <= first) {
+            return previous;
+        }
+        long expected = blockIntervalMillis * (last - first);
+        long actual = blockChain.get(last).timestamp - blockChain.get(first).timestamp;
+        //时间戳可能被篡改或乱序，限制单次调整的幅度
+        actual = Math.max(actual, expected / MAX_ADJUSTMENT);
+        actual = Math.min(actual, expected * MAX_ADJUSTMENT);
+        return previous.scale(actual, expected, limit);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof DifficultyEngine)) {
+            return false;
+        }
+        DifficultyEngine other = (DifficultyEngine) o;
+        return initial.equals(other.initial) && blockIntervalMillis == other.blockIntervalMillis
+                && window == other.window && limit.equals(other.limit);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(initial, blockIntervalMillis, window, limit);
+    }
+
+    @Override
+    public String toString() {
+        return blockIntervalMillis == 0 ? "固定目标：" + initial
+                : "初始目标：" + initial + " 出块间隔：" + blockIntervalMillis + "ms 调整周期：" + window;
+    }
+}
@@ -0,0 +1,286 @@
+package ZJChain;
+
+import utils.HashUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 摘要到非负long值的开放寻址哈希表（线性探测）。
+ * 键以二进制存放在long数组中，每个键占32字节，不为每个键创建String或装箱的值；
+ * 不是SHA-256 16进制形式的键（例如手动设置为"0"的初始交易id）存放在一个普通的HashMap中。
+ * 非线程安全
+ */
+public final class HashIndex {
+
+    /**
+     * 键的最大字节数
+     */
+    public static final int MAX_KEY_LENGTH = 32;
+
+    private static final int KEY_LONGS = MAX_KEY_LENGTH / 8;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final long EMPTY = -1;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private final HashMap<String, Long> others = new HashMap<>();
+
+    public HashIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expected 预计的键数
+     */
+    public HashIndex(int expected) {
+        //负载因子不超过0.5
+        allocate(Integer.highestOneBit(Math.max(expected, DEFAULT_CAPACITY / 2) * 2 - 1) << 1);
+    }
+
+    /**
+     * 查找16进制摘要对应的值，不存在时返回-1
+     * @param hash
+     * @return
+     */
+    public long get(String hash) {
+        if(hash == null) {
+            return EMPTY;
+        }
+        if(!HashUtil.isSha256Hex(hash)) {
+            Long value = others.get(hash);
+            return value == null ? EMPTY : value;
+        }
+        return get(HashUtil.fromHex(hash));
+    }
+
+    /**
+     * 查找二进制键对应的值，不存在时返回-1
+     * @param key 不超过32字节
+     * @return
+     */
+    public long get(byte[] key) {
+        long[] packed = pack(key);
+        return values[find(packed, 0)];
+    }
+
+    /**
+     * 设置16进制摘要对应的值
+     * @param hash
+     * @param value 不能为负
+     * @return 原来的值，不存在时返回-1
+     */
+    public long put(String hash, long value) {
+        if(!HashUtil.isSha256Hex(hash)) {
+            checkValue(value);
+            Long previous = others.put(hash, value);
+            return previous == null ? EMPTY : previous;
+        }
+        return put(HashUtil.fromHex(hash), value);
+    }
+
+    /**
+     * 设置二进制键对应的值
+     * @param key 不超过32字节
+     * @param value 不能为负
+     * @return 原来的值，不存在时返回-1
+     */
+    public long put(byte[] key, long value) {
+        checkValue(value);
+        return put(pack(key), 0, value);
+    }
+
+    /**
+     * 删除16进制摘要对应的值
+     * @param hash
+     * @return 原来的值，不存在时返回-1
+     */
+    public long remove(String hash) {
+        if(hash == null) {
+            return EMPTY;
+        }
+        if(!HashUtil.isSha256Hex(hash)) {
+            Long previous = others.remove(hash);
+            return previous == null ? EMPTY : previous;
+        }
+        return remove(HashUtil.fromHex(hash));
+    }
+
+    /**
+     * 删除二进制键对应的值
+     * @param key 不超过32字节
+     * @return 原来的值，不存在时返回-1
+     */
+    public long remove(byte[] key) {
+        int slot = find(pack(key), 0);
+        long previous = values[slot];
+        if(previous == EMPTY) {
+            return EMPTY;
+        }
+        //后移删除：把同一探测序列中后面的键移到空出的槽，查找时不会在空槽处提前停止
+        int mask = values.length - 1;
+        int hole = slot;
+        for(int next = (slot + 1) & mask; values[next] != EMPTY; next = (next + 1) & mask) {
+            int home = home(keys, next * KEY_LONGS) & mask;
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                System.arraycopy(keys, next * KEY_LONGS, keys, hole * KEY_LONGS, KEY_LONGS);
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        values[hole] = EMPTY;
+        size--;
+        return previous;
+    }
+
+    public int size() {
+        return size + others.size();
+    }
+
+    public void clear() {
+        Arrays.fill(values, EMPTY);
+        size = 0;
+        others.clear();
+    }
+
+    /**
+     * 写出所有键值，可用 {@link #read(DataInputStream)} 恢复
+     * @param out
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for(int slot = 0; slot < values.length; slot++) {
+            if(values[slot] != EMPTY) {
+                for(int i = 0; i < KEY_LONGS; i++) {
+                    out.writeLong(keys[slot * KEY_LONGS + i]);
+                }
+                out.writeLong(values[slot]);
+            }
+        }
+        out.writeInt(others.size());
+        for(Map.Entry<String, Long> entry : others.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    /**
+     * 读取 {@link #write(DataOutputStream)} 写出的键值
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static HashIndex read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0) {
+            throw new IOException("索引的键数无效：" + count);
+        }
+        HashIndex index = new HashIndex(count);
+        long[] packed = new long[KEY_LONGS];
+        for(int n = 0; n < count; n++) {
+            for(int i = 0; i < KEY_LONGS; i++) {
+                packed[i] = in.readLong();
+            }
+            long value = in.readLong();
+            if(value < 0) {
+                throw new IOException("索引的值无效：" + value);
+            }
+            index.put(packed, 0, value);
+        }
+        int others = in.readInt();
+        for(int n = 0; n < others; n++) {
+            String key = in.readUTF();
+            long value = in.readLong();
+            if(value < 0) {
+                throw new IOException("索引的值无效：" + value);
+            }
+            index.others.put(key, value);
+        }
+        return index;
+    }
+
+    private long put(long[] packed, int offset, long value) {
+        int slot = find(packed, offset);
+        long previous = values[slot];
+        if(previous == EMPTY) {
+            System.arraycopy(packed, offset, keys, slot * KEY_LONGS, KEY_LONGS);
+            values[slot] = value;
+            if(++size * 2 > values.length) {
+                resize();
+            }
+        } else {
+            values[slot] = value;
+        }
+        return previous;
+    }
+
+    /**
+     * 键所在的槽，不存在时为探测到的第一个空槽
+     */
+    private int find(long[] packed, int offset) {
+        int mask = values.length - 1;
+        int slot = home(packed, offset) & mask;
+        while(values[slot] != EMPTY && !matches(slot, packed, offset)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int home(long[] packed, int offset) {
+        return (int) (((packed[offset] ^ packed[offset + 1]) * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    private boolean matches(int slot, long[] packed, int offset) {
+        int base = slot * KEY_LONGS;
+        for(int i = 0; i < KEY_LONGS; i++) {
+            if(keys[base + i] != packed[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(oldValues.length * 2);
+        size = 0;
+        for(int slot = 0; slot < oldValues.length; slot++) {
+            if(oldValues[slot] != EMPTY) {
+                put(oldKeys, slot * KEY_LONGS, oldValues[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * KEY_LONGS];
+        values = new long[capacity];
+        Arrays.fill(values, EMPTY);
+    }
+
+    /**
+     * 按大端序将键装入4个long，不足32字节的部分为0
+     */
+    private static long[] pack(byte[] key) {
+        if(key.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("键超过" + MAX_KEY_LENGTH + "字节：" + key.length);
+        }
+        long[] packed = new long[KEY_LONGS];
+        for(int i = 0; i < key.length; i++) {
+            packed[i >> 3] |= (key[i] & 0xffL) << (56 - ((i & 7) << 3));
+        }
+        return packed;
+    }
+
+    private static void checkValue(long value) {
+        if(value < 0) {
+            throw new IllegalArgumentException("索引的值不能为负：" + value);
+        }
+    }
+}
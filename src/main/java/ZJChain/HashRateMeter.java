@@ -0,0 +1,83 @@
+package ZJChain;
+
+/**
+ * 本地算力统计：记录最近若干次挖矿的hash次数与耗时，计算本机每秒hash次数。线程安全
+ */
+public class HashRateMeter {
+
+    /**
+     * 默认保留的挖矿记录数
+     */
+    public static final int DEFAULT_SAMPLES = 16;
+
+    private final long[] hashes;
+    private final long[] nanos;
+    private int next;
+    private int count;
+    private long totalHashes;
+    private long totalNanos;
+
+    public HashRateMeter() {
+        this(DEFAULT_SAMPLES);
+    }
+
+    /**
+     * @param samples 计算算力时使用的最近挖矿次数
+     */
+    public HashRateMeter(int samples) {
+        if(samples < 1) {
+            throw new IllegalArgumentException("记录数必须大于0：" + samples);
+        }
+        hashes = new long[samples];
+        nanos = new long[samples];
+    }
+
+    /**
+     * 记录一次挖矿，null（被中止的挖矿）被忽略
+     * @param result
+     */
+    public void record(MiningResult result) {
+        if(result != null) {
+            record(result.hashes, result.elapsedNanos);
+        }
+    }
+
+    public synchronized void record(long hashCount, long elapsedNanos) {
+        hashes[next] = hashCount;
+        nanos[next] = elapsedNanos;
+        next = (next + 1) % hashes.length;
+        count = Math.min(count + 1, hashes.length);
+        totalHashes += hashCount;
+        totalNanos += elapsedNanos;
+    }
+
+    /**
+     * 最近若干次挖矿的每秒hash次数，没有记录时为0
+     * @return
+     */
+    public synchronized double getHashRate() {
+        long sumHashes = 0;
+        long sumNanos = 0;
+        for(int i = 0; i < count; i++) {
+            sumHashes += hashes[i];
+            sumNanos += nanos[i];
+        }
+        return sumNanos <= 0 ? 0 : sumHashes * 1_000_000_000d / sumNanos;
+    }
+
+    /**
+     * 累计计算的hash次数
+     * @return
+     */
+    public synchronized long getTotalHashes() {
+        return totalHashes;
+    }
+
+    /**
+     * 累计挖矿耗时（纳秒）
+     * @return
+     */
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+}
@@ -0,0 +1,157 @@
+package ZJChain;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * 余额账本：地址到余额的开放寻址哈希表（线性探测），余额存放在long数组中，不装箱。
+ * 同时维护所有余额的总额，所有加减都做溢出检查。用于校验与统计时的批量记账，非线程安全
+ */
+public class Ledger {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Address[] keys;
+    private long[] balances;
+    private int size;
+    private long total;
+
+    public Ledger() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expected 预计的地址数
+     */
+    public Ledger(int expected) {
+        //负载因子不超过0.5
+        int capacity = Integer.highestOneBit(Math.max(expected, DEFAULT_CAPACITY / 2) * 2 - 1) << 1;
+        keys = new Address[capacity];
+        balances = new long[capacity];
+    }
+
+    /**
+     * 增加地址的余额
+     * @param address
+     * @param amount
+     * @return 增加后的余额
+     */
+    public long credit(Address address, long amount) {
+        int slot = slot(address);
+        if(keys[slot] == null) {
+            long newTotal = Math.addExact(total, amount);
+            keys[slot] = address;
+            balances[slot] = amount;
+            total = newTotal;
+            if(++size * 2 > keys.length) {
+                resize();
+            }
+            return amount;
+        }
+        long balance = Math.addExact(balances[slot], amount);
+        total = Math.addExact(total, amount);
+        balances[slot] = balance;
+        return balance;
+    }
+
+    /**
+     * 减少地址的余额，余额不足时不做修改
+     * @param address
+     * @param amount
+     * @return 余额是否足够
+     */
+    public boolean debit(Address address, long amount) {
+        int slot = slot(address);
+        if(keys[slot] == null || balances[slot] < amount) {
+            return false;
+        }
+        balances[slot] = Math.subtractExact(balances[slot], amount);
+        total = Math.subtractExact(total, amount);
+        return true;
+    }
+
+    /**
+     * 获取地址的余额，不存在时为0
+     * @param address
+     * @return
+     */
+    public long get(Address address) {
+        int slot = slot(address);
+        return keys[slot] == null ? 0 : balances[slot];
+    }
+
+    /**
+     * 所有地址余额的总额
+     * @return
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * 记录过的地址数（包括余额为0的地址）
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 遍历所有地址及其余额，顺序不确定
+     * @param action
+     */
+    public void forEach(ObjLongConsumer<Address> action) {
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != null) {
+                action.accept(keys[i], balances[i]);
+            }
+        }
+    }
+
+    /**
+     * 复制账本
+     * @return
+     */
+    public Ledger copy() {
+        Ledger copy = new Ledger(0);
+        copy.keys = keys.clone();
+        copy.balances = balances.clone();
+        copy.size = size;
+        copy.total = total;
+        return copy;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(balances, 0);
+        size = 0;
+        total = 0;
+    }
+
+    /**
+     * 查找地址所在的槽位，不存在时返回应插入的空槽位
+     */
+    private int slot(Address address) {
+        int mask = keys.length - 1;
+        int h = address.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        while(keys[i] != null && !keys[i].equals(address)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void resize() {
+        Address[] oldKeys = keys;
+        long[] oldBalances = balances;
+        keys = new Address[oldKeys.length * 2];
+        balances = new long[oldKeys.length * 2];
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != null) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                balances[slot] = oldBalances[i];
+            }
+        }
+    }
+}
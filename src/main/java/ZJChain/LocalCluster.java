@@ -0,0 +1,282 @@
+package ZJChain;
+
+import utils.StringUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本机集群：在同一进程中启动N个 {@link Node}，节点之间通过回环地址连接，用于测量区块传播延迟与交易吞吐量。
+ * 拓扑为环（节点i连接节点i+1），节点数大于3时节点i再连接节点i+n/2，缩短传播路径。
+ * 所有节点在同一个JVM中，直接用System.nanoTime比较发出与收到的时间
+ */
+public class LocalCluster implements Closeable {
+
+    /**
+     * 等待消息传播到所有节点的超时时间
+     */
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final Block genesis;
+    private final int difficulty;
+
+    /**
+     * 当前测量中等待的消息：所有节点收到后计数归零，lastArrival为最后一个节点收到的时间
+     */
+    private volatile String awaitedBlock;
+    private volatile CountDownLatch arrivals;
+    private final AtomicLong lastArrival = new AtomicLong();
+
+    /**
+     * 区块传播的测量结果
+     */
+    public static class Propagation {
+        /**
+         * 每个区块从发出到所有节点都收到的时间（纳秒）
+         */
+        public final long[] latencies;
+
+        public Propagation(long[] latencies) {
+            this.latencies = latencies;
+        }
+
+        public double getAverageMillis() {
+            long sum = 0;
+            for(long latency : latencies) {
+                sum += latency;
+            }
+            return latencies.length == 0 ? 0 : sum / 1e6 / latencies.length;
+        }
+
+        public double getMaxMillis() {
+            long max = 0;
+            for(long latency : latencies) {
+                max = Math.max(max, latency);
+            }
+            return max / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("区块数：%d 平均传播延迟：%.3fms 最大传播延迟：%.3fms",
+                    latencies.length, getAverageMillis(), getMaxMillis());
+        }
+    }
+
+    /**
+     * 交易广播的测量结果
+     */
+    public static class Throughput {
+        /**
+         * 发出的交易数
+         */
+        public final int transactions;
+        /**
+         * 从发出第一笔到所有节点收到全部交易的时间（纳秒）
+         */
+        public final long elapsedNanos;
+
+        public Throughput(int transactions, long elapsedNanos) {
+            this.transactions = transactions;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * 每秒传播到所有节点的交易数
+         * @return
+         */
+        public double getTransactionsPerSecond() {
+            return elapsedNanos <= 0 ? 0 : transactions * 1_000_000_000d / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("交易数：%d 耗时：%dms 吞吐量：%.0f 笔/秒",
+                    transactions, elapsedNanos / 1_000_000, getTransactionsPerSecond());
+        }
+    }
+
+    /**
+     * 启动size个节点并按拓扑连接，返回前所有连接都已注册
+     * @param size 节点数
+     * @param difficulty 挖矿难度
+     * @throws IOException
+     */
+    public LocalCluster(int size, int difficulty) throws IOException, InterruptedException {
+        if(size < 2) {
+            throw new IllegalArgumentException("节点数至少为2：" + size);
+        }
+        this.difficulty = difficulty;
+        this.genesis = new Block("0");
+        genesis.mineBlock(difficulty);
+
+        Node.Listener listener = new Node.Listener() {
+            @Override
+            public void onTransaction(Node node, Transaction transaction) {
+                arrived();
+            }
+
+            @Override
+            public void onBlock(Node node, Block block) {
+                if(block.hash.equals(awaitedBlock)) {
+                    arrived();
+                }
+            }
+        };
+        try {
+            for(int i = 0; i < size; i++) {
+                Node node = new Node("n" + i, genesis, difficulty);
+                node.setListener(listener);
+                node.start();
+                nodes.add(node);
+            }
+            int[] degrees = new int[size];
+            for(int i = 0; i < size; i++) {
+                //两个节点时只连一次
+                if(size > 2 || i == 0) {
+                    connect(i, (i + 1) % size, degrees);
+                }
+                if(size > 3 && i < size / 2) {
+                    connect(i, i + size / 2, degrees);
+                }
+            }
+            awaitConnections(degrees);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public Block getGenesis() {
+        return genesis;
+    }
+
+    /**
+     * 依次由不同节点挖出并发布count个区块，每个区块等所有节点都收到后再发布下一个
+     * @param count
+     * @return
+     */
+    public Propagation measureBlockPropagation(int count) throws InterruptedException {
+        long[] latencies = new long[count];
+        for(int b = 0; b < count; b++) {
+            Node origin = nodes.get(b % nodes.size());
+            BlockStore chain = origin.getBlockChain();
+            Block block = new Block(chain.get(chain.size() - 1).hash);
+            //挖矿时间不计入传播延迟
+            block.mineBlock(difficulty);
+
+            awaitedBlock = block.hash;
+            CountDownLatch latch = expect(nodes.size() - 1);
+            long start = System.nanoTime();
+            origin.broadcast(block);
+            await(latch, "区块" + block.hash);
+            latencies[b] = lastArrival.get() - start;
+        }
+        awaitedBlock = null;
+        return new Propagation(latencies);
+    }
+
+    /**
+     * 轮流由各个节点发布count笔已签名的交易，测量所有节点都收到全部交易的时间
+     * @param count
+     * @return
+     */
+    public Throughput measureTransactionThroughput(int count) throws Exception {
+        Wallet sender = new Wallet();
+        Wallet recipient = new Wallet();
+        //签名不计入传播时间
+        List<Transaction> transactions = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            Transaction transaction = new Transaction(sender.publicKey, recipient.publicKey, i + 1, new ArrayList<>());
+            transaction.generateSignature(sender.privateKey);
+            transaction.transactionId = StringUtil.applySha256(transaction.getSignatureData() + System.nanoTime() + i);
+            transactions.add(transaction);
+        }
+
+        CountDownLatch latch = expect((long) count * (nodes.size() - 1));
+        long start = System.nanoTime();
+        for(int i = 0; i < count; i++) {
+            nodes.get(i % nodes.size()).broadcast(transactions.get(i));
+        }
+        await(latch, count + "笔交易");
+        return new Throughput(count, lastArrival.get() - start);
+    }
+
+    /**
+     * 关闭所有节点
+     */
+    @Override
+    public void close() throws IOException {
+        for(Node node : nodes) {
+            node.close();
+        }
+    }
+
+    private void connect(int from, int to, int[] degrees) throws IOException {
+        nodes.get(from).connect(nodes.get(to).getAddress());
+        degrees[from]++;
+        degrees[to]++;
+    }
+
+    private void awaitConnections(int[] degrees) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        for(int i = 0; i < nodes.size(); i++) {
+            while(nodes.get(i).getPeerCount() < degrees[i]) {
+                if(System.nanoTime() > deadline) {
+                    throw new IllegalStateException("节点" + i + "的连接未在超时前建立");
+                }
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private CountDownLatch expect(long count) {
+        lastArrival.set(0);
+        CountDownLatch latch = new CountDownLatch((int) count);
+        arrivals = latch;
+        return latch;
+    }
+
+    private void arrived() {
+        CountDownLatch latch = arrivals;
+        if(latch != null) {
+            lastArrival.accumulateAndGet(System.nanoTime(), Math::max);
+            latch.countDown();
+        }
+    }
+
+    private static void await(CountDownLatch latch, String what) throws InterruptedException {
+        if(!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(what + "未在超时前传播到所有节点，剩余：" + latch.getCount());
+        }
+    }
+
+    /**
+     * 启动本机集群并输出测量结果，参数依次为节点数、区块数、交易数、难度
+     * @param args
+     */
+    public static void main(String[] args) throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int blocks = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int transactions = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int difficulty = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        try (LocalCluster cluster = new LocalCluster(size, difficulty)) {
+            System.out.println("节点数：" + size);
+            System.out.println(cluster.measureBlockPropagation(blocks));
+            System.out.println(cluster.measureTransactionThroughput(transactions));
+        }
+    }
+}
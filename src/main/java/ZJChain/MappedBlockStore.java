@@ -0,0 +1,331 @@
+package ZJChain;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的只追加区块存储。
+ * 区块按顺序写入若干个固定大小的段文件（segment-00000.dat, segment-00001.dat, ...），
+ * 每条记录为 [int 长度][int CRC32][区块编码]。内存中只保存 高度->位置 与 hash->高度 两个索引，
+ * 区块在读取时才从映射的文件中解码。重启时只扫描记录头与区块hash来重建索引，不解码整个区块；
+ * CRC校验失败的尾部记录（写入一半时崩溃）会被丢弃
+ */
+public class MappedBlockStore extends BlockStore implements Closeable {
+
+    /**
+     * 默认段文件大小：64MB
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final int MAGIC = 0x5A4A4253; //"ZJBS"
+    private static final int VERSION = 1;
+    /**
+     * 段文件头：magic + version
+     */
+    private static final int SEGMENT_HEADER = 8;
+    /**
+     * 记录头：长度 + CRC32
+     */
+    private static final int RECORD_HEADER = 8;
+
+    private final File directory;
+    private final int segmentSize;
+    private final boolean sync;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+
+    /**
+     * 高度->位置，高32位为段号，低32位为段内偏移
+     */
+    private long[] positions = new long[1024];
+    private int size;
+    /**
+     * hash->高度，以二进制保存hash
+     */
+    private final HashIndex heights = new HashIndex();
+
+    private static class Segment {
+        private final RandomAccessFile file;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+
+        private Segment(RandomAccessFile file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    public MappedBlockStore(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    /**
+     * @param directory 段文件所在目录
+     * @param segmentSize 新建段文件的大小
+     * @param sync 每次追加后是否强制刷盘
+     * @throws IOException
+     */
+    public MappedBlockStore(File directory, int segmentSize, boolean sync) throws IOException {
+        if(segmentSize <= SEGMENT_HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("段文件太小：" + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建目录：" + directory);
+        }
+        open();
+    }
+
+    /**
+     * 打开已有的段文件并重建索引
+     */
+    private void open() throws IOException {
+        for(int index = 0; ; index++) {
+            File file = segmentFile(index);
+            if(!file.exists()) {
+                break;
+            }
+            Segment segment = mapSegment(file, (int) Math.max(file.length(), segmentSize));
+            if(segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != VERSION) {
+                segment.file.close();
+                throw new IOException("不是有效的区块段文件：" + file);
+            }
+            segments.add(segment);
+            scan(index, segment);
+        }
+    }
+
+    private void scan(int index, Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        CRC32 crc = new CRC32();
+        int position = SEGMENT_HEADER;
+        while(position + RECORD_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if(length <= 0 || position + RECORD_HEADER + length > buffer.capacity()) {
+                break;
+            }
+            ByteBuffer payload = slice(buffer, position + RECORD_HEADER, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if((int) crc.getValue() != buffer.getInt(position + 4)) {
+                //写入未完成的记录，丢弃并让后续追加覆盖它
+                buffer.putInt(position, 0);
+                break;
+            }
+            index(BlockCodec.decodeHash(payload), index, position);
+            position += RECORD_HEADER + length;
+        }
+        segment.writePosition = position;
+    }
+
+    private void index(String hash, int segment, int position) {
+        if(size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        positions[size] = ((long) segment << 32) | position;
+        heights.put(hash, size);
+        size++;
+    }
+
+    @Override
+    public synchronized boolean add(Block block) {
+        byte[] payload = BlockCodec.encode(block);
+        int recordLength = RECORD_HEADER + payload.length;
+        try {
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if(segment == null || segment.writePosition + recordLength > segment.buffer.capacity()) {
+                if(SEGMENT_HEADER + recordLength > segmentSize) {
+                    throw new IllegalArgumentException("区块编码后" + payload.length + "字节，超过段文件大小");
+                }
+                segment = createSegment(segments.size());
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            int position = segment.writePosition;
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            //先写内容，最后写长度，长度非0即表示记录完整
+            ByteBuffer out = buffer.duplicate();
+            out.position(position + RECORD_HEADER);
+            out.put(payload);
+            buffer.putInt(position + 4, (int) crc.getValue());
+            //记录之后写长度0作为结尾：截断后这里可能还留着旧的记录，重新打开时不能扫描到它们
+            if(position + recordLength + 4 <= buffer.capacity()) {
+                buffer.putInt(position + recordLength, 0);
+            }
+            buffer.putInt(position, payload.length);
+            if(sync) {
+                buffer.force();
+            }
+            segment.writePosition = position + recordLength;
+            index(block.hash, segments.size() - 1, position);
+            modCount++;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Block get(int height) {
+        ByteBuffer payload;
+        synchronized (this) {
+            if(height < 0 || height >= size) {
+                throw new IndexOutOfBoundsException("高度：" + height + "，区块数：" + size);
+            }
+            long location = positions[height];
+            MappedByteBuffer buffer = segments.get((int) (location >>> 32)).buffer;
+            int position = (int) location;
+            payload = slice(buffer, position + RECORD_HEADER, buffer.getInt(position));
+        }
+        //解码在锁外进行，多个线程可以并发读取
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return BlockCodec.decode(bytes);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public Block getByHash(String hash) {
+        int height = getHeight(hash);
+        return height < 0 ? null : get(height);
+    }
+
+    @Override
+    public synchronized int getHeight(String hash) {
+        return (int) heights.get(hash);
+    }
+
+    /**
+     * 截断到size个块：被删除的记录的长度都写为0，之后的段文件被删除，重新打开时只会扫描到保留的块。
+     * 之后的追加从被删除的位置继续写，并在新记录之后写长度0，旧记录不会因为第一个0被覆盖而重新出现
+     */
+    @Override
+    public synchronized void truncate(int size) {
+        if(size < 0 || size > this.size) {
+            throw new IndexOutOfBoundsException("保留的块数：" + size + "，区块数：" + this.size);
+        }
+        if(size == this.size) {
+            return;
+        }
+        for(int height = this.size - 1; height >= size; height--) {
+            long location = positions[height];
+            MappedByteBuffer buffer = segments.get((int) (location >>> 32)).buffer;
+            int position = (int) location;
+            heights.remove(BlockCodec.decodeHash(slice(buffer, position + RECORD_HEADER, buffer.getInt(position))));
+        }
+        long first = positions[size];
+        int segmentIndex = (int) (first >>> 32);
+        Segment segment = segments.get(segmentIndex);
+        //从后往前清除，中途崩溃时保留的块之后也没有完整的旧记录
+        for(int height = this.size - 1; height >= size; height--) {
+            long location = positions[height];
+            if((int) (location >>> 32) == segmentIndex) {
+                segment.buffer.putInt((int) location, 0);
+            }
+        }
+        segment.writePosition = (int) first;
+        try {
+            while(segments.size() > segmentIndex + 1) {
+                int last = segments.size() - 1;
+                segments.remove(last).file.close();
+                if(!segmentFile(last).delete()) {
+                    throw new IOException("无法删除段文件：" + segmentFile(last));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if(sync) {
+            segment.buffer.force();
+        }
+        this.size = size;
+        modCount++;
+    }
+
+    /**
+     * 删除所有段文件
+     */
+    @Override
+    public synchronized void clear() {
+        try {
+            closeSegments();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for(int index = 0; segmentFile(index).exists(); index++) {
+            if(!segmentFile(index).delete()) {
+                throw new UncheckedIOException(new IOException("无法删除段文件：" + segmentFile(index)));
+            }
+        }
+        size = 0;
+        heights.clear();
+        modCount++;
+    }
+
+    /**
+     * 将已写入的内容刷到磁盘
+     */
+    public synchronized void flush() {
+        for(Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        closeSegments();
+    }
+
+    private void closeSegments() throws IOException {
+        for(Segment segment : segments) {
+            segment.file.close();
+        }
+        segments.clear();
+    }
+
+    private Segment createSegment(int index) throws IOException {
+        Segment segment = mapSegment(segmentFile(index), segmentSize);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.writePosition = SEGMENT_HEADER;
+        segments.add(segment);
+        return segment;
+    }
+
+    private static Segment mapSegment(File file, int length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            return new Segment(raf, buffer);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private File segmentFile(int index) {
+        return new File(directory, String.format("segment-%05d.dat", index));
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.limit(position + length);
+        return slice.slice();
+    }
+}
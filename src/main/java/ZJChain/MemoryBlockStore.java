@@ -0,0 +1,62 @@
+package ZJChain;
+
+import java.util.ArrayList;
+
+/**
+ * 保存在内存中的区块存储
+ */
+public class MemoryBlockStore extends BlockStore {
+
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    /**
+     * hash->高度，以二进制保存hash
+     */
+    private final HashIndex heights = new HashIndex();
+
+    @Override
+    public synchronized Block get(int height) {
+        return blocks.get(height);
+    }
+
+    @Override
+    public synchronized int size() {
+        return blocks.size();
+    }
+
+    @Override
+    public synchronized Block getByHash(String hash) {
+        long height = heights.get(hash);
+        return height < 0 ? null : blocks.get((int) height);
+    }
+
+    @Override
+    public synchronized int getHeight(String hash) {
+        return (int) heights.get(hash);
+    }
+
+    @Override
+    public synchronized boolean add(Block block) {
+        heights.put(block.hash, blocks.size());
+        blocks.add(block);
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public synchronized void truncate(int size) {
+        if(size < 0 || size > blocks.size()) {
+            throw new IndexOutOfBoundsException("保留的块数：" + size + "，区块数：" + blocks.size());
+        }
+        for(int height = blocks.size() - 1; height >= size; height--) {
+            heights.remove(blocks.remove(height).hash);
+        }
+        modCount++;
+    }
+
+    @Override
+    public synchronized void clear() {
+        blocks.clear();
+        heights.clear();
+        modCount++;
+    }
+}
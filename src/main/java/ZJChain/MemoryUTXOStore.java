@@ -0,0 +1,166 @@
+package ZJChain;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 保存在堆中的UTXO存储：id->交易输出的ConcurrentHashMap，另按接收方地址建立二级索引并维护每个拥有者的余额，
+ * 查询余额为O(1)，选取支付用的UTXO只需遍历拥有者自己的输出
+ */
+public class MemoryUTXOStore extends UTXOStore {
+
+    /**
+     * 键是String类型的TransactionOutputId
+     */
+    private final ConcurrentHashMap<String, TransactionOutput> outputs = new ConcurrentHashMap<>();
+    /**
+     * 键是接收方地址，没有接收方的输出不建立拥有者索引
+     */
+    private final ConcurrentHashMap<Address, Owner> owners = new ConcurrentHashMap<>();
+
+    /**
+     * 某个公钥拥有的所有UTXO及其总额，余额的修改在该对象的监视器内进行
+     */
+    private static class Owner {
+        private final ConcurrentHashMap<String, TransactionOutput> outputs = new ConcurrentHashMap<>();
+        /**
+         * 余额（最小单位），加减做溢出检查
+         */
+        private long balance;
+        /**
+         * 已从owners中移除，不能再向其中添加
+         */
+        private boolean removed;
+    }
+
+    @Override
+    public TransactionOutput get(String id) {
+        return outputs.get(id);
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+        return outputs.containsKey(id);
+    }
+
+    @Override
+    public TransactionOutput put(String id, TransactionOutput output) {
+        TransactionOutput old = outputs.put(id, output);
+        if(old != null) {
+            unindex(id, old);
+        }
+        Address key = output.getRecipientAddress();
+        if(key == null) {
+            return old;
+        }
+        while(true) {
+            Owner owner = owners.computeIfAbsent(key, k -> new Owner());
+            synchronized (owner) {
+                if(owner.removed) {
+                    //并发的移除刚刚删掉了这个空的拥有者，重新获取
+                    continue;
+                }
+                long balance;
+                try {
+                    balance = Math.addExact(owner.balance, output.value);
+                } catch (ArithmeticException e) {
+                    //余额溢出，撤销本次添加
+                    if(owner.outputs.isEmpty()) {
+                        owner.removed = true;
+                        owners.remove(key, owner);
+                    }
+                    outputs.remove(id, output);
+                    if(old != null) {
+                        put(id, old);
+                    }
+                    throw e;
+                }
+                owner.outputs.put(id, output);
+                owner.balance = balance;
+                return old;
+            }
+        }
+    }
+
+    @Override
+    public TransactionOutput remove(String id) {
+        TransactionOutput old = outputs.remove(id);
+        if(old != null) {
+            unindex(id, old);
+        }
+        return old;
+    }
+
+    private void unindex(String id, TransactionOutput output) {
+        Address key = output.getRecipientAddress();
+        Owner owner = key == null ? null : owners.get(key);
+        if(owner == null) {
+            return;
+        }
+        synchronized (owner) {
+            if(owner.outputs.remove(id) == null) {
+                return;
+            }
+            if(owner.outputs.isEmpty()) {
+                owner.balance = 0;
+                owner.removed = true;
+                owners.remove(key, owner);
+            } else {
+                owner.balance = Math.subtractExact(owner.balance, output.value);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return outputs.size();
+    }
+
+    @Override
+    public void clear() {
+        outputs.clear();
+        owners.clear();
+    }
+
+    @Override
+    public Collection<TransactionOutput> values() {
+        return Collections.unmodifiableCollection(outputs.values());
+    }
+
+    @Override
+    public long getBalance(Address address) {
+        Owner owner = address == null ? null : owners.get(address);
+        if(owner == null) {
+            return 0;
+        }
+        synchronized (owner) {
+            return owner.balance;
+        }
+    }
+
+    @Override
+    public Collection<TransactionOutput> getOutputs(Address address) {
+        Owner owner = address == null ? null : owners.get(address);
+        return owner == null ? Collections.<TransactionOutput>emptyList()
+                : Collections.unmodifiableCollection(owner.outputs.values());
+    }
+
+    @Override
+    public Ledger getLedger() {
+        Ledger ledger = new Ledger(owners.size());
+        for(Map.Entry<Address, Owner> entry : owners.entrySet()) {
+            Owner owner = entry.getValue();
+            long balance;
+            synchronized (owner) {
+                if(owner.removed) {
+                    continue;
+                }
+                balance = owner.balance;
+            }
+            ledger.credit(entry.getKey(), balance);
+        }
+        return ledger;
+    }
+}
@@ -0,0 +1,307 @@
+package ZJChain;
+
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 交易池：保存一条链上尚未打包进区块的交易，线程安全。
+ * 接收交易时先在调用线程（或 submit 使用的验证线程池）中验证签名并准备交易（{@link Transaction#prepare(ChainContext)}），
+ * 这一步不持有任何锁；之后通过"已花费输入"索引的putIfAbsent原子地占用交易输入，
+ * 与池中已有交易花费同一个transactionOutputId的交易会被拒绝。
+ * 池中交易按优先级排序（默认交易输入总额高者优先，相同时先到先得），超出容量时淘汰优先级最低的交易
+ */
+public class Mempool {
+
+    /**
+     * 默认容量（交易数）
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * 默认优先级：交易输入总额从高到低
+     */
+    public static final Comparator<Transaction> BY_INPUTS_VALUE =
+            Comparator.comparingLong(Transaction::getInputsValue).reversed();
+
+    private final ChainContext context;
+    private final int maxSize;
+    private final int threads;
+    private ExecutorService executor;
+
+    /**
+     * 键是transactionId
+     */
+    private final ConcurrentHashMap<String, Entry> transactions = new ConcurrentHashMap<>();
+    /**
+     * 键是被池中交易花费的transactionOutputId
+     */
+    private final ConcurrentHashMap<String, Entry> spends = new ConcurrentHashMap<>();
+    /**
+     * 按优先级从高到低排列
+     */
+    private final ConcurrentSkipListSet<Entry> queue;
+    private final AtomicLong arrivals = new AtomicLong();
+    /**
+     * 每次加入或移除交易后递增，用于发现交易池的变化
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * 池中的一笔交易及其到达顺序
+     */
+    private static class Entry {
+        private final Transaction transaction;
+        private final long arrival;
+
+        private Entry(Transaction transaction, long arrival) {
+            this.transaction = transaction;
+            this.arrival = arrival;
+        }
+    }
+
+    /**
+     * @param context 交易所属的链
+     */
+    public Mempool(ChainContext context) {
+        this(context, DEFAULT_MAX_SIZE, Runtime.getRuntime().availableProcessors(), BY_INPUTS_VALUE);
+    }
+
+    /**
+     * @param context 交易所属的链
+     * @param maxSize 最多保存的交易数
+     * @param threads submit 使用的验证线程数
+     * @param priority 交易的优先级顺序，排在前面的先被打包
+     */
+    public Mempool(ChainContext context, int maxSize, int threads, Comparator<Transaction> priority) {
+        if(maxSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("容量与线程数必须大于0：" + maxSize + "，" + threads);
+        }
+        this.context = context;
+        this.maxSize = maxSize;
+        this.threads = threads;
+        Comparator<Entry> byPriority = (a, b) -> priority.compare(a.transaction, b.transaction);
+        this.queue = new ConcurrentSkipListSet<>(byPriority.thenComparingLong(e -> e.arrival));
+    }
+
+    /**
+     * 在验证线程池中异步接收交易，签名验证不占用调用线程
+     * @param transaction
+     * @return 交易是否被接收
+     */
+    public CompletableFuture<Boolean> submit(Transaction transaction) {
+        return CompletableFuture.supplyAsync(() -> add(transaction), getExecutor());
+    }
+
+    /**
+     * 在调用线程中验证并接收交易
+     * @param transaction
+     * @return 交易是否被接收（签名或金额无效、输入已不存在、与池中交易冲突、因容量被淘汰时返回false）
+     */
+    public boolean add(Transaction transaction) {
+        Metrics.Timer timer = context.metrics.timer(Metrics.TRANSACTION_ADMISSION);
+        long start = timer.start();
+        boolean accepted = admit(transaction);
+        timer.stop(start, 1);
+        if(!accepted) {
+            context.metrics.counter(Metrics.TRANSACTION_REJECTED).increment();
+        }
+        return accepted;
+    }
+
+    private boolean admit(Transaction transaction) {
+        if(transaction == null || transaction.inputs == null) {
+            return false;
+        }
+        //验证签名、计算交易id与交易输出，不修改UTXO集合
+        if(!transaction.prepare(context)) {
+            return false;
+        }
+        for(TransactionInput input : transaction.inputs) {
+            if(input.UTXO == null) {
+                Log.warn("交易输入不存在：" + input.transactionOutputId);
+                return false;
+            }
+        }
+
+        Entry entry = new Entry(transaction, arrivals.getAndIncrement());
+        //逐个占用交易输入，遇到冲突时释放已占用的输入
+        List<String> claimed = new ArrayList<>();
+        for(TransactionInput input : transaction.inputs) {
+            if(spends.putIfAbsent(input.transactionOutputId, entry) != null) {
+                for(String id : claimed) {
+                    spends.remove(id, entry);
+                }
+                Log.warn("交易输入与交易池中的交易冲突：" + input.transactionOutputId);
+                return false;
+            }
+            claimed.add(input.transactionOutputId);
+        }
+        //先加入队列再发布到transactions：发布之后其它线程的remove(entry)才能成功，并会同时把它移出队列
+        queue.add(entry);
+        if(transactions.putIfAbsent(transaction.transactionId, entry) != null) {
+            queue.remove(entry);
+            for(String id : claimed) {
+                spends.remove(id, entry);
+            }
+            return false;
+        }
+        version.incrementAndGet();
+
+        //超出容量时淘汰优先级最低的交易，可能就是刚加入的这笔
+        while(transactions.size() > maxSize) {
+            Entry lowest;
+            try {
+                lowest = queue.last();
+            } catch (NoSuchElementException e) {
+                break;
+            }
+            if(!remove(lowest)) {
+                //其它线程正在加入该交易，尚未发布，由那个线程在发布后继续淘汰
+                break;
+            }
+        }
+        return transactions.get(transaction.transactionId) == entry;
+    }
+
+    /**
+     * 按优先级取出最多count笔交易作为区块模板，交易仍保留在池中
+     * @param count
+     * @return
+     */
+    public List<Transaction> getBlockTemplate(int count) {
+        List<Transaction> template = new ArrayList<>(Math.min(count, transactions.size()));
+        for(Entry entry : queue) {
+            if(template.size() >= count) {
+                break;
+            }
+            //跳过正在加入、尚未发布的交易
+            if(transactions.get(entry.transaction.transactionId) == entry) {
+                template.add(entry.transaction);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * 将优先级最高的最多count笔交易提交并加入区块，并从池中移除。
+     * 提交失败（输入已被其它交易花费）的交易直接丢弃
+     * @param block
+     * @param count
+     * @return 加入区块的交易数
+     */
+    public int fillBlock(Block block, int count) {
+        int added = 0;
+        for(Transaction transaction : getBlockTemplate(count)) {
+            Entry entry = transactions.get(transaction.transactionId);
+            if(entry == null || !remove(entry)) {
+                //已被其它线程取走或淘汰
+                continue;
+            }
+            if(transaction.commit(context)) {
+                block.transactions.add(transaction);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 区块加入区块链后，移除其中的交易以及与其花费相同输入的交易
+     * @param block
+     */
+    public void removeBlock(Block block) {
+        for(Transaction transaction : block.transactions) {
+            if(transaction.transactionId != null) {
+                Entry entry = transactions.get(transaction.transactionId);
+                if(entry != null) {
+                    remove(entry);
+                }
+            }
+            if(transaction.inputs != null) {
+                for(TransactionInput input : transaction.inputs) {
+                    Entry conflict = spends.get(input.transactionOutputId);
+                    if(conflict != null) {
+                        remove(conflict);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除一笔交易
+     * @param transactionId
+     * @return 交易是否在池中
+     */
+    public boolean remove(String transactionId) {
+        Entry entry = transactions.get(transactionId);
+        return entry != null && remove(entry);
+    }
+
+    public boolean contains(String transactionId) {
+        return transactions.containsKey(transactionId);
+    }
+
+    public Transaction get(String transactionId) {
+        Entry entry = transactions.get(transactionId);
+        return entry == null ? null : entry.transaction;
+    }
+
+    public int size() {
+        return transactions.size();
+    }
+
+    /**
+     * 获取交易池的版本号，版本号不变说明其间没有交易加入或移除
+     * @return
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * 从所有索引中移除，只有一个线程能成功
+     */
+    private boolean remove(Entry entry) {
+        if(!transactions.remove(entry.transaction.transactionId, entry)) {
+            return false;
+        }
+        queue.remove(entry);
+        for(TransactionInput input : entry.transaction.inputs) {
+            spends.remove(input.transactionOutputId, entry);
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if(executor == null) {
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "mempool");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * 关闭验证线程池
+     */
+    public synchronized void shutdown() {
+        if(executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
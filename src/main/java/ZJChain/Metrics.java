@@ -0,0 +1,278 @@
+package ZJChain;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 指标注册表：计数器、直方图、计时器与读数。
+ * 记录只做LongAdder累加，多个线程同时记录不会互相竞争，可以放在挖矿、验证与交易处理的热路径上；
+ * {@link #snapshot()} 汇总当前所有指标，{@link MetricsServer} 通过HTTP输出
+ */
+public class Metrics {
+
+    /**
+     * 挖矿计时，每块记录一次，数量为hash次数，吞吐量即本机每秒hash次数
+     */
+    public static final String MINING = "mining.block";
+    /**
+     * 交易池接收交易的耗时
+     */
+    public static final String TRANSACTION_ADMISSION = "transaction.admission";
+    /**
+     * 交易被拒绝的次数
+     */
+    public static final String TRANSACTION_REJECTED = "transaction.rejected";
+    /**
+     * 执行交易（准备并提交到UTXO集合）的耗时
+     */
+    public static final String TRANSACTION_PROCESS = "transaction.process";
+    /**
+     * 校验计时，数量为校验的块数
+     */
+    public static final String VALIDATION = "validation.block";
+    /**
+     * 签名验证计时，数量为验证的交易数，吞吐量即每秒验证的签名数
+     */
+    public static final String SIGNATURES = "validation.signatures";
+    /**
+     * 批量生成钱包计时，数量为生成的密钥对数
+     */
+    public static final String KEY_GENERATION = "signing.keys";
+    /**
+     * 批量签名计时，数量为签名的交易数，吞吐量即每秒签名的交易数
+     */
+    public static final String SIGNING = "signing.transactions";
+    public static final String UTXO_SIZE = "utxo.size";
+    public static final String CHAIN_HEIGHT = "chain.height";
+    public static final String LOCAL_HASH_RATE = "mining.hashRate";
+
+    /**
+     * 计数器
+     */
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * 非负整数值的分布。按2的幂分桶，分位数返回所在桶的上界（不超过最大值），误差不超过2倍
+     */
+    public static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[65];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public Histogram() {
+            for(int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * 记录一个值，负数按0记录
+         * @param value
+         */
+        public void record(long value) {
+            value = Math.max(value, 0);
+            buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) getSum() / n;
+        }
+
+        /**
+         * 分位数的估计值
+         * @param quantile 0到1
+         * @return
+         */
+        public long getPercentile(double quantile) {
+            long n = getCount();
+            if(n == 0) {
+                return 0;
+            }
+            long rank = Math.max((long) Math.ceil(quantile * n), 1);
+            long seen = 0;
+            for(int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if(seen >= rank) {
+                    long upper = i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upper, getMax());
+                }
+            }
+            return getMax();
+        }
+
+        void snapshot(String name, Map<String, Double> values) {
+            values.put(name + ".count", (double) getCount());
+            values.put(name + ".mean", getMean());
+            values.put(name + ".p50", (double) getPercentile(0.5));
+            values.put(name + ".p99", (double) getPercentile(0.99));
+            values.put(name + ".max", (double) getMax());
+        }
+    }
+
+    /**
+     * 计时器：记录每次操作的纳秒数与处理的数量（hash次数、交易数、块数），
+     * 快照以毫秒输出耗时，并给出每个数量的平均耗时与每秒处理的数量
+     */
+    public static class Timer extends Histogram {
+        private final LongAdder items = new LongAdder();
+
+        /**
+         * 开始计时
+         * @return 传给 {@link #stop(long, long)} 的起点
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * 结束一次处理了items个数量的操作
+         * @param start
+         * @param items
+         */
+        public void stop(long start, long items) {
+            record(System.nanoTime() - start, items);
+        }
+
+        public void record(long nanos, long items) {
+            record(nanos);
+            this.items.add(items);
+        }
+
+        public long getItems() {
+            return items.sum();
+        }
+
+        /**
+         * 每秒处理的数量，没有记录时为0
+         * @return
+         */
+        public double getThroughput() {
+            long nanos = getSum();
+            return nanos <= 0 ? 0 : getItems() * 1e9 / nanos;
+        }
+
+        @Override
+        void snapshot(String name, Map<String, Double> values) {
+            values.put(name + ".count", (double) getCount());
+            values.put(name + ".items", (double) getItems());
+            values.put(name + ".meanMs", getMean() / 1e6);
+            values.put(name + ".p50Ms", getPercentile(0.5) / 1e6);
+            values.put(name + ".p99Ms", getPercentile(0.99) / 1e6);
+            values.put(name + ".maxMs", getMax() / 1e6);
+            long items = getItems();
+            values.put(name + ".perItemMs", items == 0 ? 0 : getSum() / 1e6 / items);
+            values.put(name + ".perSecond", getThroughput());
+        }
+    }
+
+    private final ConcurrentHashMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+    public Counter counter(String name) {
+        return get(name, Counter.class, Counter::new);
+    }
+
+    public Histogram histogram(String name) {
+        return get(name, Histogram.class, Histogram::new);
+    }
+
+    public Timer timer(String name) {
+        return get(name, Timer.class, Timer::new);
+    }
+
+    /**
+     * 注册读数，每次取快照时调用supplier，同名的读数被替换
+     * @param name
+     * @param supplier
+     */
+    public void gauge(String name, DoubleSupplier supplier) {
+        Object previous = metrics.put(name, supplier);
+        if(previous != null && !(previous instanceof DoubleSupplier)) {
+            metrics.put(name, previous);
+            throw new IllegalArgumentException("指标" + name + "已注册为" + previous.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * 所有指标的当前值，按名称排序
+     * @return
+     */
+    public SortedMap<String, Double> snapshot() {
+        TreeMap<String, Double> values = new TreeMap<>();
+        for(Map.Entry<String, Object> entry : metrics.entrySet()) {
+            Object metric = entry.getValue();
+            if(metric instanceof Counter) {
+                values.put(entry.getKey(), (double) ((Counter) metric).get());
+            } else if(metric instanceof Histogram) {
+                ((Histogram) metric).snapshot(entry.getKey(), values);
+            } else {
+                values.put(entry.getKey(), ((DoubleSupplier) metric).getAsDouble());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 快照的文本形式，每行一个"名称 值"
+     * @return
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for(Map.Entry<String, Double> entry : snapshot().entrySet()) {
+            double value = entry.getValue();
+            text.append(entry.getKey()).append(' ');
+            if(value == Math.rint(value) && Math.abs(value) < 1e15) {
+                text.append((long) value);
+            } else {
+                text.append(String.format("%.3f", value));
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    private <T> T get(String name, Class<T> type, Supplier<T> factory) {
+        Object metric = metrics.computeIfAbsent(name, key -> factory.get());
+        if(metric.getClass() != type) {
+            throw new IllegalArgumentException("指标" + name + "已注册为" + metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+}
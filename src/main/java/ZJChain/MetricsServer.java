@@ -0,0 +1,62 @@
+package ZJChain;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 在回环地址上以HTTP输出指标快照：GET /metrics 返回 {@link Metrics#toString()} 的文本，每行一个"名称 值"。
+ * 只监听本机，请求由单个后台线程处理，不影响挖矿与验证线程
+ */
+public class MetricsServer implements Closeable {
+
+    private final HttpServer server;
+
+    /**
+     * 创建并启动服务
+     * @param metrics 输出的指标
+     * @param port 端口，0表示随机端口
+     * @throws IOException
+     */
+    public MetricsServer(Metrics metrics, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> respond(exchange, metrics));
+        server.start();
+    }
+
+    /**
+     * 实际监听的端口
+     * @return
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, Metrics metrics) throws IOException {
+        try {
+            if(!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
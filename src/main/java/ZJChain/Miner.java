@@ -0,0 +1,49 @@
+package ZJChain;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * 挖矿器：负责为区块搜索满足挖矿目标的nonce
+ */
+public interface Miner {
+
+    /**
+     * 为指定区块搜索nonce，区块本身的nonce与hash由调用方根据返回结果写回
+     * @param block 待挖矿的区块（merkleRoot需已计算）
+     * @param difficulty 难度，即hash开头连续0的个数
+     * @return 挖矿结果
+     */
+    default MiningResult mine(Block block, int difficulty) {
+        return mine(block, Target.ofNibbles(difficulty), () -> false);
+    }
+
+    /**
+     * 可中止的挖矿：挖矿过程中定期检查cancelled，返回true时放弃本次挖矿
+     * @param block 待挖矿的区块（merkleRoot需已计算）
+     * @param difficulty 难度，即hash开头连续0的个数
+     * @param cancelled 是否中止
+     * @return 挖矿结果，被中止时返回null
+     */
+    default MiningResult mine(Block block, int difficulty, BooleanSupplier cancelled) {
+        return mine(block, Target.ofNibbles(difficulty), cancelled);
+    }
+
+    /**
+     * 为指定区块搜索满足挖矿目标的nonce
+     * @param block 待挖矿的区块（merkleRoot需已计算）
+     * @param target 挖矿目标
+     * @return 挖矿结果
+     */
+    default MiningResult mine(Block block, Target target) {
+        return mine(block, target, () -> false);
+    }
+
+    /**
+     * 可中止地搜索满足挖矿目标的nonce
+     * @param block 待挖矿的区块（merkleRoot需已计算）
+     * @param target 挖矿目标
+     * @param cancelled 是否中止
+     * @return 挖矿结果，被中止时返回null
+     */
+    MiningResult mine(Block block, Target target, BooleanSupplier cancelled);
+}
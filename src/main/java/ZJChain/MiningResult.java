@@ -0,0 +1,47 @@
+package ZJChain;
+
+/**
+ * 一次挖矿的结果及统计数据
+ */
+public class MiningResult {
+    /**
+     * 找到的nonce
+     */
+    public final int nonce;
+    /**
+     * 对应的区块hash值
+     */
+    public final String hash;
+    /**
+     * 本次挖矿总共计算的hash次数
+     */
+    public final long hashes;
+    /**
+     * 本次挖矿耗时（纳秒）
+     */
+    public final long elapsedNanos;
+
+    public MiningResult(int nonce, String hash, long hashes, long elapsedNanos) {
+        this.nonce = nonce;
+        this.hash = hash;
+        this.hashes = hashes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * 计算每秒hash次数
+     * @return
+     */
+    public double getHashRate() {
+        if(elapsedNanos <= 0) {
+            return 0;
+        }
+        return hashes * 1_000_000_000d / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "nonce：" + nonce + " hashes：" + hashes + " 耗时：" + elapsedNanos / 1_000_000 + "ms"
+                + String.format(" 速率：%.0f H/s", getHashRate());
+    }
+}
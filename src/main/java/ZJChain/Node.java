@@ -0,0 +1,606 @@
+package ZJChain;
+
+import utils.HashUtil;
+import utils.Log;
+import utils.StringUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 网络节点：在回环地址上监听，通过非阻塞NIO与其它节点互相转发（gossip）交易与区块。
+ * 每个节点只有一个选择器线程，负责接受连接、读取与写出消息。
+ * <ul>
+ *     <li>消息格式为 [int 长度][byte 类型][BlockCodec编码]，长度包括类型字节</li>
+ *     <li>区块消息先只读取编码开头的hash去重，见过的区块不再解码；交易id不在签名范围内，交易按整条消息的SHA-256去重</li>
+ *     <li>检查通过后将收到的消息原样转发给其它连接：所有连接共享同一个消息数组，不重新编码也不复制</li>
+ * </ul>
+ * 交易只检查签名，区块只检查hash、merkleRoot与难度；节点维护自己的区块链（前一块未到的区块先暂存），
+ * 不修改全局的UTXO集合，完整的校验由 {@link ChainValidator} 负责
+ */
+public class Node implements Closeable {
+
+    private static final byte TRANSACTION = 1;
+    private static final byte BLOCK = 2;
+    /**
+     * 消息头长度：长度字段与类型字节
+     */
+    private static final int HEADER = 5;
+    private static final int MAX_MESSAGE_LENGTH = 16 << 20;
+    private static final int READ_BUFFER = 64 << 10;
+    /**
+     * 最多暂存的区块数，超出时丢弃最早暂存的区块
+     */
+    static final int MAX_ORPHANS = 1024;
+    /**
+     * 最多记住的无效区块消息与无效交易消息数
+     */
+    private static final int MAX_REJECTED = 4096;
+    /**
+     * 最多记住的交易数，超出时忘记最早收到的交易
+     */
+    static final int MAX_TRANSACTIONS = 1 << 16;
+
+    /**
+     * 收到其它节点发来的、检查通过的交易或区块时的回调，在节点的选择器线程中调用
+     */
+    public interface Listener {
+        default void onTransaction(Node node, Transaction transaction) {
+        }
+
+        default void onBlock(Node node, Block block) {
+        }
+    }
+
+    /**
+     * 一个连接及其待写出的消息
+     */
+    private static class Peer {
+        private final SocketChannel channel;
+        private final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+
+        private Peer(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final String name;
+    private final int difficulty;
+    private final Target target;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+    /**
+     * 已建立但还没有注册到选择器的连接
+     */
+    private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 收到的交易，键是transactionId（同一id有多笔交易时保留最近收到的），只保留最近的MAX_TRANSACTIONS笔
+     */
+    private final Map<String, Transaction> transactions = Collections.synchronizedMap(
+            new LinkedHashMap<String, Transaction>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Transaction> eldest) {
+                    return size() > MAX_TRANSACTIONS;
+                }
+            });
+    /**
+     * 检查通过的交易消息，键是整条交易编码的SHA-256。
+     * 签名只覆盖发送方、接收方与交易额，不能按消息中声称的transactionId去重：
+     * 否则重放任意一笔有效交易并声称待处理交易的id，就能让真实交易在各节点被当作重复丢弃
+     */
+    private final Set<String> seenTransactions = Collections.synchronizedSet(Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_TRANSACTIONS;
+                }
+            }));
+    /**
+     * 签名验证未通过的交易消息，键同上，重复收到时不再验证签名
+     */
+    private final Set<String> rejectedTransactions = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_REJECTED;
+        }
+    });
+    /**
+     * 检查通过的区块hash，不再重复检查。
+     * 只在检查通过后加入：无效区块可以在区块头中声称任意hash，不能因此丢弃具有该hash的真实区块
+     */
+    private final Set<String> seenBlocks = ConcurrentHashMap.newKeySet();
+    /**
+     * 检查未通过的区块消息，键是整条区块编码的SHA-256（而不是其中声称的hash），只保留最近的MAX_REJECTED条
+     */
+    private final Set<String> rejectedBlocks = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_REJECTED;
+        }
+    });
+    private final MemoryBlockStore blockChain = new MemoryBlockStore();
+    /**
+     * 前一块还没有收到的区块，键是prevHash，按暂存的先后排列
+     */
+    private final LinkedHashMap<String, List<Block>> orphans = new LinkedHashMap<>();
+    private int orphanCount;
+
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private volatile Listener listener = new Listener() {
+    };
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * 创建节点并在回环地址的随机端口上监听
+     * @param name 节点名，用于线程名与输出
+     * @param genesis 创世块，所有节点必须相同
+     * @param difficulty 区块的挖矿难度
+     * @throws IOException
+     */
+    public Node(String name, Block genesis, int difficulty) throws IOException {
+        this.name = name;
+        this.difficulty = difficulty;
+        this.target = Target.ofNibbles(difficulty);
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        blockChain.add(genesis);
+        seenBlocks.add(genesis.hash);
+    }
+
+    /**
+     * 启动选择器线程
+     */
+    public synchronized void start() {
+        if(running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "node-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 连接另一个节点，连接建立后双方互相转发消息
+     * @param address
+     * @throws IOException
+     */
+    public void connect(InetSocketAddress address) throws IOException {
+        //回环地址上的连接很快建立，直接阻塞连接后再切换为非阻塞
+        SocketChannel channel = SocketChannel.open(address);
+        pending.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * 发布一笔交易，交易必须已有transactionId与签名
+     * @param transaction
+     * @return 是否是本节点没有见过的交易
+     */
+    public boolean broadcast(Transaction transaction) {
+        byte[] payload = BlockCodec.encodeTransaction(transaction);
+        if(!seenTransactions.add(hash(payload, 0, payload.length))) {
+            return false;
+        }
+        transactions.put(transaction.transactionId, transaction);
+        relay(frame(TRANSACTION, payload), null);
+        return true;
+    }
+
+    /**
+     * 发布一个已挖出的区块，同时加入本节点的区块链
+     * @param block
+     * @return 是否是本节点没有见过的区块
+     */
+    public boolean broadcast(Block block) {
+        if(!seenBlocks.add(block.hash)) {
+            return false;
+        }
+        link(block);
+        relay(frame(BLOCK, BlockCodec.encode(block)), null);
+        return true;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 节点监听的地址
+     * @return
+     * @throws IOException
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /**
+     * 节点自己的区块链
+     * @return
+     */
+    public BlockStore getBlockChain() {
+        return blockChain;
+    }
+
+    public Transaction getTransaction(String transactionId) {
+        return transactions.get(transactionId);
+    }
+
+    public int getTransactionCount() {
+        return transactions.size();
+    }
+
+    /**
+     * 暂存的（前一块还没有收到的）区块数
+     * @return
+     */
+    public synchronized int getOrphanCount() {
+        return orphanCount;
+    }
+
+    /**
+     * 已注册到选择器的连接数
+     * @return
+     */
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    /**
+     * 收到的消息数（包括重复与无效的消息）
+     * @return
+     */
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    /**
+     * 收到的已见过的消息数
+     * @return
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * 检查未通过而被丢弃的消息数
+     * @return
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * 已写出的字节数
+     * @return
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * 停止选择器线程并关闭所有连接
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            running = false;
+        }
+        selector.wakeup();
+        if(thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for(Peer peer : peers) {
+            peer.channel.close();
+        }
+        for(SocketChannel channel : pending) {
+            channel.close();
+        }
+        peers.clear();
+        server.close();
+        selector.close();
+    }
+
+    private void run() {
+        while(running) {
+            try {
+                selector.select();
+                register();
+                for(Peer peer : peers) {
+                    if(!peer.outbox.isEmpty() && peer.key.isValid()) {
+                        peer.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid()) {
+                        continue;
+                    }
+                    if(key.isAcceptable()) {
+                        SocketChannel channel = server.accept();
+                        if(channel != null) {
+                            pending.add(channel);
+                        }
+                        continue;
+                    }
+                    Peer peer = (Peer) key.attachment();
+                    try {
+                        if(key.isReadable()) {
+                            read(peer);
+                        }
+                        if(key.isValid() && key.isWritable()) {
+                            write(peer);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        Log.warn(name + "：连接异常，断开：" + e);
+                        disconnect(peer);
+                    }
+                }
+                //刚接受的连接立即注册
+                register();
+            } catch (IOException e) {
+                if(running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void register() throws IOException {
+        SocketChannel channel;
+        while((channel = pending.poll()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Peer peer = new Peer(channel);
+            peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+            peers.add(peer);
+        }
+    }
+
+    private void disconnect(Peer peer) {
+        peers.remove(peer);
+        peer.key.cancel();
+        try {
+            peer.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 读取并处理缓冲区中所有完整的消息，不完整的部分留到下次读取
+     */
+    private void read(Peer peer) throws IOException {
+        if(peer.channel.read(peer.in) < 0) {
+            disconnect(peer);
+            return;
+        }
+        ByteBuffer in = peer.in;
+        in.flip();
+        while(in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if(length < 1 || length > MAX_MESSAGE_LENGTH) {
+                throw new IOException("消息长度无效：" + length);
+            }
+            if(in.remaining() < 4 + length) {
+                break;
+            }
+            //每条消息复制一次，之后解码与转发都使用这个数组
+            byte[] message = new byte[4 + length];
+            in.get(message);
+            handle(peer, message);
+        }
+        in.compact();
+        //消息比缓冲区大时扩容
+        if(in.position() >= 4) {
+            int needed = 4 + in.getInt(0);
+            if(needed > in.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(needed);
+                in.flip();
+                larger.put(in);
+                peer.in = larger;
+            }
+        }
+    }
+
+    private void handle(Peer from, byte[] message) {
+        messagesReceived.incrementAndGet();
+        byte type = message[4];
+        //交易与区块编码都以版本号与hash开头，可以只读取hash去重
+        String id = BlockCodec.decodeHash(ByteBuffer.wrap(message, HEADER, message.length - HEADER));
+        if(id == null) {
+            rejected.incrementAndGet();
+            return;
+        }
+        if(type == TRANSACTION) {
+            String received = hash(message, HEADER, message.length - HEADER);
+            if(seenTransactions.contains(received) || rejectedTransactions.contains(received)) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            Transaction transaction = BlockCodec.decodeTransaction(message, HEADER, message.length - HEADER);
+            if(!isValid(transaction)) {
+                rejectedTransactions.add(received);
+                rejected.incrementAndGet();
+                return;
+            }
+            if(!seenTransactions.add(received)) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            transactions.put(transaction.transactionId, transaction);
+            listener.onTransaction(this, transaction);
+        } else if(type == BLOCK) {
+            if(seenBlocks.contains(id)) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            String received = hash(message, HEADER, message.length - HEADER);
+            if(rejectedBlocks.contains(received)) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            Block block = BlockCodec.decode(message, HEADER, message.length - HEADER);
+            if(!isValid(block)) {
+                rejectedBlocks.add(received);
+                rejected.incrementAndGet();
+                return;
+            }
+            if(!seenBlocks.add(block.hash)) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            link(block);
+            listener.onBlock(this, block);
+        } else {
+            throw new IllegalArgumentException("未知的消息类型：" + type);
+        }
+        relay(ByteBuffer.wrap(message), from);
+    }
+
+    /**
+     * 消息内容的SHA-256，用于按整条消息去重
+     */
+    private static String hash(byte[] bytes, int offset, int length) {
+        MessageDigest digest = HashUtil.sha256();
+        digest.update(bytes, offset, length);
+        return HashUtil.toHex(digest.digest());
+    }
+
+    private boolean isValid(Transaction transaction) {
+        try {
+            if(transaction.transactionId == null || !transaction.verifySignature()) {
+                Log.warn(name + "：交易签名验证失败");
+                return false;
+            }
+        } catch (Exception e) {
+            Log.warn(name + "：交易签名验证失败：" + e);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isValid(Block block) {
+        if(block.hash == null
+                || !block.hash.equals(block.calculateHash(block.nonce))
+                || !target.isMetBy(block.hash)
+                || !StringUtil.getMerkleRoot(block.transactions).equals(block.merkleRoot)) {
+            Log.warn(name + "：收到无效区块：" + block.hash);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 接到链尾，之后接上所有以它为前一块的暂存区块；前一块还没有收到时暂存
+     */
+    private synchronized void link(Block block) {
+        Block tip = blockChain.get(blockChain.size() - 1);
+        if(!tip.hash.equals(block.prevHash)) {
+            //分叉上的区块（前一块已在链中但不是链尾）不处理
+            if(blockChain.getHeight(block.prevHash) < 0) {
+                orphans.computeIfAbsent(block.prevHash, k -> new ArrayList<>()).add(block);
+                orphanCount++;
+                evictOrphans();
+            }
+            return;
+        }
+        blockChain.add(block);
+        List<Block> children = orphans.remove(block.hash);
+        if(children != null) {
+            orphanCount -= children.size();
+            for(Block child : children) {
+                link(child);
+            }
+        }
+    }
+
+    /**
+     * 暂存的区块超过MAX_ORPHANS时丢弃最早暂存的一组，丢弃的区块以后还可以重新接收
+     */
+    private void evictOrphans() {
+        Iterator<List<Block>> eldest = orphans.values().iterator();
+        while(orphanCount > MAX_ORPHANS && eldest.hasNext()) {
+            List<Block> evicted = eldest.next();
+            eldest.remove();
+            orphanCount -= evicted.size();
+            for(Block block : evicted) {
+                seenBlocks.remove(block.hash);
+            }
+        }
+    }
+
+    /**
+     * 将消息加入除来源外所有连接的发送队列，各连接使用独立的position但共享同一个数组
+     */
+    private void relay(ByteBuffer message, Peer from) {
+        for(Peer peer : peers) {
+            if(peer != from) {
+                peer.outbox.add(message.duplicate());
+            }
+        }
+        selector.wakeup();
+    }
+
+    private void write(Peer peer) throws IOException {
+        ByteBuffer head;
+        while((head = peer.outbox.peek()) != null) {
+            bytesSent.addAndGet(peer.channel.write(head));
+            if(head.hasRemaining()) {
+                //发送缓冲区已满，等待下一次可写
+                return;
+            }
+            peer.outbox.poll();
+        }
+        peer.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private static ByteBuffer frame(byte type, byte[] payload) {
+        ByteBuffer message = ByteBuffer.allocate(HEADER + payload.length);
+        message.putInt(1 + payload.length).put(type).put(payload);
+        message.flip();
+        return message;
+    }
+}
@@ -0,0 +1,576 @@
+package ZJChain;
+
+import utils.HashUtil;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 堆外的UTXO存储：每个交易输出是直接内存（ByteBuffer.allocateDirect）中的一条定长记录，
+ * 堆中不为每个输出保留对象，UTXO集合增大时堆内存与GC停顿基本不变。
+ * <ul>
+ *     <li>记录布局（{@value #RECORD_SIZE}字节）：[32 id][8 金额][20 地址hash][32 父交易id][4 同一地址的下一条][4 上一条]，
+ *     按块分配，删除的记录进入空闲链表复用</li>
+ *     <li>id->记录号的开放寻址表（线性探测，负载因子不超过0.5）也在直接内存中，每个槽4字节，比较键时直接读记录中的id</li>
+ *     <li>同一地址的记录串成双向链表，堆中只为每个地址保存一项（地址、余额与链表头）</li>
+ *     <li>id或父交易id不是SHA-256 16进制形式、或没有接收方的少量输出（例如初始交易）保存在堆中的HashMap里</li>
+ * </ul>
+ * 读写由读写锁保护，返回的TransactionOutput是读取时解码的新对象。直接内存的上限由 -XX:MaxDirectMemorySize 决定
+ */
+public class OffHeapUTXOStore extends UTXOStore {
+
+    /**
+     * 每条记录的字节数
+     */
+    public static final int RECORD_SIZE = 100;
+
+    //记录中各字段的偏移
+    private static final int ID = 0;
+    private static final int VALUE = 32;
+    private static final int ADDRESS = 40;
+    private static final int PARENT = 60;
+    private static final int NEXT = 92;
+    private static final int PREV = 96;
+
+    /**
+     * 每块16384条记录（1.6MB）
+     */
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_BITS;
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * 链表的结束，PREV为NONE表示链表头
+     */
+    private static final int NONE = -1;
+    /**
+     * PREV为FREE表示记录在空闲链表中
+     */
+    private static final int FREE = -2;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * 一个地址的余额与记录链表，地址一旦出现就一直保留（数量远小于UTXO数）
+     */
+    private static class Owner {
+        private final Address address;
+        private long balance;
+        private int head = NONE;
+        /**
+         * 拥有的输出数，包括保存在堆中的
+         */
+        private int count;
+
+        private Owner(Address address) {
+            this.address = address;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    /**
+     * 已分配过的记录号数，之后的记录号还没有使用
+     */
+    private int allocated;
+    private int freeList = NONE;
+    /**
+     * 堆外的记录数
+     */
+    private int size;
+    /**
+     * 每个槽为记录号+1，0表示空槽
+     */
+    private ByteBuffer table;
+    private int capacity;
+    /**
+     * 地址hash->owners中的下标
+     */
+    private final HashIndex ownerIds = new HashIndex();
+    private final ArrayList<Owner> owners = new ArrayList<>();
+    private final HashMap<String, TransactionOutput> heapOutputs = new HashMap<>();
+
+    public OffHeapUTXOStore() {
+        this(0);
+    }
+
+    /**
+     * @param expected 预计的UTXO数，预先分配索引表
+     */
+    public OffHeapUTXOStore(int expected) {
+        allocateTable(Integer.highestOneBit(Math.max(expected, DEFAULT_CAPACITY / 2) * 2 - 1) << 1);
+    }
+
+    @Override
+    public TransactionOutput get(String id) {
+        lock.readLock().lock();
+        try {
+            return lookup(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+        lock.readLock().lock();
+        try {
+            if(HashUtil.isSha256Hex(id) && table.getInt(slot(pack(id)) << 2) != 0) {
+                return true;
+            }
+            return heapOutputs.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public TransactionOutput put(String id, TransactionOutput output) {
+        Address address = output.getRecipientAddress();
+        lock.writeLock().lock();
+        try {
+            TransactionOutput old = lookup(id);
+            if(address != null) {
+                //先检查余额是否溢出，溢出时不做任何修改
+                Owner owner = getOwner(address);
+                long balance = owner == null ? 0 : owner.balance;
+                if(old != null && address.equals(old.getRecipientAddress())) {
+                    balance -= old.value;
+                }
+                Math.addExact(balance, output.value);
+            }
+            if(old != null) {
+                delete(id);
+            }
+            if(address == null || !HashUtil.isSha256Hex(id) || !HashUtil.isSha256Hex(output.parentTransactionId)) {
+                heapOutputs.put(id, output);
+                if(address != null) {
+                    Owner owner = ownerFor(address);
+                    owner.balance += output.value;
+                    owner.count++;
+                }
+            } else {
+                insert(pack(id), output, address);
+            }
+            return old;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public TransactionOutput remove(String id) {
+        lock.writeLock().lock();
+        try {
+            return delete(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size + heapOutputs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 清空所有UTXO，已分配的记录块保留下来复用
+     */
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            allocateTable(DEFAULT_CAPACITY);
+            allocated = 0;
+            freeList = NONE;
+            size = 0;
+            ownerIds.clear();
+            owners.clear();
+            heapOutputs.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按记录号顺序逐条解码，每次只在读一条记录时加锁
+     * @return
+     */
+    @Override
+    public Collection<TransactionOutput> values() {
+        return new AbstractCollection<TransactionOutput>() {
+            @Override
+            public Iterator<TransactionOutput> iterator() {
+                return new RecordIterator();
+            }
+
+            @Override
+            public int size() {
+                return OffHeapUTXOStore.this.size();
+            }
+        };
+    }
+
+    @Override
+    public long getBalance(Address address) {
+        lock.readLock().lock();
+        try {
+            Owner owner = getOwner(address);
+            return owner == null ? 0 : owner.balance;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<TransactionOutput> getOutputs(Address address) {
+        lock.readLock().lock();
+        try {
+            Owner owner = getOwner(address);
+            if(owner == null || owner.count == 0) {
+                return Collections.emptyList();
+            }
+            List<TransactionOutput> outputs = new ArrayList<>(owner.count);
+            for(int record = owner.head; record != NONE; record = getInt(record, NEXT)) {
+                outputs.add(decode(record));
+            }
+            if(outputs.size() < owner.count) {
+                for(TransactionOutput output : heapOutputs.values()) {
+                    if(address.equals(output.getRecipientAddress())) {
+                        outputs.add(output);
+                    }
+                }
+            }
+            return Collections.unmodifiableList(outputs);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Ledger getLedger() {
+        lock.readLock().lock();
+        try {
+            Ledger ledger = new Ledger(owners.size());
+            for(Owner owner : owners) {
+                if(owner.count > 0) {
+                    ledger.credit(owner.address, owner.balance);
+                }
+            }
+            return ledger;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 占用的直接内存字节数（记录块与索引表）
+     * @return
+     */
+    public long getOffHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) chunks.size() * CHUNK_RECORDS * RECORD_SIZE + (long) capacity * 4;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private TransactionOutput lookup(String id) {
+        if(HashUtil.isSha256Hex(id)) {
+            int entry = table.getInt(slot(pack(id)) << 2);
+            if(entry != 0) {
+                return decode(entry - 1, id);
+            }
+        }
+        return heapOutputs.get(id);
+    }
+
+    private TransactionOutput delete(String id) {
+        if(HashUtil.isSha256Hex(id)) {
+            int slot = slot(pack(id));
+            int entry = table.getInt(slot << 2);
+            if(entry != 0) {
+                return delete(entry - 1, slot);
+            }
+        }
+        TransactionOutput old = heapOutputs.remove(id);
+        Owner owner = old == null ? null : getOwner(old.getRecipientAddress());
+        if(owner != null) {
+            owner.balance -= old.value;
+            owner.count--;
+        }
+        return old;
+    }
+
+    private TransactionOutput delete(int record, int slot) {
+        TransactionOutput old = decode(record);
+        Owner owner = getOwner(old.getRecipientAddress());
+        //从拥有者的链表中摘下
+        int next = getInt(record, NEXT);
+        int prev = getInt(record, PREV);
+        if(prev == NONE) {
+            owner.head = next;
+        } else {
+            putInt(prev, NEXT, next);
+        }
+        if(next != NONE) {
+            putInt(next, PREV, prev);
+        }
+        owner.balance -= old.value;
+        owner.count--;
+        putInt(record, PREV, FREE);
+        putInt(record, NEXT, freeList);
+        freeList = record;
+        removeSlot(slot);
+        size--;
+        return old;
+    }
+
+    private void insert(long[] key, TransactionOutput output, Address address) {
+        Owner owner = ownerFor(address);
+        int record = allocate();
+        ByteBuffer chunk = chunks.get(record >>> CHUNK_BITS);
+        int offset = (record & (CHUNK_RECORDS - 1)) * RECORD_SIZE;
+        for(int i = 0; i < 4; i++) {
+            chunk.putLong(offset + ID + 8 * i, key[i]);
+        }
+        chunk.putLong(offset + VALUE, output.value);
+        byte[] hash = address.getHash();
+        for(int i = 0; i < Address.HASH_LENGTH; i++) {
+            chunk.put(offset + ADDRESS + i, hash[i]);
+        }
+        long[] parent = pack(output.parentTransactionId);
+        for(int i = 0; i < 4; i++) {
+            chunk.putLong(offset + PARENT + 8 * i, parent[i]);
+        }
+        chunk.putInt(offset + NEXT, owner.head);
+        chunk.putInt(offset + PREV, NONE);
+        if(owner.head != NONE) {
+            putInt(owner.head, PREV, record);
+        }
+        owner.head = record;
+        owner.balance += output.value;
+        owner.count++;
+        table.putInt(slot(key) << 2, record + 1);
+        if(++size * 2 > capacity) {
+            resize();
+        }
+    }
+
+    private TransactionOutput decode(int record) {
+        return decode(record, null);
+    }
+
+    /**
+     * @param id 已知的id，为null时从记录中读取
+     */
+    private TransactionOutput decode(int record, String id) {
+        ByteBuffer chunk = chunks.get(record >>> CHUNK_BITS);
+        int offset = (record & (CHUNK_RECORDS - 1)) * RECORD_SIZE;
+        byte[] hash = new byte[Address.HASH_LENGTH];
+        for(int i = 0; i < hash.length; i++) {
+            hash[i] = chunk.get(offset + ADDRESS + i);
+        }
+        Owner owner = owners.get((int) ownerIds.get(hash));
+        return new TransactionOutput(id == null ? hex(chunk, offset + ID) : id, owner.address,
+                chunk.getLong(offset + VALUE), hex(chunk, offset + PARENT));
+    }
+
+    private int allocate() {
+        if(freeList != NONE) {
+            int record = freeList;
+            freeList = getInt(record, NEXT);
+            return record;
+        }
+        if(allocated == chunks.size() << CHUNK_BITS) {
+            chunks.add(ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_SIZE));
+        }
+        return allocated++;
+    }
+
+    private Owner getOwner(Address address) {
+        long id = address == null ? -1 : ownerIds.get(address.getHash());
+        return id < 0 ? null : owners.get((int) id);
+    }
+
+    private Owner ownerFor(Address address) {
+        Owner owner = getOwner(address);
+        if(owner == null) {
+            owner = new Owner(address);
+            ownerIds.put(address.getHash(), owners.size());
+            owners.add(owner);
+        }
+        return owner;
+    }
+
+    /**
+     * 键所在的槽，不存在时为探测到的第一个空槽
+     */
+    private int slot(long[] key) {
+        int mask = capacity - 1;
+        int slot = home(key[0]) & mask;
+        while(true) {
+            int entry = table.getInt(slot << 2);
+            if(entry == 0 || matches(entry - 1, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean matches(int record, long[] key) {
+        ByteBuffer chunk = chunks.get(record >>> CHUNK_BITS);
+        int offset = (record & (CHUNK_RECORDS - 1)) * RECORD_SIZE + ID;
+        for(int i = 0; i < 4; i++) {
+            if(chunk.getLong(offset + 8 * i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 后移删除：把同一探测序列中后面的记录号移到空出的槽，查找时不会在空槽处提前停止
+     */
+    private void removeSlot(int slot) {
+        int mask = capacity - 1;
+        int hole = slot;
+        for(int next = (slot + 1) & mask; ; next = (next + 1) & mask) {
+            int entry = table.getInt(next << 2);
+            if(entry == 0) {
+                break;
+            }
+            int home = homeOf(entry - 1) & mask;
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                table.putInt(hole << 2, entry);
+                hole = next;
+            }
+        }
+        table.putInt(hole << 2, 0);
+    }
+
+    private void resize() {
+        ByteBuffer oldTable = table;
+        int oldCapacity = capacity;
+        allocateTable(oldCapacity * 2);
+        int mask = capacity - 1;
+        for(int i = 0; i < oldCapacity; i++) {
+            int entry = oldTable.getInt(i << 2);
+            if(entry != 0) {
+                int slot = homeOf(entry - 1) & mask;
+                while(table.getInt(slot << 2) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table.putInt(slot << 2, entry);
+            }
+        }
+    }
+
+    private void allocateTable(int slots) {
+        //直接内存分配时已清零
+        table = ByteBuffer.allocateDirect(slots * 4);
+        capacity = slots;
+    }
+
+    private int homeOf(int record) {
+        return home(chunks.get(record >>> CHUNK_BITS).getLong((record & (CHUNK_RECORDS - 1)) * RECORD_SIZE + ID));
+    }
+
+    private static int home(long first) {
+        return (int) ((first * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    private int getInt(int record, int field) {
+        return chunks.get(record >>> CHUNK_BITS).getInt((record & (CHUNK_RECORDS - 1)) * RECORD_SIZE + field);
+    }
+
+    private void putInt(int record, int field, int value) {
+        chunks.get(record >>> CHUNK_BITS).putInt((record & (CHUNK_RECORDS - 1)) * RECORD_SIZE + field, value);
+    }
+
+    /**
+     * 64位16进制摘要按大端序装入4个long
+     */
+    private static long[] pack(String hex) {
+        long[] key = new long[4];
+        for(int i = 0; i < 64; i++) {
+            key[i >> 4] = (key[i >> 4] << 4) | Character.digit(hex.charAt(i), 16);
+        }
+        return key;
+    }
+
+    private static String hex(ByteBuffer chunk, int offset) {
+        char[] chars = new char[64];
+        for(int i = 0; i < 4; i++) {
+            long value = chunk.getLong(offset + 8 * i);
+            for(int j = 0; j < 16; j++) {
+                chars[16 * i + j] = HEX[(int) (value >>> (60 - 4 * j)) & 0xf];
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 按记录号顺序遍历堆外记录，最后遍历堆中的输出
+     */
+    private class RecordIterator implements Iterator<TransactionOutput> {
+        private int record;
+        private Iterator<TransactionOutput> heap;
+        private TransactionOutput next;
+
+        private RecordIterator() {
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            if(heap == null) {
+                lock.readLock().lock();
+                try {
+                    while(record < allocated) {
+                        int current = record++;
+                        if(getInt(current, PREV) != FREE) {
+                            next = decode(current);
+                            return;
+                        }
+                    }
+                    heap = new ArrayList<>(heapOutputs.values()).iterator();
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+            if(heap.hasNext()) {
+                next = heap.next();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public TransactionOutput next() {
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            TransactionOutput current = next;
+            advance();
+            return current;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ZJChain;
+
+import utils.HashUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 多线程挖矿器：将nonce空间按线程数交错划分（第k个线程尝试 start+k, start+k+n, ...），
+ * 任一线程找到结果后所有线程立即停止
+ */
+public class ParallelMiner implements Miner {
+
+    private final int threads;
+    private final BlockHeader.HashMode hashMode;
+    private final ExecutorService executor;
+
+    /**
+     * 使用与CPU核数相同的线程数
+     */
+    public ParallelMiner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 默认使用不分配内存的 {@link BlockHeader.HashMode#DIGEST}
+     * @param threads
+     */
+    public ParallelMiner(int threads) {
+        this(threads, BlockHeader.HashMode.DIGEST);
+    }
+
+    public ParallelMiner(int threads, BlockHeader.HashMode hashMode) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("线程数必须大于0：" + threads);
+        }
+        this.threads = threads;
+        this.hashMode = hashMode;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "miner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    @Override
+    public MiningResult mine(Block block, Target target, BooleanSupplier cancelled) {
+        BlockHeader header = new BlockHeader(block);
+        long start = System.nanoTime();
+        AtomicBoolean found = new AtomicBoolean(false);
+        AtomicReference<MiningResult> result = new AtomicReference<>();
+        AtomicLong hashes = new AtomicLong();
+        int startNonce = block.nonce;
+
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for(int k = 0; k < threads; k++) {
+            int offset = k;
+            futures.add(executor.submit(() -> {
+                BlockHeader.Hasher hasher = header.newHasher(hashMode);
+                long count = 0;
+                //每个线程最多尝试 2^32/threads 次，保证整个int空间被完整覆盖一次
+                long attempts = ((1L << 32) - offset + threads - 1) / threads;
+                int nonce = startNonce + offset;
+                for(long i = 0; i < attempts && !found.get(); i++, nonce += threads) {
+                    if((count & (SerialMiner.CHECK_INTERVAL - 1)) == 0 && cancelled.getAsBoolean()) {
+                        //中止后found被置为true，其它线程也随之停止，result保持为null
+                        found.set(true);
+                        break;
+                    }
+                    byte[] hash = hasher.hash(nonce);
+                    count++;
+                    if(target.isMetBy(hash) && found.compareAndSet(false, true)) {
+                        result.set(new MiningResult(nonce, HashUtil.toHex(hash), 0, 0));
+                    }
+                }
+                hashes.addAndGet(count);
+            }));
+        }
+        for(Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                found.set(true);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("挖矿被中断", e);
+            } catch (ExecutionException e) {
+                found.set(true);
+                throw new IllegalStateException("挖矿线程异常", e.getCause());
+            }
+        }
+
+        MiningResult winner = result.get();
+        if(winner == null && cancelled.getAsBoolean()) {
+            return null;
+        }
+        if(winner == null) {
+            throw new IllegalStateException("nonce空间已耗尽，未找到满足目标" + target + "的hash");
+        }
+        return new MiningResult(winner.nonce, winner.hash, hashes.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * 关闭挖矿线程池
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
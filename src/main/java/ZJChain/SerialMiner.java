@@ -0,0 +1,49 @@
+package ZJChain;
+
+import utils.HashUtil;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * 单线程挖矿器：从区块当前的nonce开始逐个递增尝试
+ */
+public class SerialMiner implements Miner {
+
+    /**
+     * 检查是否中止的间隔（hash次数），必须是2的幂
+     */
+    static final int CHECK_INTERVAL = 4096;
+
+    private final BlockHeader.HashMode hashMode;
+
+    /**
+     * 默认使用不分配内存的 {@link BlockHeader.HashMode#DIGEST}，见 {@link BlockHeader.HashMode#MIDSTATE} 的说明
+     */
+    public SerialMiner() {
+        this(BlockHeader.HashMode.DIGEST);
+    }
+
+    public SerialMiner(BlockHeader.HashMode hashMode) {
+        this.hashMode = hashMode;
+    }
+
+    @Override
+    public MiningResult mine(Block block, Target target, BooleanSupplier cancelled) {
+        long start = System.nanoTime();
+        BlockHeader.Hasher hasher = new BlockHeader(block).newHasher(hashMode);
+        int nonce = block.nonce;
+        long hashes = 1;
+        byte[] hash = hasher.hash(nonce);
+        //直接用原始摘要的前64位与目标比较，如果不满足，则修改nonce，重新计算hash
+        while(!target.isMetBy(hash)) {
+            //每CHECK_INTERVAL次检查一次是否中止
+            if((hashes & (CHECK_INTERVAL - 1)) == 0 && cancelled.getAsBoolean()) {
+                return null;
+            }
+            nonce++;
+            hash = hasher.hash(nonce);
+            hashes++;
+        }
+        return new MiningResult(nonce, HashUtil.toHex(hash), hashes, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,147 @@
+package ZJChain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量并行验证交易签名：将交易分组提交到线程池，每个线程复用自己的Signature对象，
+ * 任一交易验证失败后其余尚未验证的交易直接跳过
+ */
+public class SignatureVerifier {
+
+    /**
+     * 交易数少于该值时直接在调用线程中验证
+     */
+    private static final int PARALLEL_THRESHOLD = 4;
+
+    private final int threads;
+    private ExecutorService executor;
+
+    /**
+     * 使用与CPU核数相同的线程数
+     */
+    public SignatureVerifier() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public SignatureVerifier(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("线程数必须大于0：" + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * 验证一个区块中所有交易的签名
+     * @param block
+     * @return
+     */
+    public VerificationResult verifyBlock(Block block) {
+        return verify(block.transactions);
+    }
+
+    /**
+     * 验证多个区块中所有交易的签名，结果下标为所有区块交易依次排列后的下标
+     * @param blocks
+     * @return
+     */
+    public VerificationResult verifyChain(List<Block> blocks) {
+        List<Transaction> transactions = new ArrayList<>();
+        for(Block block : blocks) {
+            transactions.addAll(block.transactions);
+        }
+        return verify(transactions);
+    }
+
+    /**
+     * 验证一批交易的签名
+     * @param transactions
+     * @return
+     */
+    public VerificationResult verify(List<Transaction> transactions) {
+        int size = transactions.size();
+        VerificationResult.Status[] statuses = new VerificationResult.Status[size];
+        Arrays.fill(statuses, VerificationResult.Status.SKIPPED);
+        AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+        AtomicBoolean failed = new AtomicBoolean(false);
+
+        if(size < PARALLEL_THRESHOLD || threads == 1) {
+            verifyRange(transactions, 0, size, statuses, failed, firstFailure);
+        } else {
+            //每个线程分到若干组，组数多于线程数以平衡各组耗时差异
+            int chunks = Math.min(size, threads * 4);
+            int chunkSize = (size + chunks - 1) / chunks;
+            int tasks = (size + chunkSize - 1) / chunkSize;
+            CountDownLatch done = new CountDownLatch(tasks);
+            ExecutorService pool = getExecutor();
+            for(int start = 0; start < size; start += chunkSize) {
+                int from = start;
+                int to = Math.min(size, start + chunkSize);
+                pool.execute(() -> {
+                    try {
+                        verifyRange(transactions, from, to, statuses, failed, firstFailure);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                failed.set(true);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("签名验证被中断", e);
+            }
+        }
+
+        int first = firstFailure.get();
+        return new VerificationResult(statuses, first == Integer.MAX_VALUE ? -1 : first);
+    }
+
+    private static void verifyRange(List<Transaction> transactions, int from, int to,
+                                    VerificationResult.Status[] statuses,
+                                    AtomicBoolean failed, AtomicInteger firstFailure) {
+        for(int i = from; i < to && !failed.get(); i++) {
+            boolean valid;
+            try {
+                valid = transactions.get(i).verifySignature();
+            } catch (Exception e) {
+                valid = false;
+            }
+            if(valid) {
+                statuses[i] = VerificationResult.Status.VALID;
+            } else {
+                statuses[i] = VerificationResult.Status.INVALID;
+                failed.set(true);
+                firstFailure.accumulateAndGet(i, Math::min);
+            }
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if(executor == null) {
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "signature-verifier");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * 关闭验证线程池
+     */
+    public synchronized void shutdown() {
+        if(executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ZJChain;
+
+import utils.Log;
+
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * 批量生成钱包与批量签名交易：任务分组提交到线程池，每个线程复用自己的密钥对生成器与Signature对象
+ * （见 {@link Wallet#generateKeyPair()} 与 StringUtil.applyECDSASig）。
+ * 每批的耗时与数量记录在 {@link Metrics#KEY_GENERATION} 与 {@link Metrics#SIGNING} 计时器中，
+ * 可以由 {@link #getSigningThroughput()} 等读取，也可以通过 {@link MetricsServer} 输出
+ */
+public class SigningService {
+
+    /**
+     * 数量少于该值时直接在调用线程中处理
+     */
+    private static final int PARALLEL_THRESHOLD = 4;
+
+    private final int threads;
+    private final Metrics metrics;
+    private ExecutorService executor;
+
+    /**
+     * 使用与CPU核数相同的线程数
+     */
+    public SigningService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public SigningService(int threads) {
+        this(threads, new Metrics());
+    }
+
+    /**
+     * @param threads 线程数
+     * @param metrics 记录吞吐量的指标注册表，例如 context.metrics
+     */
+    public SigningService(int threads, Metrics metrics) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("线程数必须大于0：" + threads);
+        }
+        this.threads = threads;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 并行生成count个钱包
+     * @param count
+     * @return
+     */
+    public List<Wallet> generateWallets(int count) {
+        if(count < 0) {
+            throw new IllegalArgumentException("钱包数不能为负数：" + count);
+        }
+        Wallet[] wallets = new Wallet[count];
+        Metrics.Timer timer = metrics.timer(Metrics.KEY_GENERATION);
+        long start = timer.start();
+        run(count, i -> wallets[i] = new Wallet());
+        timer.stop(start, count);
+        Log.debug(() -> "生成" + count + "个钱包，" + report(timer));
+        return new ArrayList<>(Arrays.asList(wallets));
+    }
+
+    /**
+     * 用同一个私钥签名一批交易（同一个发送方）
+     * @param transactions
+     * @param privateKey
+     * @return 签好名的transactions
+     */
+    public List<Transaction> sign(List<Transaction> transactions, PrivateKey privateKey) {
+        return sign(transactions, address -> privateKey);
+    }
+
+    /**
+     * 签名一批来自多个钱包的交易，按发送方地址选择钱包的私钥
+     * @param transactions
+     * @param wallets 所有发送方的钱包
+     * @return 签好名的transactions
+     * @throws IllegalArgumentException 有交易的发送方不在wallets中，此时不签名任何交易
+     */
+    public List<Transaction> sign(List<Transaction> transactions, Collection<Wallet> wallets) {
+        Map<Address, PrivateKey> keys = new HashMap<>(wallets.size() * 2);
+        for(Wallet wallet : wallets) {
+            keys.put(wallet.getAddress(), wallet.privateKey);
+        }
+        return sign(transactions, keys::get);
+    }
+
+    /**
+     * 签名一批交易，私钥由发送方地址查找
+     * @param transactions
+     * @param keys 发送方地址->私钥
+     * @return 签好名的transactions
+     * @throws IllegalArgumentException 找不到某个发送方的私钥，此时不签名任何交易
+     */
+    public List<Transaction> sign(List<Transaction> transactions, Function<Address, PrivateKey> keys) {
+        int size = transactions.size();
+        //先在调用线程中查好所有私钥，缺少私钥时整批不签名
+        PrivateKey[] privateKeys = new PrivateKey[size];
+        for(int i = 0; i < size; i++) {
+            Address sender = transactions.get(i).getSenderAddress();
+            privateKeys[i] = sender == null ? null : keys.apply(sender);
+            if(privateKeys[i] == null) {
+                throw new IllegalArgumentException("没有第" + i + "笔交易发送方的私钥：" + sender);
+            }
+        }
+        Metrics.Timer timer = metrics.timer(Metrics.SIGNING);
+        long start = timer.start();
+        run(size, i -> transactions.get(i).generateSignature(privateKeys[i]));
+        timer.stop(start, size);
+        Log.debug(() -> "签名" + size + "笔交易，" + report(timer));
+        return transactions;
+    }
+
+    /**
+     * 累计每秒签名的交易数
+     * @return
+     */
+    public double getSigningThroughput() {
+        return metrics.timer(Metrics.SIGNING).getThroughput();
+    }
+
+    /**
+     * 累计每秒生成的密钥对数
+     * @return
+     */
+    public double getKeyGenerationThroughput() {
+        return metrics.timer(Metrics.KEY_GENERATION).getThroughput();
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 关闭线程池
+     */
+    public synchronized void shutdown() {
+        if(executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private interface Task {
+        void run(int index);
+    }
+
+    /**
+     * 对0到count-1的每个下标执行task，分组并行，任一组抛出异常时在调用线程中抛出
+     */
+    private void run(int count, Task task) {
+        if(count < PARALLEL_THRESHOLD || threads == 1) {
+            for(int i = 0; i < count; i++) {
+                task.run(i);
+            }
+            return;
+        }
+        //每个线程分到若干组，组数多于线程数以平衡各组耗时差异
+        int chunks = Math.min(count, threads * 4);
+        int chunkSize = (count + chunks - 1) / chunks;
+        int tasks = (count + chunkSize - 1) / chunkSize;
+        CountDownLatch done = new CountDownLatch(tasks);
+        AtomicReference<RuntimeException> error = new AtomicReference<>();
+        ExecutorService pool = getExecutor();
+        for(int start = 0; start < count; start += chunkSize) {
+            int from = start;
+            int to = Math.min(count, start + chunkSize);
+            pool.execute(() -> {
+                try {
+                    for(int i = from; i < to && error.get() == null; i++) {
+                        task.run(i);
+                    }
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("批量处理被中断", e);
+        }
+        if(error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    private static String report(Metrics.Timer timer) {
+        return String.format("累计%d个，每秒%.0f个", timer.getItems(), timer.getThroughput());
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if(executor == null) {
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "signing-service");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
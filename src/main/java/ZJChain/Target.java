@@ -0,0 +1,153 @@
+package ZJChain;
+
+import java.math.BigInteger;
+
+/**
+ * 挖矿目标：区块hash的前64位（无符号）不大于threshold时满足目标。
+ * 粒度可以细到单个hash值，原来"开头d个16进制0"的难度等价于 {@link #ofNibbles(int) ofNibbles(d)}。
+ * 不可变，可以作为比较与缓存的键
+ */
+public final class Target {
+
+    /**
+     * 最容易的目标，任何hash都满足
+     */
+    public static final Target MAX = new Target(-1L);
+
+    private static final BigInteger TWO_64 = BigInteger.ONE.shiftLeft(64);
+
+    /**
+     * 无符号的64位门限
+     */
+    private final long threshold;
+
+    private Target(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * 由无符号门限创建目标，0表示hash前64位必须全为0
+     * @param threshold
+     * @return
+     */
+    public static Target of(long threshold) {
+        return threshold == -1L ? MAX : new Target(threshold);
+    }
+
+    /**
+     * 要求hash开头至少有bits个为0的比特
+     * @param bits 0到64
+     * @return
+     */
+    public static Target ofZeroBits(int bits) {
+        if(bits < 0 || bits > 64) {
+            throw new IllegalArgumentException("比特数必须在0到64之间：" + bits);
+        }
+        return bits == 64 ? new Target(0) : of(-1L >>> bits);
+    }
+
+    /**
+     * 要求hash开头至少有nibbles个为0的16进制位，与原来的整数难度相同
+     * @param nibbles 0到16
+     * @return
+     */
+    public static Target ofNibbles(int nibbles) {
+        if(nibbles < 0 || nibbles > 16) {
+            throw new IllegalArgumentException("难度必须在0到16之间：" + nibbles);
+        }
+        return ofZeroBits(nibbles * 4);
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 检查原始摘要是否满足目标
+     * @param hash 至少8字节
+     * @return
+     */
+    public boolean isMetBy(byte[] hash) {
+        long prefix = 0;
+        for(int i = 0; i < 8; i++) {
+            prefix = (prefix << 8) | (hash[i] & 0xff);
+        }
+        return Long.compareUnsigned(prefix, threshold) <= 0;
+    }
+
+    /**
+     * 检查16进制的hash是否满足目标，不是合法的16进制时返回false
+     * @param hash
+     * @return
+     */
+    public boolean isMetBy(String hash) {
+        if(hash == null || hash.length() < 16) {
+            return false;
+        }
+        try {
+            return Long.compareUnsigned(Long.parseUnsignedLong(hash.substring(0, 16), 16), threshold) <= 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 找到一个满足目标的hash平均需要计算的次数：2^64 / (threshold + 1)
+     * @return
+     */
+    public double getExpectedHashes() {
+        return TWO_64.doubleValue() / (toBigInteger().doubleValue() + 1);
+    }
+
+    /**
+     * 以比特数表示的难度，即log2(getExpectedHashes())，ofZeroBits(b)的难度为b
+     * @return
+     */
+    public double getZeroBits() {
+        return Math.log(getExpectedHashes()) / Math.log(2);
+    }
+
+    /**
+     * 将门限乘以 numerator/denominator（精确的整数运算），结果限制在1到limit的门限之间
+     * @param numerator
+     * @param denominator
+     * @param limit 最容易的目标
+     * @return
+     */
+    public Target scale(long numerator, long denominator, Target limit) {
+        BigInteger scaled = toBigInteger().multiply(BigInteger.valueOf(numerator)).divide(BigInteger.valueOf(denominator));
+        if(scaled.compareTo(limit.toBigInteger()) >= 0) {
+            return limit;
+        }
+        //门限是无符号数，不小于2^63的结果用longValue表示为负数，不能按有符号数取最大值
+        return of(scaled.signum() == 0 ? 1L : scaled.longValue());
+    }
+
+    /**
+     * 是否比other更难（门限更小）
+     * @param other
+     * @return
+     */
+    public boolean isHarderThan(Target other) {
+        return Long.compareUnsigned(threshold, other.threshold) < 0;
+    }
+
+    private BigInteger toBigInteger() {
+        return new BigInteger(Long.toUnsignedString(threshold));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Target && ((Target) o).threshold == threshold;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(threshold);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x（%.2f位）", threshold, getZeroBits());
+    }
+}
@@ -1,5 +1,6 @@
 package ZJChain;
 
+import utils.Log;
 import utils.StringUtil;
 
 import java.security.PrivateKey;
@@ -11,10 +12,6 @@ public class Transaction {
      * 交易号
      */
     public String transactionId;
-    /**
-     * 交易序号，用于记录交易数量
-     */
-    public static int sequence = 0;
     /**
      * 发送方的地址/public key
      */
@@ -24,9 +21,9 @@ public class Transaction {
      */
     public PublicKey recipient;
     /**
-     * 交易额
+     * 交易额（最小单位，见 {@link Amount}）
      */
-    public float value;
+    public long value;
     /**
      * 发送方的签名
      */
@@ -41,7 +38,13 @@ public class Transaction {
      */
     public ArrayList<TransactionOutput> outputs = new ArrayList<TransactionOutput>();
 
-    public Transaction(PublicKey from, PublicKey to, float value, ArrayList<TransactionInput> inputs) {
+    /**
+     * sender与recipient对应的地址，缓存公钥编码，在第一次使用时创建
+     */
+    private Address senderAddress;
+    private Address recipientAddress;
+
+    public Transaction(PublicKey from, PublicKey to, long value, ArrayList<TransactionInput> inputs) {
         this.sender = from;
         this.recipient = to;
         this.value = value;
@@ -49,16 +52,55 @@ public class Transaction {
     }
 
     /**
-     * 计算用于标识交易的transactionId
+     * 由地址创建交易，地址中已缓存的公钥编码直接复用
+     */
+    static Transaction create(Address from, Address to, long value, ArrayList<TransactionInput> inputs) {
+        Transaction transaction = new Transaction(from == null ? null : from.getKey(),
+                to == null ? null : to.getKey(), value, inputs);
+        transaction.senderAddress = from;
+        transaction.recipientAddress = to;
+        return transaction;
+    }
+
+    /**
+     * 获取发送方地址
+     * @return
+     */
+    public Address getSenderAddress() {
+        Address address = senderAddress;
+        //sender是公开字段，被替换后重新创建
+        if(address == null || address.getKey() != sender) {
+            address = Address.of(sender);
+            senderAddress = address;
+        }
+        return address;
+    }
+
+    /**
+     * 获取接收方地址
+     * @return
+     */
+    public Address getRecipientAddress() {
+        Address address = recipientAddress;
+        if(address == null || address.getKey() != recipient) {
+            address = Address.of(recipient);
+            recipientAddress = address;
+        }
+        return address;
+    }
+
+    /**
+     * 计算用于标识交易的transactionId，序号取自交易所属的链
+     * @param context
      * @return
      * @throws Exception
      */
-    private String calculateHash() throws Exception {
-        sequence++;
+    private String calculateHash(ChainContext context) throws Exception {
+        int current = context.nextSequence();
             return StringUtil.applySha256(
-                    StringUtil.getStringFromKey(sender) +
-                    StringUtil.getStringFromKey(recipient) +
-                    value + sequence);
+                    getSenderAddress().toString() +
+                    getRecipientAddress().toString() +
+                    value + current);
     }
 
     /**
@@ -66,8 +108,7 @@ public class Transaction {
      * @param privateKey
      */
     public void generateSignature(PrivateKey privateKey) {
-        String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(recipient) + value;
-        signature = StringUtil.applyECDSASig(privateKey, data);
+        signature = StringUtil.applyECDSASig(privateKey, getSignatureData());
     }
 
     /**
@@ -75,94 +116,151 @@ public class Transaction {
      * @return
      */
     public boolean verifySignature() throws Exception {
-        String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(recipient) + value;
-        return StringUtil.verifyECDSASig(sender, data, signature);
+        return StringUtil.verifyECDSASig(sender, getSignatureData(), signature);
     }
 
     /**
-     * 实现一次交易
+     * 获取需要签名的数据：发送方、接收方与交易额
      * @return
      */
-    public boolean processTransaction() {
+    public String getSignatureData() {
+        return getSenderAddress().toString() + getRecipientAddress().toString() + value;
+    }
+
+    /**
+     * 在指定的链上实现一次交易：准备交易后立即提交
+     * @param context
+     * @return
+     */
+    public boolean processTransaction(ChainContext context) {
+        Metrics.Timer timer = context.metrics.timer(Metrics.TRANSACTION_PROCESS);
+        long start = timer.start();
+        boolean processed = prepare(context) && commit(context);
+        timer.stop(start, 1);
+        if(!processed) {
+            context.metrics.counter(Metrics.TRANSACTION_REJECTED).increment();
+        }
+        return processed;
+    }
+
+    /**
+     * 准备交易：验证签名，从UTXO集合中取得交易输入对应的UTXO，检查金额，计算交易id并生成交易输出。
+     * 不修改UTXO集合，交易池在接收交易时只做这一步
+     * @param context 交易所属的链
+     * @return
+     */
+    public boolean prepare(ChainContext context) {
 
         //验证交易的发送方的数字签名是否有效
         try {
             if(!verifySignature()) {
-                System.out.println("交易签名验证失败");
+                Log.warn("交易签名验证失败");
                 return false;
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            //没有签名或签名格式错误时验证会抛出异常，同样拒绝交易
+            Log.warn("交易签名验证出错：" + e);
+            return false;
         }
 
         //根据交易输出的id从整个区块链中有效的UTXO集合中获取对应的UTXO
         for(TransactionInput input : inputs) {
-            input.UTXO = ZJChain.UTXOs.get(input.transactionOutputId);
+            input.UTXO = context.UTXOs.get(input.transactionOutputId);
+        }
+
+        if(value <= 0) {
+            Log.warn(() -> "交易额必须大于0：" + value);
+            return false;
         }
 
         //检测交易输入额是否符合最小标准
-        if(getInputsValue() < ZJChain.minimumTransaction) {
-            System.out.println("交易输入数额：" + getInputsValue() + " 小于最小交易额");
+        long inputsValue;
+        try {
+            inputsValue = getInputsValue();
+        } catch (ArithmeticException e) {
+            Log.warn("交易输入数额溢出，交易终止！");
+            return false;
+        }
+        if(inputsValue < context.minimumTransaction) {
+            Log.warn("交易输入数额：" + Amount.format(inputsValue) + " 小于最小交易额");
             return false;
         }
 
         //计算交易输入还有多少剩余（类似找零）
-        float leftover = getInputsValue() - value;
+        long leftover = inputsValue - value;
         if(leftover < 0) {
-            System.out.println("金额不足，交易终止！");
+            Log.warn("金额不足，交易终止！");
             return false;
         }
-        //计算交易id
-        try {
-            transactionId = calculateHash();
-        } catch (Exception e) {
-            e.printStackTrace();
+        //计算交易id，重复准备同一笔交易时保持原来的id
+        if(transactionId == null) {
+            try {
+                transactionId = calculateHash(context);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
+        outputs.clear();
         //建立指向收款方的交易输出
-        outputs.add(new TransactionOutput(this.recipient, value, transactionId));
+        outputs.add(new TransactionOutput(getRecipientAddress(), value, transactionId));
         //如果需要找零才找零
         if(leftover > 0) {
             //建立指向发送方的交易输出（将交易输出中没有用完的还给自己，实现找零功能）
-            outputs.add(new TransactionOutput(this.sender, leftover, transactionId));
+            outputs.add(new TransactionOutput(getSenderAddress(), leftover, transactionId));
         }
+        return true;
+    }
 
-        //将本次交易中的所有交易输出添加到整个区块链的UTXO集合中（实现向所有用户通报这笔交易）
-        for(TransactionOutput output : outputs) {
-            ZJChain.UTXOs.put(output.id, output);
-        }
-        //移除整个区块链中本次交易中所有交易输入所对应的UTXO（每个UTXO只能用来支付一次）
+    /**
+     * 提交已准备好的交易：原子地移除所有交易输入对应的UTXO（每个UTXO只能用来支付一次），
+     * 并将交易输出添加到UTXO集合中（实现向所有用户通报这笔交易）。
+     * 若其间有其它交易抢先花费了同一个UTXO，则本次交易失败，UTXO集合保持不变
+     * @param context 交易所属的链
+     * @return
+     */
+    public boolean commit(ChainContext context) {
+        ArrayList<String> spentIds = new ArrayList<>();
         for(TransactionInput input : inputs) {
             if(input.UTXO != null) {
-                ZJChain.UTXOs.remove(input.UTXO.id);
+                spentIds.add(input.UTXO.id);
             }
         }
-
+        if(!context.UTXOs.spend(spentIds, outputs)) {
+            Log.warn("交易输入已被花费，交易终止！");
+            outputs.clear();
+            return false;
+        }
         return true;
-
     }
 
     /**
-     * 获取所有交易输入中的总价值（计算拥有的钱的总数）
+     * 获取所有交易输入中的总价值（计算拥有的钱的总数），精确求和，溢出时抛出ArithmeticException
      * @return
      */
-    public float getInputsValue() {
-        float sum = 0;
-        for(TransactionInput i : inputs) {
-            if(i.UTXO != null) {
-                sum += i.UTXO.value;
+    public long getInputsValue() {
+        long sum = 0;
+        //初始交易没有交易输入
+        if(inputs == null) {
+            return sum;
+        }
+        //按下标遍历，不创建迭代器
+        for(int i = 0, n = inputs.size(); i < n; i++) {
+            TransactionOutput UTXO = inputs.get(i).UTXO;
+            if(UTXO != null) {
+                sum = Math.addExact(sum, UTXO.value);
             }
         }
         return sum;
     }
 
     /**
-     * 获取所有交易输出中的总价值（要支付的钱的总数）
+     * 获取所有交易输出中的总价值（要支付的钱的总数），精确求和，溢出时抛出ArithmeticException
      * @return
      */
-    public float getOutputsValue() {
-        float sum = 0;
-        for(TransactionOutput output : outputs) {
-            sum += output.value;
+    public long getOutputsValue() {
+        long sum = 0;
+        for(int i = 0, n = outputs.size(); i < n; i++) {
+            sum = Math.addExact(sum, outputs.get(i).value);
         }
         return sum;
     }
@@ -14,29 +14,67 @@ public class TransactionOutput {
      */
     public PublicKey recipient;
     /**
-     * 交易输出额
+     * 交易输出额（最小单位）
      */
-    public float value;
+    public long value;
     /**
      * 创建这个交易输出的交易id
      */
     public String parentTransactionId;
+    /**
+     * recipient对应的地址
+     */
+    private Address recipientAddress;
 
 
-    public TransactionOutput(PublicKey recipient, float value, String parentTransactionId) {
-        this.recipient = recipient;
+    public TransactionOutput(PublicKey recipient, long value, String parentTransactionId) {
+        this(Address.of(recipient), value, parentTransactionId);
+    }
+
+    public TransactionOutput(Address recipient, long value, String parentTransactionId) {
+        this.recipient = recipient == null ? null : recipient.getKey();
+        this.recipientAddress = recipient;
         this.value = value;
         this.parentTransactionId = parentTransactionId;
         //前面属性均赋值后再计算id
         try {
-            this.id = StringUtil.applySha256(StringUtil.getStringFromKey(recipient) + this.value + this.parentTransactionId);
+            this.id = StringUtil.applySha256(recipient.toString() + this.value + this.parentTransactionId);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    //检查UTXO（未消费的交易输出）是否是指定publickey的拥有者的
+    /**
+     * 由已有数据恢复交易输出（用于反序列化），不重新计算id
+     */
+    TransactionOutput(String id, Address recipient, long value, String parentTransactionId) {
+        this.id = id;
+        this.recipient = recipient == null ? null : recipient.getKey();
+        this.recipientAddress = recipient;
+        this.value = value;
+        this.parentTransactionId = parentTransactionId;
+    }
+
+    /**
+     * 获取接收方地址
+     * @return
+     */
+    public Address getRecipientAddress() {
+        Address address = recipientAddress;
+        //recipient是公开字段，被替换后重新创建
+        if(address == null || address.getKey() != recipient) {
+            address = Address.of(recipient);
+            recipientAddress = address;
+        }
+        return address;
+    }
+
+    //检查UTXO（未消费的交易输出）是否是指定publickey的拥有者的，按公钥编码比较，反序列化得到的公钥也能识别
     public boolean isMine(PublicKey publicKey) {
-        return (publicKey == recipient);
+        return publicKey == recipient || (publicKey != null && Address.of(publicKey).equals(getRecipientAddress()));
+    }
+
+    public boolean isMine(Address address) {
+        return address != null && address.equals(getRecipientAddress());
     }
 }
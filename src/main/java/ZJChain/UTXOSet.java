@@ -0,0 +1,336 @@
+package ZJChain;
+
+import java.io.Closeable;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 全局UTXO（未消费交易输出）集合，线程安全。
+ * 数据保存在 {@link UTXOStore} 中：默认的 {@link MemoryUTXOStore} 在堆中按地址建立索引，
+ * {@link OffHeapUTXOStore} 以定长记录保存在堆外，适合很大的UTXO集合。
+ * 写操作按TransactionOutputId分段加锁（锁分段），spend 一次性锁住涉及的所有分段，
+ * 保证"花费这些输入并创建这些输出"要么全部完成要么全部不做，不同交易可以并行处理。
+ * {@link #freeze()} 得到某一时刻的只读视图（写时复制），用于写快照时不阻塞交易处理
+ */
+public class UTXOSet {
+
+    /**
+     * 分段锁的数量，必须是2的幂
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * 冻结视图中表示"冻结时不存在"的原值
+     */
+    private static final TransactionOutput ABSENT = new TransactionOutput(null, (Address) null, 0, null);
+
+    private static final Comparator<TransactionOutput> BY_ID = Comparator.comparing(output -> output.id);
+
+    private final UTXOStore store;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    /**
+     * 未关闭的冻结视图，修改前把原值复制给它们
+     */
+    private final CopyOnWriteArrayList<Frozen> frozen = new CopyOnWriteArrayList<>();
+
+    public UTXOSet() {
+        this(new MemoryUTXOStore());
+    }
+
+    /**
+     * @param store 保存UTXO的存储，例如 new OffHeapUTXOStore()
+     */
+    public UTXOSet(UTXOStore store) {
+        this.store = store;
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public TransactionOutput get(String id) {
+        return store.get(id);
+    }
+
+    public boolean containsKey(String id) {
+        return store.containsKey(id);
+    }
+
+    /**
+     * 添加一个UTXO，同时更新拥有者索引。拥有者余额溢出时不做修改并抛出ArithmeticException
+     * @param id
+     * @param output
+     * @return 被替换的旧UTXO
+     */
+    public TransactionOutput put(String id, TransactionOutput output) {
+        ReentrantLock lock = stripes[stripe(id)];
+        lock.lock();
+        try {
+            preserve(id);
+            return store.put(id, output);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除一个UTXO，同时更新拥有者索引
+     * @param id
+     * @return
+     */
+    public TransactionOutput remove(String id) {
+        ReentrantLock lock = stripes[stripe(id)];
+        lock.lock();
+        try {
+            preserve(id);
+            return store.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 原子地花费一组UTXO并加入新的UTXO：只要有一个输入已不存在（已被其它交易花费）或重复出现，
+     * 或者加入新的UTXO会使拥有者余额溢出，就不做任何修改并返回false
+     * @param inputIds 要花费的TransactionOutputId
+     * @param newOutputs 新产生的交易输出
+     * @return
+     */
+    public boolean spend(Collection<String> inputIds, Collection<TransactionOutput> newOutputs) {
+        //按分段下标从小到大加锁，避免死锁
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for(String id : inputIds) {
+            indexes.add(stripe(id));
+        }
+        for(TransactionOutput output : newOutputs) {
+            indexes.add(stripe(output.id));
+        }
+        for(int index : indexes) {
+            stripes[index].lock();
+        }
+        try {
+            HashSet<String> distinct = new HashSet<>();
+            for(String id : inputIds) {
+                if(!distinct.add(id) || !store.containsKey(id)) {
+                    return false;
+                }
+            }
+            List<TransactionOutput> removed = new ArrayList<>(inputIds.size());
+            for(String id : inputIds) {
+                preserve(id);
+                removed.add(store.remove(id));
+            }
+            List<TransactionOutput> added = new ArrayList<>(newOutputs.size());
+            List<TransactionOutput> replaced = new ArrayList<>(newOutputs.size());
+            try {
+                for(TransactionOutput output : newOutputs) {
+                    preserve(output.id);
+                    replaced.add(store.put(output.id, output));
+                    added.add(output);
+                }
+            } catch (ArithmeticException e) {
+                //溢出的那次put没有修改，按相反顺序撤销之前的修改
+                for(int i = added.size() - 1; i >= 0; i--) {
+                    store.remove(added.get(i).id);
+                    if(replaced.get(i) != null) {
+                        store.put(replaced.get(i).id, replaced.get(i));
+                    }
+                }
+                for(int i = removed.size() - 1; i >= 0; i--) {
+                    store.put(removed.get(i).id, removed.get(i));
+                }
+                return false;
+            }
+            return true;
+        } finally {
+            for(int index : indexes.descendingSet()) {
+                stripes[index].unlock();
+            }
+        }
+    }
+
+    /**
+     * 修改id对应的UTXO前调用（持有其分段锁），为每个冻结视图保留第一次修改前的值
+     */
+    private void preserve(String id) {
+        if(frozen.isEmpty()) {
+            return;
+        }
+        TransactionOutput current = store.get(id);
+        for(Frozen view : frozen) {
+            view.original.putIfAbsent(id, current == null ? ABSENT : current);
+        }
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    public void clear() {
+        for(ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+        try {
+            if(!frozen.isEmpty()) {
+                for(TransactionOutput output : store.values()) {
+                    preserve(output.id);
+                }
+            }
+            store.clear();
+        } finally {
+            for(int i = STRIPES - 1; i >= 0; i--) {
+                stripes[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * 所有UTXO（只读视图，遍历时可能看到并发修改的部分结果）
+     * @return
+     */
+    public Collection<TransactionOutput> values() {
+        return store.values();
+    }
+
+    /**
+     * 获取指定公钥的余额
+     * @param publicKey
+     * @return
+     */
+    public long getBalance(PublicKey publicKey) {
+        return getBalance(Address.of(publicKey));
+    }
+
+    /**
+     * 获取指定地址的余额
+     * @param address
+     * @return
+     */
+    public long getBalance(Address address) {
+        return address == null ? 0 : store.getBalance(address);
+    }
+
+    /**
+     * 将所有拥有者的余额复制到一个账本中，用于统计总额与按地址汇总；
+     * 每个拥有者的余额是一致的，不同拥有者之间可能看到并发修改的部分结果
+     * @return
+     */
+    public Ledger getLedger() {
+        return store.getLedger();
+    }
+
+    /**
+     * 获取指定公钥拥有的所有UTXO（只读视图）
+     * @param publicKey
+     * @return
+     */
+    public Collection<TransactionOutput> getOutputs(PublicKey publicKey) {
+        return getOutputs(Address.of(publicKey));
+    }
+
+    /**
+     * 获取指定地址拥有的所有UTXO（只读视图）
+     * @param address
+     * @return
+     */
+    public Collection<TransactionOutput> getOutputs(Address address) {
+        return address == null ? Collections.<TransactionOutput>emptyList() : store.getOutputs(address);
+    }
+
+    /**
+     * 冻结当前的内容：之后的修改在第一次发生时把原值复制到返回的视图中，
+     * 冻结本身只需短暂锁住所有分段，不复制整个集合。视图用完后必须关闭
+     * @return
+     */
+    public Frozen freeze() {
+        for(ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+        try {
+            Frozen view = new Frozen();
+            frozen.add(view);
+            return view;
+        } finally {
+            for(int i = STRIPES - 1; i >= 0; i--) {
+                stripes[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * 冻结时刻的UTXO集合，不受之后修改的影响
+     */
+    public class Frozen implements Closeable {
+        /**
+         * 冻结之后被修改过的id及其冻结时的值
+         */
+        private final ConcurrentHashMap<String, TransactionOutput> original = new ConcurrentHashMap<>();
+        private volatile boolean closed;
+
+        private Frozen() {
+        }
+
+        /**
+         * 冻结时的所有UTXO，按TransactionOutputId排序
+         * @return
+         */
+        public List<TransactionOutput> getOutputs() {
+            if(closed) {
+                throw new IllegalStateException("冻结视图已关闭");
+            }
+            List<TransactionOutput> list = new ArrayList<>(store.size() + original.size());
+            //先记录原值再修改，遍历时看到的新值对应的id一定已在original中
+            for(TransactionOutput output : store.values()) {
+                if(!original.containsKey(output.id)) {
+                    list.add(output);
+                }
+            }
+            for(TransactionOutput output : original.values()) {
+                if(output != ABSENT) {
+                    list.add(output);
+                }
+            }
+            list.sort(BY_ID);
+            //遍历期间才被修改的输出会出现两次（都是冻结时的值），去掉重复
+            int size = 0;
+            for(TransactionOutput output : list) {
+                if(size == 0 || !list.get(size - 1).id.equals(output.id)) {
+                    list.set(size++, output);
+                }
+            }
+            list.subList(size, list.size()).clear();
+            return list;
+        }
+
+        /**
+         * 冻结之后被修改过的UTXO数（复制的原值数）
+         * @return
+         */
+        public int getCopied() {
+            return original.size();
+        }
+
+        /**
+         * 停止复制原值并释放视图
+         */
+        @Override
+        public void close() {
+            closed = true;
+            frozen.remove(this);
+            original.clear();
+        }
+    }
+
+    private static int stripe(String id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,206 @@
+package ZJChain;
+
+import utils.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * UTXO集合的快照：在某个高度冻结UTXO集合，按TransactionOutputId排序写入紧凑的二进制文件。
+ * 节点启动时用 {@link #load(File, ChainContext)} 映射读取快照，只需重放快照之后的块，不必从创世块重新执行所有交易。
+ * <p>
+ * 文件格式为 [int magic][int 版本][int 区块编码版本][int 高度][UTF 该高度最后一块的hash][int 输出数]，
+ * 之后是按id排序的交易输出（与 {@link BlockCodec} 相同的编码），最后是前面全部内容的CRC32。
+ * 冻结是写时复制的（{@link UTXOSet#freeze()}），写文件期间区块处理可以继续进行
+ */
+public class UTXOSnapshot implements Closeable {
+
+    private static final int MAGIC = 0x5A4A4355; //"ZJCU"
+    private static final int VERSION = 1;
+
+    private final UTXOSet.Frozen frozen;
+    private final int height;
+    private final String blockHash;
+
+    private UTXOSnapshot(UTXOSet.Frozen frozen, int height, String blockHash) {
+        this.frozen = frozen;
+        this.height = height;
+        this.blockHash = blockHash;
+    }
+
+    /**
+     * 冻结context当前的UTXO集合并记录链的高度。需要在两个区块之间调用，
+     * 即UTXO集合正好是执行完链尾区块后的状态时（例如 ZJChain.addBlock 返回之后）
+     * @param context
+     * @return 用完后需要关闭
+     */
+    public static UTXOSnapshot take(ChainContext context) {
+        UTXOSet.Frozen frozen = context.UTXOs.freeze();
+        Block tip = context.getTip();
+        int height = tip == null ? 0 : context.blockChain.getHeight(tip.hash) + 1;
+        return new UTXOSnapshot(frozen, height, tip == null ? null : tip.hash);
+    }
+
+    /**
+     * 快照包含的块数
+     * @return
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 快照时链尾区块的hash，链为空时为null
+     * @return
+     */
+    public String getBlockHash() {
+        return blockHash;
+    }
+
+    /**
+     * 将快照写入文件（先写临时文件再替换，写入中断不会损坏原有的快照）
+     * @param file
+     * @return 写入的交易输出数
+     * @throws IOException
+     */
+    public int write(File file) throws IOException {
+        List<TransactionOutput> outputs = frozen.getOutputs();
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(BlockCodec.VERSION);
+            out.writeInt(height);
+            out.writeUTF(blockHash == null ? "" : blockHash);
+            out.writeInt(outputs.size());
+            for(TransactionOutput output : outputs) {
+                BlockCodec.writeOutput(out, output);
+            }
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Log.info("UTXO快照：高度" + height + "，" + outputs.size() + "个交易输出，冻结期间复制" + frozen.getCopied() + "个");
+        return outputs.size();
+    }
+
+    /**
+     * 释放冻结的UTXO集合
+     */
+    @Override
+    public void close() {
+        frozen.close();
+    }
+
+    /**
+     * 由快照恢复context的UTXO集合，再重放区块存储中快照之后的块
+     * @param file
+     * @param context
+     * @return 重放的块数
+     * @throws IOException 文件损坏（校验和不一致）、版本不支持，或快照的块与区块存储中的不一致，此时不修改UTXO集合
+     */
+    public static int load(File file, ChainContext context) throws IOException {
+        BlockStore blockChain = context.blockChain;
+        UTXOSet UTXOs = context.UTXOs;
+        int height;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if(length < 4 || length > Integer.MAX_VALUE) {
+                throw new IOException("快照文件长度无效：" + length);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int end = (int) length - 4;
+            ByteBuffer body = buffer.duplicate();
+            body.limit(end);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if((int) crc.getValue() != buffer.getInt(end)) {
+                throw new IOException("快照校验和不一致：" + file);
+            }
+            ByteBuffer records = buffer.duplicate();
+            records.limit(end);
+            DataInputStream in = new DataInputStream(new BufferInput(records));
+            if(in.readInt() != MAGIC) {
+                throw new IOException("不是有效的快照文件：" + file);
+            }
+            int version = in.readInt();
+            if(version != VERSION) {
+                throw new IOException("不支持的快照版本：" + version);
+            }
+            int codecVersion = in.readInt();
+            if(codecVersion != BlockCodec.VERSION) {
+                throw new IOException("不支持的编码版本：" + codecVersion);
+            }
+            height = in.readInt();
+            String hash = in.readUTF();
+            if(height < 0 || height > blockChain.size()
+                    || (height > 0 && !blockChain.get(height - 1).hash.equals(hash))) {
+                throw new IOException("快照高度" + height + "的块与区块链不一致");
+            }
+            int count = in.readInt();
+            UTXOs.clear();
+            for(int i = 0; i < count; i++) {
+                TransactionOutput output = BlockCodec.readOutput(in);
+                UTXOs.put(output.id, output);
+            }
+        }
+        int size = blockChain.size();
+        for(int h = height; h < size; h++) {
+            for(Transaction transaction : blockChain.get(h).transactions) {
+                if(transaction.inputs != null) {
+                    for(TransactionInput input : transaction.inputs) {
+                        UTXOs.remove(input.transactionOutputId);
+                    }
+                }
+                for(TransactionOutput output : transaction.outputs) {
+                    UTXOs.put(output.id, output);
+                }
+            }
+        }
+        return size - height;
+    }
+
+    /**
+     * 顺序读取映射的文件内容
+     */
+    private static class BufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        private BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if(!buffer.hasRemaining()) {
+                return length == 0 ? 0 : -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
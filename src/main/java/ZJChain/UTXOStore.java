@@ -0,0 +1,65 @@
+package ZJChain;
+
+import java.util.Collection;
+
+/**
+ * UTXO的存储：按TransactionOutputId保存交易输出，并按接收方地址维护余额与输出列表。
+ * 分段加锁、原子花费与冻结由 {@link UTXOSet} 在其上完成，同一个id的修改已被串行化；
+ * 实现需要保证不同id的并发调用安全
+ */
+public abstract class UTXOStore {
+
+    /**
+     * 按id查找，不存在时返回null
+     * @param id
+     * @return
+     */
+    public abstract TransactionOutput get(String id);
+
+    public abstract boolean containsKey(String id);
+
+    /**
+     * 添加或替换一个UTXO。拥有者余额溢出时不做修改并抛出ArithmeticException
+     * @param id 与output.id相同
+     * @param output
+     * @return 被替换的旧UTXO
+     */
+    public abstract TransactionOutput put(String id, TransactionOutput output);
+
+    /**
+     * 移除一个UTXO
+     * @param id
+     * @return 被移除的UTXO，不存在时返回null
+     */
+    public abstract TransactionOutput remove(String id);
+
+    public abstract int size();
+
+    public abstract void clear();
+
+    /**
+     * 所有UTXO（只读，遍历时可能看到并发修改的部分结果）
+     * @return
+     */
+    public abstract Collection<TransactionOutput> values();
+
+    /**
+     * 地址拥有的UTXO总额，没有时返回0
+     * @param address
+     * @return
+     */
+    public abstract long getBalance(Address address);
+
+    /**
+     * 地址拥有的所有UTXO（只读）
+     * @param address
+     * @return
+     */
+    public abstract Collection<TransactionOutput> getOutputs(Address address);
+
+    /**
+     * 所有拥有者的余额，每个拥有者的余额是一致的
+     * @return
+     */
+    public abstract Ledger getLedger();
+}
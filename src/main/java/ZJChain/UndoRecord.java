@@ -0,0 +1,91 @@
+package ZJChain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个区块对UTXO集合的修改记录：被花费的交易输出与新产生的交易输出。
+ * 撤销时删除新产生的输出并恢复被花费的输出，代价只与该块的交易数有关，不需要从创世块重放
+ */
+public class UndoRecord {
+
+    /**
+     * 一笔交易花费与产生的输出
+     */
+    private static class Entry {
+        private final List<TransactionOutput> spent;
+        private final List<TransactionOutput> created;
+
+        private Entry(List<TransactionOutput> spent, List<TransactionOutput> created) {
+            this.spent = spent;
+            this.created = created;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * 由已上链的区块生成撤销记录（被花费的输出取自交易输入中保存的UTXO）
+     * @param block
+     * @return
+     */
+    public static UndoRecord of(Block block) {
+        UndoRecord undo = new UndoRecord();
+        for(Transaction transaction : block.transactions) {
+            List<TransactionOutput> spent = new ArrayList<>();
+            if(transaction.inputs != null) {
+                for(TransactionInput input : transaction.inputs) {
+                    if(input.UTXO != null) {
+                        spent.add(input.UTXO);
+                    }
+                }
+            }
+            undo.add(spent, transaction.outputs);
+        }
+        return undo;
+    }
+
+    /**
+     * 记录一笔交易花费与产生的输出
+     * @param spentOutputs
+     * @param createdOutputs
+     */
+    void add(List<TransactionOutput> spentOutputs, List<TransactionOutput> createdOutputs) {
+        entries.add(new Entry(new ArrayList<>(spentOutputs), new ArrayList<>(createdOutputs)));
+    }
+
+    /**
+     * 撤销对UTXO集合的修改：从最后一笔交易开始，先删除它产生的输出，再恢复它花费的输出。
+     * 同一块中后面的交易花费前面交易的输出（例如连续转账花费上一笔的找零）时，该输出先被恢复再被删除，不会留在UTXO集合中
+     * @param UTXOs
+     */
+    public void undo(UTXOSet UTXOs) {
+        for(int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            for(int j = entry.created.size() - 1; j >= 0; j--) {
+                UTXOs.remove(entry.created.get(j).id);
+            }
+            for(int j = entry.spent.size() - 1; j >= 0; j--) {
+                TransactionOutput output = entry.spent.get(j);
+                UTXOs.put(output.id, output);
+            }
+        }
+    }
+
+    public List<TransactionOutput> getSpent() {
+        List<TransactionOutput> spent = new ArrayList<>();
+        for(Entry entry : entries) {
+            spent.addAll(entry.spent);
+        }
+        return Collections.unmodifiableList(spent);
+    }
+
+    public List<TransactionOutput> getCreated() {
+        List<TransactionOutput> created = new ArrayList<>();
+        for(Entry entry : entries) {
+            created.addAll(entry.created);
+        }
+        return Collections.unmodifiableList(created);
+    }
+}
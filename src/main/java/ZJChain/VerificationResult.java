@@ -0,0 +1,63 @@
+package ZJChain;
+
+/**
+ * 一批交易签名验证的结果，下标与提交的交易顺序一致
+ */
+public class VerificationResult {
+
+    /**
+     * 单笔交易的验证状态
+     */
+    public enum Status {
+        /**
+         * 签名有效
+         */
+        VALID,
+        /**
+         * 签名无效或验证时出错
+         */
+        INVALID,
+        /**
+         * 已有交易验证失败，该交易未被验证
+         */
+        SKIPPED
+    }
+
+    private final Status[] statuses;
+    private final int firstFailure;
+
+    VerificationResult(Status[] statuses, int firstFailure) {
+        this.statuses = statuses;
+        this.firstFailure = firstFailure;
+    }
+
+    /**
+     * 是否所有交易签名均有效
+     * @return
+     */
+    public boolean isValid() {
+        return firstFailure < 0;
+    }
+
+    /**
+     * 已发现的验证失败的交易中下标最小的一个，全部有效时返回-1。
+     * 由于发现失败后其余交易会被跳过，它不一定是整批交易中第一笔无效的交易
+     * @return
+     */
+    public int getFirstFailure() {
+        return firstFailure;
+    }
+
+    /**
+     * 获取第index笔交易的验证状态
+     * @param index
+     * @return
+     */
+    public Status getStatus(int index) {
+        return statuses[index];
+    }
+
+    public int size() {
+        return statuses.length;
+    }
+}
@@ -1,5 +1,7 @@
 package ZJChain;
 
+import utils.Log;
+
 import java.security.*;
 import java.security.spec.ECGenParameterSpec;
 import java.util.ArrayList;
@@ -7,30 +9,42 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class Wallet {
+    /**
+     * 每个线程复用的密钥对生成器（KeyPairGenerator不是线程安全的），随机数源只在创建时初始化一次
+     */
+    private static final ThreadLocal<KeyPairGenerator> KEY_PAIR_GENERATOR = new ThreadLocal<>();
+
     //公私钥
     public PublicKey publicKey;
     public PrivateKey privateKey;
 
     /**
-     * 钱包存储属于自己的UTXO（未消费交易输出）
+     * 钱包存储属于自己的UTXO（未消费交易输出），在发起交易时从所在链的UTXO集合的拥有者索引中刷新
      */
     public HashMap<String, TransactionOutput> UTXOs = new HashMap<>();
+    /**
+     * publicKey对应的地址
+     */
+    private Address address;
 
     public Wallet() {
         generateKeyPair();
     }
 
     /**
-     * 生成公私钥
+     * 生成公私钥，每个线程复用一个已初始化的密钥对生成器
      */
     public void generateKeyPair() {
         try {
-            //指定算法ECDSA生成密钥对
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("ECDSA", "BC");
-            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
-            ECGenParameterSpec ecSpec = new ECGenParameterSpec("prime192v1");
-            //初始化并生成密钥对
-            keyGen.initialize(ecSpec, random);
+            KeyPairGenerator keyGen = KEY_PAIR_GENERATOR.get();
+            if(keyGen == null) {
+                //指定算法ECDSA生成密钥对，第一次使用时才创建，此时BC provider已经注册
+                keyGen = KeyPairGenerator.getInstance("ECDSA", "BC");
+                SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+                ECGenParameterSpec ecSpec = new ECGenParameterSpec("prime192v1");
+                keyGen.initialize(ecSpec, random);
+                KEY_PAIR_GENERATOR.set(keyGen);
+            }
             KeyPair keyPair = keyGen.generateKeyPair();
             //获取公私钥
             privateKey = keyPair.getPrivate();
@@ -41,44 +55,53 @@ public class Wallet {
     }
 
     /**
-     * 计算钱包的总余额
+     * 获取钱包地址
      * @return
      */
-    public float getBalance() {
-        float sum = 0;
-        //遍历Map集合获取键值对对象
-        for(Map.Entry<String, TransactionOutput> item : ZJChain.UTXOs.entrySet()) {
-            TransactionOutput UTXO =  item.getValue();
-            //检查该UTXO是否属于该钱包
-            if(UTXO.isMine(publicKey)) {
-                //添加到钱包的UTXOs集合中
-                UTXOs.put(UTXO.id, UTXO);
-                sum += UTXO.value;
-            }
+    public Address getAddress() {
+        Address current = address;
+        if(current == null || current.getKey() != publicKey) {
+            current = Address.of(publicKey);
+            address = current;
         }
-        return sum;
+        return current;
     }
 
     /**
-     * 创建交易，支出
+     * 计算钱包在指定链上的总余额（最小单位），直接读取UTXO集合为每个拥有者维护的余额
+     * @param context
+     * @return
+     */
+    public long getBalance(ChainContext context) {
+        return context.UTXOs.getBalance(getAddress());
+    }
+
+    /**
+     * 在指定链上创建交易，支出
+     * @param context
      * @param _recipient
      * @param value
      * @return
      */
-    public Transaction sendFunds(PublicKey _recipient, float value) {
+    public Transaction sendFunds(ChainContext context, PublicKey _recipient, long value) {
         //检查余额是否足够
-        if(getBalance() < value) {
-            System.out.println("余额不足，交易终止！");
+        if(getBalance(context) < value) {
+            Log.warn("余额不足，交易终止！");
             return null;
         }
+        //只从属于本钱包的UTXO中选取
+        UTXOs.clear();
+        for(TransactionOutput UTXO : context.UTXOs.getOutputs(getAddress())) {
+            UTXOs.put(UTXO.id, UTXO);
+        }
         //建立动态数组用来记录作为交易输入使用的UTXO
         ArrayList<TransactionInput> inputs = new ArrayList<>();
 
         //查找钱包的UTXO，直到总金额达到要支付的金额
-        float total = 0;
+        long total = 0;
         for(Map.Entry<String, TransactionOutput> item : UTXOs.entrySet()) {
             TransactionOutput UTXO = item.getValue();
-            total += UTXO.value;
+            total = Math.addExact(total, UTXO.value);
             inputs.add(new TransactionInput(UTXO.id));
             if(total >= value) {
                 break;
@@ -86,7 +109,7 @@ public class Wallet {
         }
 
         //创建交易
-        Transaction newTransaction = new Transaction(publicKey, _recipient, value, inputs);
+        Transaction newTransaction = Transaction.create(getAddress(), Address.of(_recipient), value, inputs);
         newTransaction.generateSignature(privateKey);
 
         //将已经使用的UTXO从钱包中移除
@@ -1,137 +1,168 @@
 package ZJChain;
 
 import com.alibaba.fastjson.JSON;
-import sun.util.resources.cldr.zh.CalendarData_zh_Hans_SG;
+import com.alibaba.fastjson.serializer.ValueFilter;
+import utils.Log;
+import utils.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.PublicKey;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 
 public class ZJChain {
 
-    //blockChain为静态属性，所有对象都是在对同一个blockchain修改
-    public static ArrayList<Block> blockChain = new ArrayList<Block>();
-    public static int difficulty = 5;
-    /**
-     * 用于记录所有有效的UTXO，键是String类型的TransactionOutputId
-     */
-    public static HashMap<String, TransactionOutput> UTXOs = new HashMap<>();
     /**
-     * 每次交易的最小交易额
+     * 本链的全部状态：区块存储、UTXO集合、难度、初始交易等
      */
-    public static float minimumTransaction = 0.1f;
+    private final ChainContext context;
     public static Wallet walletA;
     public static Wallet walletB;
     /**
-     * 初始交易（创建区块链时初始化第一笔交易）
+     * 向区块链中添加块时使用的挖矿器，默认单线程
+     */
+    private Miner miner = new SerialMiner();
+    /**
+     * 区块链校验器，保存上次校验的检查点
+     */
+    private ChainValidator validator;
+    /**
+     * 跟踪分支的区块树，第一次使用时创建
      */
-    public static Transaction genesisTransaction;
+    private BlockTree blockTree;
+    /**
+     * 定期快照的文件与间隔块数，间隔为0时不做定期快照
+     */
+    private volatile File snapshotFile;
+    private volatile int snapshotInterval;
+    private volatile ExecutorService snapshotWriter;
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
 
     /**
-     * 检查区块链的有效性
-     * @return
+     * 创建一条使用内存存储的新链
      */
-    public boolean isChainValid() {
-        Block curBlock;
-        Block prevBlock;
-        //用于检验挖矿难度是否达标的字符串
-        String target = new String(new char[difficulty]).replace('\0', '0');
-        HashMap<String, TransactionOutput> tempUTXOs = new HashMap<>();
-        tempUTXOs.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0));
+    public ZJChain() {
+        this(new ChainContext());
+    }
 
+    /**
+     * 在已有的链状态上操作
+     * @param context
+     */
+    public ZJChain(ChainContext context) {
+        this.context = context;
+        this.validator = new ChainValidator(new SignatureVerifier(), context.metrics);
+    }
 
-        //遍历blockchain，从1开始，保证prevblock的有效性
-        for(int i = 1; i < blockChain.size(); i++) {
-            curBlock = blockChain.get(i);
-            prevBlock = blockChain.get(i - 1);
+    public ChainContext getContext() {
+        return context;
+    }
 
+    /**
+     * 检查区块链的有效性，已校验过的块只在链被替换时才重新检查
+     * @return
+     */
+    public boolean isChainValid() {
+        if(!validator.validate(context.blockChain, context.genesisTransaction, context.getDifficultyEngine())) {
+            return false;
+        }
+        Log.info("区块链有效！");
+        return true;
+    }
 
-            try {
-                //检查hash值计算有效性
-                if(!curBlock.hash.equals(curBlock.calculateHash())) {
-                    System.out.println("block的hash值计算错误");
-                    return false;
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    /**
+     * 向区块链中添加块
+     * @param newBlock
+     */
+    public void addBlock(Block newBlock) {
+        //先完成挖矿工作才能加入区块链中，目标由难度规则根据链上的时间戳决定
+        MiningResult result = newBlock.mineBlock(context.getNextTarget(), miner);
+        context.recordMining(result);
+        context.blockChain.add(newBlock);
+        context.index.sync();
+        scheduleSnapshot();
+    }
 
-            //检查hash值前后对应关系正确性
-            if(!prevBlock.hash.equals(curBlock.prevHash)) {
-                System.out.println("当前block与前面block的hash值不对应");
-                return false;
-            }
+    /**
+     * 生成初始交易：coinBase凭空向to转账value，交易id为"0"，交易输出手动加入（没有交易输入）
+     * @param coinBase
+     * @param to
+     * @param value
+     * @return
+     */
+    public static Transaction createGenesisTransaction(Wallet coinBase, PublicKey to, long value) {
+        Transaction transaction = new Transaction(coinBase.publicKey, to, value, null);
+        transaction.generateSignature(coinBase.privateKey);
+        transaction.transactionId = "0";
+        transaction.outputs.add(new TransactionOutput(transaction.recipient, transaction.value, transaction.transactionId));
+        return transaction;
+    }
 
-            if(!curBlock.hash.substring(0, difficulty).equals(target)) {
-                //如果不满足难度标准，也无效
-                System.out.println("当前块未满足挖矿难度标准！");
-                return false;
-            }
+    /**
+     * 在空链上创建初始交易与创世块：初始交易的输出加入UTXO集合，创世块（prevHash为"0"）挖矿后加入区块链
+     * @param coinBase
+     * @param to
+     * @param value
+     * @return 创世块
+     */
+    public Block createGenesis(Wallet coinBase, PublicKey to, long value) {
+        if(!context.blockChain.isEmpty()) {
+            throw new IllegalStateException("区块链已有创世块");
+        }
+        context.genesisTransaction = createGenesisTransaction(coinBase, to, value);
+        TransactionOutput output = context.genesisTransaction.outputs.get(0);
+        context.UTXOs.put(output.id, output);
+        Block genesis = new Block("0");
+        genesis.addTransaction(context.genesisTransaction, context);
+        addBlock(genesis);
+        return genesis;
+    }
 
-            TransactionOutput tempOutput;
-            for(int t = 0; i < curBlock.transactions.size(); t++) {
-                Transaction currentTransaction = curBlock.transactions.get(t);
-
-                //检查交易的签名
-                try {
-                    if(!currentTransaction.verifySignature()) {
-                        System.out.println("第" + t + "个交易的签名无效！");
-                        return false;
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-
-                //检查交易的交易输出额和交易输入额是否相等
-                if(!(currentTransaction.getInputsValue() == currentTransaction.getOutputsValue())) {
-                    System.out.println("第" + t + "个交易的交易输出与交易输入额不相等！");
-                    return false;
-                }
-
-                //检查交易输入是否正确（交易输入要么来源于初始交易（和矿工），要么来源于其它交易输出）
-                for(TransactionInput input : currentTransaction.inputs) {
-                    tempOutput = tempUTXOs.get(input.transactionOutputId);
-
-                    if(tempOutput == null) {
-                        System.out.println("第" + t + "个交易的交易输入不存在！");
-                        return false;
-                    }
-
-                    if(input.UTXO.value != tempOutput.value) {
-                        System.out.println("第" + t + "个交易的交易输入的值无效！");
-                        return false;
-                    }
-
-                    tempUTXOs.remove(input.transactionOutputId);
-                }
-
-                //将交易输出加入临时UTXOs
-                for(TransactionOutput output : currentTransaction.outputs) {
-                    tempUTXOs.put(output.id, output);
-                }
-
-                if(currentTransaction.outputs.get(0).recipient != currentTransaction.recipient) {
-                    System.out.println("第" + t + "个交易的交易输出目的方错误！");
-                    return false;
-                }
-
-                if(currentTransaction.outputs.get(1).recipient != currentTransaction.sender) {
-                    System.out.println("第" + t + "个交易的找零的交易输出没有发给发送者！");
-                    return false;
-                }
-            }
+    /**
+     * 提交一个已挖好的区块（例如从其它节点收到的），可能接在主链末尾、保存在分支上，
+     * 或者在分支的工作量超过主链时切换主链
+     * @param block
+     * @return
+     */
+    public BlockTree.Status submitBlock(Block block) {
+        BlockTree.Status status = getBlockTree().add(block);
+        if(status == BlockTree.Status.CONNECTED || status == BlockTree.Status.REORGANIZED) {
+            scheduleSnapshot();
         }
-         System.out.println("区块链有效！");
-         return true;
+        return status;
     }
 
     /**
-     * 向区块链中添加块
-     * @param newBlock
+     * 本链的区块树
+     * @return
      */
-    public void addBlock(Block newBlock) {
-        //先完成挖矿工作才能加入区块链中
-        newBlock.mineBlock(difficulty);
-        blockChain.add(newBlock);
+    public synchronized BlockTree getBlockTree() {
+        if(blockTree == null) {
+            blockTree = new BlockTree(context);
+        }
+        return blockTree;
+    }
+
+    /**
+     * 设置添加块时使用的挖矿器，例如 new ParallelMiner(线程数)
+     * @param miner
+     */
+    public void setMiner(Miner miner) {
+        this.miner = miner;
+    }
+
+    /**
+     * 设置校验区块链时使用的签名验证器
+     * @param signatureVerifier
+     */
+    public void setSignatureVerifier(SignatureVerifier signatureVerifier) {
+        this.validator = new ChainValidator(signatureVerifier, context.metrics);
     }
 
     /**
@@ -139,16 +170,144 @@ public class ZJChain {
      * @return
      */
     public String toJson() {
-        String blockChainString = JSON.toJSONString(blockChain);
+        //公钥与地址以Base64字符串输出，否则fastjson会递归序列化椭圆曲线点对象
+        ValueFilter keyFilter = (object, name, value) -> {
+            if(value instanceof Key) {
+                return StringUtil.getStringFromKey((Key) value);
+            }
+            return value instanceof Address ? value.toString() : value;
+        };
+        String blockChainString = JSON.toJSONString(context.blockChain, keyFilter);
         return blockChainString;
     }
 
+    /**
+     * 将blockChain逐块写入输出流，不在内存中生成整条链的字符串
+     * @param out
+     * @return 写出的块数
+     * @throws IOException
+     */
+    public int exportChain(OutputStream out) throws IOException {
+        return ChainStream.export(context.blockChain, out);
+    }
+
+    /**
+     * 从输入流逐块导入区块链并增量校验，blockChain必须为空。
+     * 导入完成后初始交易取第一个块中的第一笔交易，UTXOs按导入的链重建
+     * @param in
+     * @return 导入的块数
+     * @throws IOException 流损坏或区块校验失败，blockChain中保留已通过校验的块
+     */
+    public int importChain(InputStream in) throws IOException {
+        int count = ChainStream.importChain(in, context.blockChain, validator, context.getDifficultyEngine());
+        //与校验器检查点中的是同一个对象，之后的isChainValid()可以直接使用检查点
+        context.genesisTransaction = validator.getValidatedGenesis();
+        context.UTXOs.clear();
+        for(TransactionOutput output : validator.getUTXOs()) {
+            context.UTXOs.put(output.id, output);
+        }
+        context.index.sync();
+        return count;
+    }
+
+    /**
+     * 将当前的UTXO集合写入快照文件，需要在两个区块之间调用
+     * @param file
+     * @return 写入的交易输出数
+     * @throws IOException
+     */
+    public int saveSnapshot(File file) throws IOException {
+        try (UTXOSnapshot snapshot = UTXOSnapshot.take(context)) {
+            return snapshot.write(file);
+        }
+    }
+
+    /**
+     * 节点启动时由快照恢复UTXO集合并重放快照之后的块，初始交易取第一个块中的第一笔交易
+     * @param file
+     * @return 重放的块数
+     * @throws IOException 快照损坏或与区块存储不一致，此时可以改用导入或校验整条链重建
+     */
+    public int loadSnapshot(File file) throws IOException {
+        int replayed = UTXOSnapshot.load(file, context);
+        if(context.genesisTransaction == null && !context.blockChain.isEmpty()) {
+            context.genesisTransaction = context.blockChain.get(0).transactions.get(0);
+        }
+        context.index.sync();
+        return replayed;
+    }
+
+    /**
+     * 每增加interval个块在后台把UTXO集合写入快照文件。冻结在加块的线程中完成（写时复制，很快），
+     * 排序与写文件在后台线程进行；上一次快照还没写完时跳过本次
+     * @param file
+     * @param interval 为0时停止定期快照
+     */
+    public synchronized void setSnapshotInterval(File file, int interval) {
+        if(interval < 0) {
+            throw new IllegalArgumentException("快照间隔不能为负数：" + interval);
+        }
+        if(interval > 0 && snapshotWriter == null) {
+            snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "utxo-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        snapshotFile = file;
+        snapshotInterval = interval;
+    }
+
+    private void scheduleSnapshot() {
+        int interval = snapshotInterval;
+        if(interval == 0 || context.blockChain.size() % interval != 0 || !snapshotting.compareAndSet(false, true)) {
+            return;
+        }
+        File file = snapshotFile;
+        UTXOSnapshot snapshot = UTXOSnapshot.take(context);
+        snapshotWriter.execute(() -> {
+            try {
+                snapshot.write(file);
+            } catch (IOException e) {
+                Log.error("写入UTXO快照失败：" + file, e);
+            } finally {
+                snapshot.close();
+                snapshotting.set(false);
+            }
+        });
+    }
+
     /**
      * 设置挖矿难度
      * @param difficulty
      */
     public void setDifficulty(int difficulty) {
-        this.difficulty = difficulty;
+        context.difficulty = difficulty;
+    }
+
+    /**
+     * 设置难度调整规则，例如 new DifficultyEngine(Target.ofZeroBits(16), 1000, 10)；为null时恢复固定难度
+     * @param difficultyEngine
+     */
+    public void setDifficultyEngine(DifficultyEngine difficultyEngine) {
+        context.difficultyEngine = difficultyEngine;
+    }
+
+    /**
+     * 根据最近blocks个区块的时间戳与目标估算的全网算力（每秒hash次数）
+     * @param blocks
+     * @return
+     */
+    public double getNetworkHashRate(int blocks) {
+        return context.getNetworkHashRate(blocks);
+    }
+
+    /**
+     * 本机最近挖矿的算力（每秒hash次数）
+     * @return
+     */
+    public double getLocalHashRate() {
+        return context.hashRate.getHashRate();
     }
 
 }
@@ -0,0 +1,178 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 基于字节数组的哈希工具：复用线程本地的MessageDigest，直接在原始摘要上判断难度，避免每次计算都产生字符串
+ */
+public class HashUtil {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] MIN_INT = String.valueOf(Integer.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * SHA-256摘要长度（字节）
+     */
+    public static final int SHA256_LENGTH = 32;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(HashUtil::newSha256);
+
+    /**
+     * 新建一个SHA-256摘要对象
+     * @return
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前JVM不支持SHA-256", e);
+        }
+    }
+
+    /**
+     * 获取当前线程复用的SHA-256摘要对象（已重置）
+     * @return
+     */
+    public static MessageDigest sha256() {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * 计算字节数组的SHA-256摘要
+     * @param input
+     * @return
+     */
+    public static byte[] sha256(byte[] input) {
+        return sha256().digest(input);
+    }
+
+    /**
+     * 计算input[offset, offset+length)的SHA-256摘要并写入out[outOffset, outOffset+32)，不产生新对象
+     * @param digest
+     * @param input
+     * @param offset
+     * @param length
+     * @param out
+     * @param outOffset
+     */
+    public static void sha256(MessageDigest digest, byte[] input, int offset, int length, byte[] out, int outOffset) {
+        digest.update(input, offset, length);
+        try {
+            digest.digest(out, outOffset, SHA256_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 将字节数组转换为小写16进制字符串
+     * @param bytes
+     * @return
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for(int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 是否为64位小写16进制字符串（即toHex输出的SHA-256摘要，可以无损还原为32字节）
+     * @param hex
+     * @return
+     */
+    public static boolean isSha256Hex(String hex) {
+        if(hex == null || hex.length() != 2 * SHA256_LENGTH) {
+            return false;
+        }
+        for(int i = 0; i < hex.length(); i++) {
+            char c = hex.charAt(i);
+            if(!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将16进制字符串转换为字节数组
+     * @param hex
+     * @return
+     */
+    public static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return bytes;
+    }
+
+    /**
+     * 统计摘要开头连续为0的比特数
+     * @param hash
+     * @return
+     */
+    public static int leadingZeroBits(byte[] hash) {
+        int bits = 0;
+        for(byte b : hash) {
+            if(b == 0) {
+                bits += 8;
+            } else {
+                return bits + Integer.numberOfLeadingZeros(b & 0xff) - 24;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * 检查摘要的16进制表示是否以difficulty个0开头（等价于 hex.substring(0, difficulty).equals("00..0")）
+     * @param hash
+     * @param difficulty
+     * @return
+     */
+    public static boolean hasLeadingZeroNibbles(byte[] hash, int difficulty) {
+        int fullBytes = difficulty >> 1;
+        for(int i = 0; i < fullBytes; i++) {
+            if(hash[i] != 0) {
+                return false;
+            }
+        }
+        return (difficulty & 1) == 0 || (hash[fullBytes] & 0xf0) == 0;
+    }
+
+    /**
+     * 将int的十进制表示（与 String.valueOf(value) 相同）以ASCII写入buf，返回写入的字节数
+     * @param value
+     * @param buf
+     * @param offset
+     * @return
+     */
+    public static int writeDecimal(int value, byte[] buf, int offset) {
+        if(value == Integer.MIN_VALUE) {
+            System.arraycopy(MIN_INT, 0, buf, offset, MIN_INT.length);
+            return MIN_INT.length;
+        }
+        int pos = offset;
+        if(value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for(int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        for(int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end - offset;
+    }
+}
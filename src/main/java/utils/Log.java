@@ -0,0 +1,99 @@
+package utils;
+
+import java.io.PrintStream;
+import java.util.function.Supplier;
+
+/**
+ * 分级日志：低于当前级别的消息直接丢弃，不拼接字符串也不占用控制台。
+ * 默认级别为INFO，可以用 -Dzjchain.log=DEBUG|INFO|WARN|ERROR|OFF 或 {@link #setLevel(Level)} 修改。
+ * 热路径上的消息使用 {@link Supplier} 重载，只在级别开启时才生成消息
+ */
+public final class Log {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR,
+        /**
+         * 关闭所有输出
+         */
+        OFF
+    }
+
+    private static volatile Level level = parse(System.getProperty("zjchain.log"), Level.INFO);
+    private static volatile PrintStream out = System.out;
+
+    private Log() {
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    /**
+     * 设置输出目标，默认为System.out
+     * @param out
+     */
+    public static void setOutput(PrintStream out) {
+        Log.out = out;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel != Level.OFF && messageLevel.compareTo(level) >= 0;
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void debug(Supplier<String> message) {
+        if(isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, message.get(), null);
+        }
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void warn(Supplier<String> message) {
+        if(isEnabled(Level.WARN)) {
+            log(Level.WARN, message.get(), null);
+        }
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    private static void log(Level messageLevel, String message, Throwable error) {
+        if(!isEnabled(messageLevel)) {
+            return;
+        }
+        PrintStream stream = out;
+        //同一条消息与异常栈连续输出，不与其它线程的消息交错
+        synchronized (stream) {
+            stream.println("[" + messageLevel + "] " + message);
+            if(error != null) {
+                error.printStackTrace(stream);
+            }
+        }
+    }
+
+    private static Level parse(String name, Level defaultLevel) {
+        if(name == null) {
+            return defaultLevel;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultLevel;
+        }
+    }
+}
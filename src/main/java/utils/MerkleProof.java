@@ -0,0 +1,72 @@
+package utils;
+
+/**
+ * Merkle包含证明：从叶子到根路径上每一层的兄弟节点摘要。
+ * 轻节点只需区块头中的merkleRoot与该证明即可确认一笔交易包含在区块中，不需要下载整个区块。
+ * 每个兄弟节点在左边还是右边、哪一层没有兄弟节点，都由叶子下标与叶子总数决定，
+ * 因此证明同时确认了交易在区块中的位置与区块的交易数
+ */
+public class MerkleProof {
+
+    private final int index;
+    private final int treeSize;
+    private final byte[][] siblings;
+
+    MerkleProof(int index, int treeSize, byte[][] siblings) {
+        this.index = index;
+        this.treeSize = treeSize;
+        this.siblings = siblings;
+    }
+
+    /**
+     * 验证交易id是否是以merkleRoot为根、共getTreeSize()个叶子的树中第getIndex()个叶子
+     * @param transactionId
+     * @param merkleRoot 区块头中的merkleRoot（16进制）
+     * @return
+     */
+    public boolean verify(String transactionId, String merkleRoot) {
+        if(index < 0 || index >= treeSize) {
+            return false;
+        }
+        byte[] hash = MerkleTree.leafHash(transactionId);
+        int position = index;
+        int used = 0;
+        for(int count = treeSize; count > 1; count = (count + 1) / 2) {
+            int sibling = position ^ 1;
+            if(sibling < count) {
+                if(used == siblings.length) {
+                    return false;
+                }
+                hash = sibling < position ? MerkleTree.parentHash(siblings[used], hash) : MerkleTree.parentHash(hash, siblings[used]);
+                used++;
+            }
+            position /= 2;
+        }
+        //兄弟节点数必须与树的形状一致
+        return used == siblings.length && HashUtil.toHex(hash).equals(merkleRoot);
+    }
+
+    /**
+     * 被证明的叶子在区块交易列表中的下标
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * 生成证明时树的叶子数（区块的交易数）
+     * @return
+     */
+    public int getTreeSize() {
+        return treeSize;
+    }
+
+    /**
+     * 证明中兄弟节点的个数（约为log2(交易数)）
+     * @return
+     */
+    public int size() {
+        return siblings.length;
+    }
+}
@@ -0,0 +1,214 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * 以交易id为叶子的二叉Merkle树，直接在32字节的原始摘要上计算，叶子与父节点按RFC 6962加不同的前缀区分。
+ * <ul>
+ *     <li>叶子：SHA-256(0x00 || id)，64位16进制的交易id先还原为32字节，其它id（如初始交易的"0"）取其UTF-8编码</li>
+ *     <li>父节点：SHA-256(0x01 || 左子节点 || 右子节点)；某层节点数为奇数时，最后一个节点原样提升到上一层</li>
+ * </ul>
+ * 前缀保证中间节点的摘要不能冒充交易id通过证明验证。
+ * 每层节点连续存放在一个字节数组中。整棵树一次构建时，节点较多的层使用并行流（ForkJoin公共池）计算；
+ * 追加叶子时只重新计算从新叶子到根的一条路径，为O(log n)
+ */
+public class MerkleTree {
+
+    private static final int LENGTH = HashUtil.SHA256_LENGTH;
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+    /**
+     * 一层的父节点数达到该值时并行计算
+     */
+    private static final int PARALLEL_THRESHOLD = 2048;
+
+    /**
+     * levels.get(0)为叶子层，每层按下标顺序存放节点摘要，数组容量可能大于实际节点数
+     */
+    private final ArrayList<byte[]> levels = new ArrayList<>();
+    private final ArrayList<String> ids = new ArrayList<>();
+
+    public MerkleTree() {
+    }
+
+    /**
+     * 由一组交易id一次构建整棵树
+     * @param transactionIds
+     */
+    public MerkleTree(List<String> transactionIds) {
+        int count = transactionIds.size();
+        ids.addAll(transactionIds);
+        byte[] leaves = new byte[Math.max(count, 1) * LENGTH];
+        IntStream leafIndexes = IntStream.range(0, count);
+        if(count >= PARALLEL_THRESHOLD) {
+            leafIndexes = leafIndexes.parallel();
+        }
+        leafIndexes.forEach(i -> System.arraycopy(leafHash(ids.get(i)), 0, leaves, i * LENGTH, LENGTH));
+        levels.add(leaves);
+
+        int level = 0;
+        while(count > 1) {
+            byte[] children = levels.get(level);
+            int childCount = count;
+            int parentCount = (count + 1) / 2;
+            byte[] parents = new byte[parentCount * LENGTH];
+            if(parentCount >= PARALLEL_THRESHOLD) {
+                IntStream.range(0, parentCount).parallel()
+                        .forEach(i -> hashPair(HashUtil.sha256(), children, childCount, parents, i));
+            } else {
+                MessageDigest digest = HashUtil.sha256();
+                for(int i = 0; i < parentCount; i++) {
+                    hashPair(digest, children, childCount, parents, i);
+                }
+            }
+            levels.add(parents);
+            count = parentCount;
+            level++;
+        }
+    }
+
+    /**
+     * 追加一个叶子，只重新计算新叶子到根的路径
+     * @param transactionId
+     */
+    public void append(String transactionId) {
+        int index = ids.size();
+        ids.add(transactionId);
+        byte[] leaves = ensureCapacity(0, index + 1);
+        System.arraycopy(leafHash(transactionId), 0, leaves, index * LENGTH, LENGTH);
+
+        MessageDigest digest = HashUtil.sha256();
+        int count = index + 1;
+        for(int level = 0; count > 1; level++) {
+            int parentCount = (count + 1) / 2;
+            byte[] parents = ensureCapacity(level + 1, parentCount);
+            //levels.get(level)可能在ensureCapacity中被替换，需重新获取
+            hashPair(digest, levels.get(level), count, parents, index / 2);
+            index /= 2;
+            count = parentCount;
+        }
+    }
+
+    /**
+     * 叶子数量
+     * @return
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * 获取第index个叶子对应的交易id
+     * @param index
+     * @return
+     */
+    public String getTransactionId(int index) {
+        return ids.get(index);
+    }
+
+    /**
+     * 获取根的摘要，没有叶子时返回null
+     * @return
+     */
+    public byte[] getRoot() {
+        if(ids.isEmpty()) {
+            return null;
+        }
+        return Arrays.copyOf(levels.get(height()), LENGTH);
+    }
+
+    /**
+     * 获取根的16进制字符串，没有叶子时返回""（与原先的getMerkleRoot一致）
+     * @return
+     */
+    public String getRootHex() {
+        return ids.isEmpty() ? "" : HashUtil.toHex(getRoot());
+    }
+
+    /**
+     * 生成第index个叶子的包含证明
+     * @param index
+     * @return
+     */
+    public MerkleProof getProof(int index) {
+        if(index < 0 || index >= ids.size()) {
+            throw new IndexOutOfBoundsException("叶子下标：" + index + "，叶子数：" + ids.size());
+        }
+        List<byte[]> siblings = new ArrayList<>();
+        int position = index;
+        int count = ids.size();
+        for(int level = 0; count > 1; level++) {
+            int sibling = position ^ 1;
+            //没有兄弟节点时该节点被原样提升，不需要证明
+            if(sibling < count) {
+                siblings.add(Arrays.copyOfRange(levels.get(level), sibling * LENGTH, (sibling + 1) * LENGTH));
+            }
+            position /= 2;
+            count = (count + 1) / 2;
+        }
+        return new MerkleProof(index, ids.size(), siblings.toArray(new byte[0][]));
+    }
+
+    /**
+     * 计算交易id对应的叶子摘要
+     * @param transactionId
+     * @return
+     */
+    public static byte[] leafHash(String transactionId) {
+        MessageDigest digest = HashUtil.sha256();
+        digest.update(LEAF_PREFIX);
+        if(HashUtil.isSha256Hex(transactionId)) {
+            return digest.digest(HashUtil.fromHex(transactionId));
+        }
+        //null按"null"处理，与原先字符串拼接的行为一致
+        return digest.digest(String.valueOf(transactionId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 计算两个子节点的父节点摘要
+     * @param left
+     * @param right
+     * @return
+     */
+    public static byte[] parentHash(byte[] left, byte[] right) {
+        MessageDigest digest = HashUtil.sha256();
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        return digest.digest(right);
+    }
+
+    private int height() {
+        int height = 0;
+        for(int count = ids.size(); count > 1; count = (count + 1) / 2) {
+            height++;
+        }
+        return height;
+    }
+
+    private byte[] ensureCapacity(int level, int nodes) {
+        if(level == levels.size()) {
+            levels.add(new byte[Math.max(nodes, 4) * LENGTH]);
+        } else if(levels.get(level).length < nodes * LENGTH) {
+            levels.set(level, Arrays.copyOf(levels.get(level), Math.max(nodes, levels.get(level).length / LENGTH * 2) * LENGTH));
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * 由children中第2i和2i+1个节点计算parents中第i个节点，只有第2i个节点时原样复制
+     */
+    private static void hashPair(MessageDigest digest, byte[] children, int childCount, byte[] parents, int i) {
+        int left = 2 * i;
+        if(left + 1 < childCount) {
+            digest.update(NODE_PREFIX);
+            HashUtil.sha256(digest, children, left * LENGTH, 2 * LENGTH, parents, i * LENGTH);
+        } else {
+            System.arraycopy(children, left * LENGTH, parents, i * LENGTH, LENGTH);
+        }
+    }
+}
@@ -8,6 +8,15 @@ import java.util.Base64;
 
 public class StringUtil {
 
+    /**
+     * 每个线程复用一个验签用的Signature对象（Signature不是线程安全的）
+     */
+    private static final ThreadLocal<Signature> ECDSA_VERIFIER = new ThreadLocal<>();
+    /**
+     * 每个线程复用一个签名用的Signature对象
+     */
+    private static final ThreadLocal<Signature> ECDSA_SIGNER = new ThreadLocal<>();
+
     /**
      * 应用SHA256算法接收输入字符串计算并返回哈希字符串
      * @param input
@@ -15,22 +24,10 @@ public class StringUtil {
      * @throws Exception
      */
     public static String applySha256(String input) throws Exception {
-            //返回实现指定摘要算法的 MessageDigest 对象。此处是SHA-256算法
-            MessageDigest digest = MessageDigest.getInstance("SHA-256"); //getInstance有异常
-            //根据输入的bytes数组完成哈希计算。
-            byte[] hash = digest.digest(input.getBytes("UTF-8"));//getBytes有异常
-            StringBuffer hexString = new StringBuffer();
-            for(int i = 0; i < hash.length; i++) {
-                //将生成的哈希字节数组每一字节（8bit）转换16进制数字符串
-                String hex = Integer.toHexString(0xff & hash[i]);
-                if(hex.length() == 1) {
-                    //当生成的16进制数只有一位时，在末尾添0，丢弃生成的16进制数（因为8位应是两位的16进制数，除非前面全为0）
-                    hexString.append("0");
-                }
-                //将每一个字节的转换结果连接
-                hexString.append(hex);
-            }
-            return hexString.toString();
+            //复用当前线程的SHA-256摘要对象，避免每次调用MessageDigest.getInstance
+            byte[] hash = HashUtil.sha256(input.getBytes("UTF-8"));//getBytes有异常
+            //将生成的哈希字节数组每一字节（8bit）转换为两位16进制数字符
+            return HashUtil.toHex(hash);
     }
 
     /**
@@ -53,7 +50,12 @@ public class StringUtil {
         //提前声明变量，避免最后不能返回有效值
         byte[] output = new byte[0];
         try{
-            dsa = Signature.getInstance("ECDSA", "BC");
+            dsa = ECDSA_SIGNER.get();
+            if(dsa == null) {
+                dsa = Signature.getInstance("ECDSA", "BC");
+                ECDSA_SIGNER.set(dsa);
+            }
+            //initSign会重置Signature的状态，可以重复使用
             dsa.initSign(privateKey);
             byte[] strByte = data.getBytes();
             dsa.update(strByte);
@@ -74,41 +76,28 @@ public class StringUtil {
      * @return
      */
     public static boolean verifyECDSASig(PublicKey publicKey, String data, byte[] signature) throws Exception {
-            Signature ecdsaVerify = Signature.getInstance("ECDSA", "BC");
+            Signature ecdsaVerify = ECDSA_VERIFIER.get();
+            if(ecdsaVerify == null) {
+                //第一次使用时才创建，此时BC provider已经注册
+                ecdsaVerify = Signature.getInstance("ECDSA", "BC");
+                ECDSA_VERIFIER.set(ecdsaVerify);
+            }
+            //initVerify会重置Signature的状态，可以重复使用
             ecdsaVerify.initVerify(publicKey);
             ecdsaVerify.update(data.getBytes());
             return ecdsaVerify.verify(signature);
     }
 
     /**
-     * 根据交易生成merkleRoot标志区块
+     * 根据交易生成merkleRoot标志区块（二叉Merkle树的根，见 {@link MerkleTree}），没有交易时返回""
      * @param transactions
      * @return
      */
     public static String getMerkleRoot(ArrayList<Transaction> transactions) {
-        int count = transactions.size();
-        ArrayList<String> previousTreeLayer = new ArrayList<>();
+        ArrayList<String> transactionIds = new ArrayList<>(transactions.size());
         for(Transaction transaction : transactions) {
-            previousTreeLayer.add(transaction.transactionId);
+            transactionIds.add(transaction.transactionId);
         }
-
-        ArrayList<String> treeLayer = previousTreeLayer;
-
-        while(count > 1) {
-            treeLayer = new ArrayList<>();
-            for(int i = 1; i < previousTreeLayer.size(); i++) {
-                try {
-                    treeLayer.add(StringUtil.applySha256(previousTreeLayer.get(i - 1) + previousTreeLayer.get(i)));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                count = treeLayer.size();
-                previousTreeLayer = treeLayer;
-            }
-        }
-
-        String merkleRoot = (treeLayer.size() == 1) ? treeLayer.get(0) : "";
-
-        return merkleRoot;
+        return new MerkleTree(transactionIds).getRootHex();
     }
 }
@@ -0,0 +1,209 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BlockCodecTest {
+
+    /**
+     * 生成一条链：创世块包含初始交易，之后每个块包含一笔带找零的转账
+     */
+    private List<Block> createBlocks(int count) throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet coinBase = new Wallet();
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        List<Block> blocks = new ArrayList<>();
+
+        Transaction genesisTransaction = ZJChain.createGenesisTransaction(coinBase, walletA.publicKey, Amount.coins(1000));
+        Block genesis = new Block("0");
+        genesis.transactions.add(genesisTransaction);
+        genesis.merkleRoot = "";
+        blocks.add(genesis);
+
+        TransactionOutput coin = genesisTransaction.outputs.get(0);
+        for(int i = 1; i < count; i++) {
+            ArrayList<TransactionInput> inputs = new ArrayList<>();
+            TransactionInput input = new TransactionInput(coin.id);
+            input.UTXO = coin;
+            inputs.add(input);
+            Transaction transaction = new Transaction(walletA.publicKey, walletB.publicKey, Amount.coins(1), inputs);
+            transaction.generateSignature(walletA.privateKey);
+            transaction.transactionId = utils.StringUtil.applySha256("tx" + i);
+            transaction.outputs.add(new TransactionOutput(walletB.publicKey, Amount.coins(1), transaction.transactionId));
+            transaction.outputs.add(new TransactionOutput(walletA.publicKey, coin.value - Amount.coins(1), transaction.transactionId));
+            coin = transaction.outputs.get(1);
+
+            Block block = new Block(blocks.get(i - 1).hash);
+            block.transactions.add(transaction);
+            block.merkleRoot = utils.StringUtil.getMerkleRoot(block.transactions);
+            block.nonce = -i;
+            block.hash = block.calculateHash();
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private static void assertBlockEquals(Block expected, Block actual) throws Exception {
+        assertEquals(expected.hash, actual.hash);
+        assertEquals(expected.prevHash, actual.prevHash);
+        assertEquals(expected.merkleRoot, actual.merkleRoot);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.nonce, actual.nonce);
+        assertEquals(expected.calculateHash(), actual.calculateHash());
+        assertEquals(expected.transactions.size(), actual.transactions.size());
+        for(int t = 0; t < expected.transactions.size(); t++) {
+            Transaction a = expected.transactions.get(t);
+            Transaction b = actual.transactions.get(t);
+            assertEquals(a.transactionId, b.transactionId);
+            assertArrayEquals(a.sender.getEncoded(), b.sender.getEncoded());
+            assertArrayEquals(a.recipient.getEncoded(), b.recipient.getEncoded());
+            assertEquals(a.value, b.value);
+            assertArrayEquals(a.signature, b.signature);
+            assertTrue(b.verifySignature());
+            if(a.inputs == null) {
+                assertNull(b.inputs);
+            } else {
+                assertEquals(a.inputs.size(), b.inputs.size());
+                for(int i = 0; i < a.inputs.size(); i++) {
+                    assertEquals(a.inputs.get(i).transactionOutputId, b.inputs.get(i).transactionOutputId);
+                    assertEquals(a.inputs.get(i).UTXO.id, b.inputs.get(i).UTXO.id);
+                    assertEquals(a.inputs.get(i).UTXO.value, b.inputs.get(i).UTXO.value);
+                }
+            }
+            assertEquals(a.outputs.size(), b.outputs.size());
+            for(int o = 0; o < a.outputs.size(); o++) {
+                assertEquals(a.outputs.get(o).id, b.outputs.get(o).id);
+                assertEquals(a.outputs.get(o).value, b.outputs.get(o).value);
+                assertEquals(a.outputs.get(o).parentTransactionId, b.outputs.get(o).parentTransactionId);
+                assertArrayEquals(a.outputs.get(o).recipient.getEncoded(), b.outputs.get(o).recipient.getEncoded());
+            }
+        }
+    }
+
+    @Test
+    public void test1() throws Exception {
+        //逐个块流式编码再流式解码，结果与原区块一致
+        List<Block> blocks = createBlocks(20);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(Block block : blocks) {
+            BlockCodec.writeBlock(out, block);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        List<Block> decoded = new ArrayList<>();
+        for(Block block : blocks) {
+            Block actual = BlockCodec.readBlock(in);
+            assertBlockEquals(block, actual);
+            decoded.add(actual);
+        }
+        assertEquals(-1, in.read());
+        //同一个公钥解码后是同一个对象
+        assertSame(decoded.get(1).transactions.get(0).sender, decoded.get(2).transactions.get(0).sender);
+    }
+
+    @Test
+    public void test2() throws Exception {
+        //与toJson()比较编码大小与耗时
+        List<Block> blocks = createBlocks(200);
+        MemoryBlockStore store = new MemoryBlockStore();
+        for(Block block : blocks) {
+            store.add(block);
+        }
+        ZJChain zjChain = new ZJChain(new ChainContext(store));
+        int rounds = 20;
+        int jsonSize = 0;
+        long start = System.nanoTime();
+        for(int r = 0; r < rounds; r++) {
+            jsonSize = zjChain.toJson().getBytes(StandardCharsets.UTF_8).length;
+        }
+        long jsonNanos = System.nanoTime() - start;
+
+        int binarySize = 0;
+        start = System.nanoTime();
+        for(int r = 0; r < rounds; r++) {
+            binarySize = 0;
+            for(Block block : blocks) {
+                byte[] encoded = BlockCodec.encode(block);
+                binarySize += encoded.length;
+                BlockCodec.decode(encoded);
+            }
+        }
+        long binaryNanos = System.nanoTime() - start;
+
+        System.out.println("toJson：" + jsonSize + "字节，" + jsonNanos / rounds / 1000 + "us（仅编码）");
+        System.out.println("BlockCodec：" + binarySize + "字节，" + binaryNanos / rounds / 1000 + "us（编码+解码）");
+        assertTrue(binarySize * 3 < jsonSize);
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //伪造的超大数量与长度在分配内存之前被拒绝，或只读到数据末尾就失败
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(BlockCodec.VERSION);
+        out.write(new byte[]{0, 0, 0});
+        BlockCodec.writeVarLong(out, 0);
+        BlockCodec.writeVarLong(out, 0);
+        BlockCodec.writeVarLong(out, Integer.MAX_VALUE);
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> BlockCodec.decode(bytes.toByteArray()));
+        assertTrue(e.getCause() instanceof EOFException);
+
+        //签名长度超过上限
+        bytes.reset();
+        out.writeByte(BlockCodec.VERSION);
+        out.write(new byte[]{0, 0, 0});
+        BlockCodec.writeVarLong(out, 0);
+        BlockCodec.writeVarLong(out, Integer.MAX_VALUE);
+        byte[] forged = bytes.toByteArray();
+        e = assertThrows(UncheckedIOException.class, () -> BlockCodec.decodeTransaction(forged, 0, forged.length));
+        assertTrue(e.getCause().getMessage().contains("上限"));
+
+        //输入数量远大于实际数据
+        bytes.reset();
+        out.writeByte(BlockCodec.VERSION);
+        out.write(new byte[]{0, 0, 0});
+        BlockCodec.writeVarLong(out, 0);
+        BlockCodec.writeVarLong(out, 0);
+        BlockCodec.writeVarLong(out, Integer.MAX_VALUE);
+        byte[] inputs = bytes.toByteArray();
+        e = assertThrows(UncheckedIOException.class, () -> BlockCodec.decodeTransaction(inputs, 0, inputs.length));
+        assertTrue(e.getCause() instanceof EOFException);
+
+        //只读取hash时字符串长度超过剩余数据
+        bytes.reset();
+        out.writeByte(BlockCodec.VERSION);
+        out.writeByte(2);
+        BlockCodec.writeVarLong(out, Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> BlockCodec.decodeHash(ByteBuffer.wrap(bytes.toByteArray())));
+
+        //长度字段是一串没有结束的0x80、数据被截断或编码版本不支持时，都抛出IllegalArgumentException
+        byte[] endless = new byte[64];
+        Arrays.fill(endless, (byte) 0x80);
+        endless[0] = BlockCodec.VERSION;
+        endless[1] = 2;
+        assertThrows(IllegalArgumentException.class, () -> BlockCodec.decodeHash(ByteBuffer.wrap(endless)));
+        assertThrows(IllegalArgumentException.class, () -> BlockCodec.decodeHash(ByteBuffer.wrap(endless, 0, 4)));
+        assertThrows(IllegalArgumentException.class, () -> BlockCodec.decodeHash(ByteBuffer.wrap(new byte[]{BlockCodec.VERSION, 1, 0})));
+        assertThrows(IllegalArgumentException.class, () -> BlockCodec.decodeHash(ByteBuffer.wrap(new byte[]{0x7F, 1})));
+    }
+}
@@ -0,0 +1,74 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BlockProducerTest {
+
+    @Test
+    public void test1() throws Exception {
+        //交易持续提交到交易池，流水线边组装边挖矿，最终所有交易被打包且区块链有效
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        ZJChain zjChain = new ZJChain();
+        zjChain.setDifficulty(2);
+        ChainContext context = zjChain.getContext();
+        Mempool mempool = new Mempool(context, 1000, 2, Mempool.BY_INPUTS_VALUE);
+        BlockProducer producer = new BlockProducer(context, mempool, new SerialMiner(), 4);
+        try {
+            Wallet walletA = new Wallet();
+            Wallet walletB = new Wallet();
+            Block genesis = zjChain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(100));
+
+            //按原来的方式打包第一个区块：walletB得到10个互不相关的UTXO
+            Block block1 = new Block(genesis.hash);
+            for(int i = 0; i < 10; i++) {
+                assertTrue(block1.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(1)), context));
+            }
+            zjChain.addBlock(block1);
+
+            producer.start();
+            List<TransactionOutput> coins = new ArrayList<>(context.UTXOs.getOutputs(walletB.publicKey));
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for(TransactionOutput coin : coins) {
+                ArrayList<TransactionInput> inputs = new ArrayList<>();
+                inputs.add(new TransactionInput(coin.id));
+                Transaction transaction = new Transaction(walletB.publicKey, walletA.publicKey, Amount.coins(1), inputs);
+                transaction.generateSignature(walletB.privateKey);
+                results.add(mempool.submit(transaction));
+            }
+            for(CompletableFuture<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+
+            //每块最多4笔交易，10笔交易至少需要3个区块
+            assertTrue(producer.awaitBlocks(3, 60, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 60000;
+            while(mempool.size() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            producer.stop();
+
+            assertEquals(0, mempool.size());
+            int packed = 0;
+            for(int i = 2; i < context.blockChain.size(); i++) {
+                assertTrue(context.blockChain.get(i).transactions.size() <= 4);
+                packed += context.blockChain.get(i).transactions.size();
+            }
+            assertEquals(10, packed);
+            assertEquals(Amount.coins(100), walletA.getBalance(context));
+            assertEquals(Amount.coins(0), walletB.getBalance(context));
+            assertTrue(zjChain.isChainValid());
+        } finally {
+            producer.stop();
+            mempool.shutdown();
+        }
+    }
+}
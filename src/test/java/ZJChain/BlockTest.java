@@ -1,6 +1,11 @@
 package ZJChain;
 
 import org.junit.jupiter.api.Test;
+import utils.HashUtil;
+import utils.StringUtil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BlockTest {
 
@@ -13,4 +18,38 @@ public class BlockTest {
         System.out.println("2: " + "hash: " + block2.hash + " prevHash: " + block2.prevHash);
         System.out.println("3: " + "hash: " + block3.hash + " prevHash: " + block3.prevHash);
     }
+
+    @Test
+    public void test2() throws Exception {
+        //多线程挖矿的结果应与块本身重新计算的hash一致
+        ParallelMiner miner = new ParallelMiner(4);
+        Block block = new Block("0");
+        MiningResult result = block.mineBlock(4, miner);
+        miner.shutdown();
+        System.out.println(result);
+        assertEquals(block.calculateHash(), block.hash);
+        assertTrue(block.hash.startsWith("0000"));
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //字节路径计算的hash与原先拼接字符串计算的hash一致
+        Block block = new Block("0");
+        block.merkleRoot = StringUtil.applySha256("merkleRoot");
+        block.prevHash = StringUtil.applySha256("prevHash");
+        int[] nonces = {0, 1, 9, 10, -1, 123456789, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for(BlockHeader.HashMode mode : BlockHeader.HashMode.values()) {
+            //同一个计算器连续计算多个nonce，验证缓冲区复用不会互相影响
+            BlockHeader.Hasher hasher = new BlockHeader(block).newHasher(mode);
+            for(int nonce : nonces) {
+                String expected = StringUtil.applySha256(block.prevHash + block.merkleRoot + block.timestamp + nonce);
+                byte[] hash = hasher.hash(nonce);
+                assertEquals(expected, HashUtil.toHex(hash));
+                for(int difficulty = 0; difficulty <= 4; difficulty++) {
+                    boolean expectedMatch = expected.substring(0, difficulty).equals(new String(new char[difficulty]).replace('\0', '0'));
+                    assertEquals(expectedMatch, HashUtil.hasLeadingZeroNibbles(hash, difficulty));
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,245 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.security.Security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BlockTreeTest {
+
+    @TempDir
+    File directory;
+
+    /**
+     * 只有创世块的链，初始交易给walletA 100个币
+     */
+    private static ZJChain createChain(Wallet walletA) {
+        return createChain(walletA, new ZJChain());
+    }
+
+    private static ZJChain createChain(Wallet walletA, ZJChain zjChain) {
+        zjChain.setDifficulty(1);
+        zjChain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(100));
+        return zjChain;
+    }
+
+    /**
+     * 按当前主链的UTXO准备一笔交易（不修改UTXO集合）
+     */
+    private static Transaction transfer(ChainContext context, Wallet from, Wallet to, long coins) {
+        Transaction transaction = from.sendFunds(context, to.publicKey, Amount.coins(coins));
+        assertTrue(transaction.prepare(context));
+        return transaction;
+    }
+
+    private static Block mine(Block prev, Transaction... transactions) {
+        Block block = new Block(prev.hash);
+        for(Transaction transaction : transactions) {
+            block.transactions.add(transaction);
+        }
+        block.mineBlock(1);
+        return block;
+    }
+
+    @Test
+    public void test1() {
+        //工作量更大的分支到达时切换主链，只撤销分叉点之后的块；也可以手动切换回原来的分支
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        Wallet walletC = new Wallet();
+        ZJChain zjChain = createChain(walletA);
+        ChainContext context = zjChain.getContext();
+        BlockTree tree = zjChain.getBlockTree();
+        Block genesis = context.getTip();
+
+        Block a1 = mine(genesis, transfer(context, walletA, walletB, 10));
+        Block c1 = mine(genesis, transfer(context, walletA, walletC, 20));
+        assertEquals(BlockTree.Status.CONNECTED, zjChain.submitBlock(a1));
+        assertEquals(BlockTree.Status.SIDE_CHAIN, zjChain.submitBlock(c1));
+        Block a2 = mine(a1, transfer(context, walletA, walletB, 1));
+        assertEquals(BlockTree.Status.CONNECTED, zjChain.submitBlock(a2));
+        assertEquals(BlockTree.Status.DUPLICATE, zjChain.submitBlock(a2));
+        assertEquals(BlockTree.Status.ORPHAN, zjChain.submitBlock(mine(new Block("missing"))));
+        assertEquals(Amount.coins(11), walletB.getBalance(context));
+        assertNotNull(tree.getUndo(a2.hash));
+
+        Block c2 = mine(c1);
+        assertEquals(BlockTree.Status.SIDE_CHAIN, zjChain.submitBlock(c2));
+        Block c3 = mine(c2);
+        assertEquals(BlockTree.Status.REORGANIZED, zjChain.submitBlock(c3));
+        assertEquals(4, context.blockChain.size());
+        assertEquals(c3.hash, context.getTip().hash);
+        assertEquals(1, context.blockChain.getHeight(c1.hash));
+        assertEquals(-1, context.blockChain.getHeight(a1.hash));
+        assertEquals(0, walletB.getBalance(context));
+        assertEquals(Amount.coins(20), walletC.getBalance(context));
+        assertEquals(Amount.coins(80), walletA.getBalance(context));
+        assertEquals(Amount.coins(100), context.UTXOs.getLedger().getTotal());
+        assertNull(context.index.getTransaction(a1.transactions.get(0).transactionId));
+        assertNotNull(context.index.getTransaction(c1.transactions.get(0).transactionId));
+        assertNull(tree.getUndo(a2.hash));
+        assertEquals(1, tree.getReorganizations());
+        assertEquals(2, tree.getMaxReorganizationDepth());
+        assertTrue(tree.getWork(c3.hash) > tree.getWork(a2.hash));
+        assertTrue(zjChain.isChainValid());
+
+        assertTrue(tree.switchTo(a2.hash));
+        assertEquals(3, context.blockChain.size());
+        assertEquals(Amount.coins(11), walletB.getBalance(context));
+        assertEquals(0, walletC.getBalance(context));
+        assertTrue(context.index.getHistory(Address.of(walletC.publicKey)).isEmpty());
+        assertTrue(zjChain.isChainValid());
+
+        //ZJChain.addBlock追加的块在下一次操作时加入树中
+        Block a3 = new Block(a2.hash);
+        assertTrue(a3.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(1)), context));
+        zjChain.addBlock(a3);
+        assertEquals(a3.hash, tree.getTip().hash);
+        assertEquals(7, tree.size());
+    }
+
+    @Test
+    public void test2() {
+        //新分支中有花费已花费输出的块时，恢复原来的主链，该块及其后代都被拒绝
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        Wallet walletD = new Wallet();
+        ZJChain zjChain = createChain(walletA);
+        ChainContext context = zjChain.getContext();
+        Block genesis = context.getTip();
+
+        Transaction spend = transfer(context, walletA, walletD, 30);
+        Block d1 = mine(genesis, spend);
+        Block a1 = mine(genesis, transfer(context, walletA, walletB, 10));
+        assertEquals(BlockTree.Status.CONNECTED, zjChain.submitBlock(a1));
+        Block a2 = mine(a1, transfer(context, walletA, walletB, 10));
+        assertEquals(BlockTree.Status.CONNECTED, zjChain.submitBlock(a2));
+
+        Block d2 = mine(d1);
+        Block d3 = mine(d2, spend);
+        Block d4 = mine(d3);
+        assertEquals(BlockTree.Status.SIDE_CHAIN, zjChain.submitBlock(d1));
+        assertEquals(BlockTree.Status.SIDE_CHAIN, zjChain.submitBlock(d2));
+        assertEquals(BlockTree.Status.INVALID, zjChain.submitBlock(d3));
+        assertEquals(BlockTree.Status.INVALID, zjChain.submitBlock(d4));
+
+        //只有区块头无效（挖矿目标未满足）的块直接被拒绝
+        Block bad = mine(a2);
+        bad.nonce++;
+        assertEquals(BlockTree.Status.INVALID, zjChain.submitBlock(bad));
+
+        assertEquals(a2.hash, context.getTip().hash);
+        assertEquals(Amount.coins(20), walletB.getBalance(context));
+        assertEquals(0, walletD.getBalance(context));
+        assertEquals(Amount.coins(100), context.UTXOs.getLedger().getTotal());
+        assertFalse(zjChain.getBlockTree().switchTo(d3.hash));
+        assertTrue(zjChain.getBlockTree().switchTo(d2.hash));
+        assertEquals(Amount.coins(30), walletD.getBalance(context));
+        assertTrue(zjChain.isChainValid());
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //签名有效但交易输出被改发给第三方的交易，区块树与校验器都拒绝
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        Wallet walletC = new Wallet();
+        ZJChain zjChain = createChain(walletA);
+        ChainContext context = zjChain.getContext();
+        Block genesis = context.getTip();
+
+        Transaction redirected = transfer(context, walletA, walletB, 10);
+        redirected.outputs.set(0, new TransactionOutput(walletC.publicKey,
+                redirected.value, redirected.transactionId));
+        assertTrue(redirected.verifySignature());
+        Block block = mine(genesis, redirected);
+        assertEquals(BlockTree.Status.INVALID, zjChain.submitBlock(block));
+        assertEquals(genesis.hash, context.getTip().hash);
+        assertEquals(0, walletC.getBalance(context));
+        assertEquals(Amount.coins(100), walletA.getBalance(context));
+
+        zjChain.addBlock(block);
+        assertFalse(zjChain.isChainValid());
+    }
+
+    @Test
+    public void test4() throws Exception {
+        //主链上的块从映射文件存储中读取，切换分支时移出存储的块保存在树中，之后还能切换回来
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        Wallet walletC = new Wallet();
+        MappedBlockStore store = new MappedBlockStore(directory, 4096, false);
+        try {
+            ZJChain zjChain = createChain(walletA, new ZJChain(new ChainContext(store)));
+            ChainContext context = zjChain.getContext();
+            BlockTree tree = zjChain.getBlockTree();
+            Block genesis = context.getTip();
+
+            Block a1 = mine(genesis, transfer(context, walletA, walletB, 10));
+            Block c1 = mine(genesis, transfer(context, walletA, walletC, 20));
+            assertEquals(BlockTree.Status.CONNECTED, zjChain.submitBlock(a1));
+            Block a2 = mine(a1, transfer(context, walletA, walletB, 5));
+            assertEquals(BlockTree.Status.CONNECTED, zjChain.submitBlock(a2));
+            assertEquals(1, tree.getUndo(a2.hash).getSpent().size());
+            assertEquals(BlockTree.Status.SIDE_CHAIN, zjChain.submitBlock(c1));
+            Block c2 = mine(c1);
+            assertEquals(BlockTree.Status.SIDE_CHAIN, zjChain.submitBlock(c2));
+            assertEquals(BlockTree.Status.REORGANIZED, zjChain.submitBlock(mine(c2)));
+            assertEquals(0, walletB.getBalance(context));
+            assertEquals(Amount.coins(20), walletC.getBalance(context));
+            assertNull(tree.getUndo(a2.hash));
+            assertTrue(zjChain.isChainValid());
+
+            assertTrue(tree.switchTo(a2.hash));
+            assertEquals(a2.hash, tree.getTip().hash);
+            assertEquals(3, store.size());
+            assertEquals(Amount.coins(15), walletB.getBalance(context));
+            assertEquals(0, walletC.getBalance(context));
+            assertEquals(Amount.coins(100), context.UTXOs.getLedger().getTotal());
+            assertTrue(zjChain.isChainValid());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void test5() {
+        //同一块中连续转账花费上一笔的找零，撤销该块后不会留下已花费的找零，总额不变
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        ZJChain zjChain = createChain(walletA);
+        ChainContext context = zjChain.getContext();
+        Block genesis = context.getTip();
+
+        Block a1 = new Block(genesis.hash);
+        assertTrue(a1.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(10)), context));
+        assertTrue(a1.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(10)), context));
+        zjChain.addBlock(a1);
+        assertEquals(Amount.coins(80), walletA.getBalance(context));
+
+        Block c1 = mine(genesis);
+        assertEquals(BlockTree.Status.SIDE_CHAIN, zjChain.submitBlock(c1));
+        assertEquals(BlockTree.Status.REORGANIZED, zjChain.submitBlock(mine(c1)));
+        assertEquals(Amount.coins(100), context.UTXOs.getLedger().getTotal());
+        assertEquals(Amount.coins(100), walletA.getBalance(context));
+        assertEquals(0, walletB.getBalance(context));
+        assertEquals(1, context.UTXOs.size());
+
+        assertTrue(zjChain.getBlockTree().switchTo(a1.hash));
+        assertEquals(Amount.coins(80), walletA.getBalance(context));
+        assertEquals(Amount.coins(20), walletB.getBalance(context));
+        assertEquals(Amount.coins(100), context.UTXOs.getLedger().getTotal());
+    }
+}
@@ -0,0 +1,145 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+import utils.HashUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.Security;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChainIndexTest {
+
+    /**
+     * 初始交易给walletA 100个币，之后每块walletA向walletB转账1个币
+     */
+    private static ZJChain buildChain(Wallet walletA, Wallet walletB, int count) {
+        ZJChain zjChain = new ZJChain();
+        zjChain.setDifficulty(1);
+        zjChain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(100));
+        for(int i = 0; i < count; i++) {
+            addTransfer(zjChain, walletA, walletB);
+        }
+        return zjChain;
+    }
+
+    private static void addTransfer(ZJChain zjChain, Wallet from, Wallet to) {
+        ChainContext context = zjChain.getContext();
+        Block next = new Block(context.getTip().hash);
+        assertTrue(next.addTransaction(from.sendFunds(context, to.publicKey, Amount.coins(1)), context));
+        zjChain.addBlock(next);
+    }
+
+    @Test
+    public void test1() throws Exception {
+        //二进制键与非16进制键都能查找，扩容、写出读入与删除后保持不变
+        HashIndex index = new HashIndex();
+        for(int i = 0; i < 5000; i++) {
+            assertEquals(-1, index.put(HashUtil.toHex(HashUtil.sha256(("k" + i).getBytes(StandardCharsets.UTF_8))), i));
+        }
+        assertEquals(-1, index.put("0", 7));
+        assertEquals(7, index.put("0", 8));
+        assertEquals(5001, index.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        HashIndex copy = HashIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for(HashIndex current : new HashIndex[]{index, copy}) {
+            for(int i = 0; i < 5000; i++) {
+                assertEquals(i, current.get(HashUtil.toHex(HashUtil.sha256(("k" + i).getBytes(StandardCharsets.UTF_8)))));
+            }
+            assertEquals(8, current.get("0"));
+            assertEquals(-1, current.get("missing"));
+            assertEquals(-1, current.get(HashUtil.toHex(HashUtil.sha256(new byte[0]))));
+        }
+        //删除后其余的键仍能找到
+        for(int i = 0; i < 5000; i += 2) {
+            assertEquals(i, index.remove(HashUtil.toHex(HashUtil.sha256(("k" + i).getBytes(StandardCharsets.UTF_8)))));
+        }
+        assertEquals(8, index.remove("0"));
+        assertEquals(2500, index.size());
+        for(int i = 0; i < 5000; i++) {
+            assertEquals(i % 2 == 0 ? -1 : i, index.get(HashUtil.toHex(HashUtil.sha256(("k" + i).getBytes(StandardCharsets.UTF_8)))));
+        }
+    }
+
+    @Test
+    public void test2() {
+        //按交易id、父交易与地址查询，不需要遍历区块链
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        ZJChain zjChain = buildChain(walletA, walletB, 5);
+        ChainContext context = zjChain.getContext();
+        ChainIndex index = context.index;
+        assertEquals(6, index.getIndexedHeight());
+
+        Block block3 = context.blockChain.get(3);
+        assertEquals(3, index.getHeight(block3.hash));
+        Transaction transaction = block3.transactions.get(0);
+        ChainIndex.Location location = index.getLocation(transaction.transactionId);
+        assertEquals(3, location.height);
+        assertEquals(0, location.position);
+        assertSame(transaction, index.getTransaction(transaction.transactionId));
+        assertSame(context.genesisTransaction, index.getTransaction("0"));
+        assertSame(context.blockChain.get(2).transactions.get(0), index.getParentTransaction(transaction.inputs.get(0).UTXO));
+        assertNull(index.getTransaction("missing"));
+
+        List<ChainIndex.HistoryEntry> historyB = index.getHistory(Address.of(walletB.publicKey));
+        assertEquals(5, historyB.size());
+        for(int i = 0; i < 5; i++) {
+            assertEquals(i + 1, historyB.get(i).height);
+            assertEquals(0, historyB.get(i).index);
+            assertFalse(historyB.get(i).spend);
+        }
+        //walletA：初始交易的输出，之后每块花费一次并收到一次找零
+        List<ChainIndex.HistoryEntry> historyA = index.getHistory(Address.of(walletA.publicKey));
+        assertEquals(11, historyA.size());
+        assertEquals(0, historyA.get(0).height);
+        assertTrue(historyA.get(1).spend);
+        assertEquals(1, historyA.get(2).index);
+        assertFalse(historyA.get(2).spend);
+        assertTrue(index.getHistory(Address.of(new Wallet().publicKey)).isEmpty());
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //保存后恢复只需索引新增的块；与区块链不一致的索引文件被丢弃并重建
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        ZJChain zjChain = buildChain(walletA, walletB, 3);
+        ChainContext context = zjChain.getContext();
+        File file = Files.createTempFile("chain-index", ".dat").toFile();
+        try {
+            context.index.save(file);
+            ChainIndex loaded = ChainIndex.load(file, context.blockChain);
+            assertEquals(4, loaded.getIndexedHeight());
+            addTransfer(zjChain, walletA, walletB);
+            assertEquals(1, loaded.sync());
+            Transaction last = context.getTip().transactions.get(0);
+            assertSame(last, loaded.getTransaction(last.transactionId));
+            assertEquals(context.index.getHistory(Address.of(walletA.publicKey)).size(),
+                    loaded.getHistory(Address.of(walletA.publicKey)).size());
+
+            ZJChain other = buildChain(walletA, walletB, 4);
+            ChainIndex stale = ChainIndex.load(file, other.getContext().blockChain);
+            assertEquals(0, stale.getIndexedHeight());
+            assertEquals(5, stale.sync());
+            Transaction otherLast = other.getContext().getTip().transactions.get(0);
+            assertSame(otherLast, stale.getTransaction(otherLast.transactionId));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChainStreamTest {
+
+    @TempDir
+    File directory;
+
+    /**
+     * 生成一条链：创世块包含初始交易，之后每个块包含一笔带找零的转账
+     */
+    private List<Block> createBlocks(int count) throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet coinBase = new Wallet();
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        List<Block> blocks = new ArrayList<>();
+
+        Transaction genesisTransaction = ZJChain.createGenesisTransaction(coinBase, walletA.publicKey, Amount.coins(1000));
+        Block genesis = new Block("0");
+        genesis.transactions.add(genesisTransaction);
+        genesis.hash = genesis.calculateHash(0);
+        blocks.add(genesis);
+
+        TransactionOutput coin = genesisTransaction.outputs.get(0);
+        for(int i = 1; i < count; i++) {
+            ArrayList<TransactionInput> inputs = new ArrayList<>();
+            TransactionInput input = new TransactionInput(coin.id);
+            input.UTXO = coin;
+            inputs.add(input);
+            Transaction transaction = new Transaction(walletA.publicKey, walletB.publicKey, Amount.coins(1), inputs);
+            transaction.generateSignature(walletA.privateKey);
+            transaction.transactionId = utils.StringUtil.applySha256("tx" + i);
+            transaction.outputs.add(new TransactionOutput(walletB.publicKey, Amount.coins(1), transaction.transactionId));
+            transaction.outputs.add(new TransactionOutput(walletA.publicKey, coin.value - Amount.coins(1), transaction.transactionId));
+            coin = transaction.outputs.get(1);
+
+            Block block = new Block(blocks.get(i - 1).hash);
+            block.transactions.add(transaction);
+            block.merkleRoot = utils.StringUtil.getMerkleRoot(block.transactions);
+            block.hash = block.calculateHash(0);
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    @Test
+    public void test1() throws Exception {
+        //经由文件通道导出，再逐块导入到MappedBlockStore，导入过程中完成校验
+        List<Block> blocks = createBlocks(150);
+        File file = new File(directory, "chain.dat");
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            assertEquals(blocks.size(), ChainStream.export(blocks, channel));
+        }
+
+        ChainValidator validator = new ChainValidator();
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            MappedBlockStore store = new MappedBlockStore(new File(directory, "store"), 1 << 16, false)) {
+            assertEquals(blocks.size(), ChainStream.importChain(channel, store, validator, 0));
+            assertEquals(blocks.size(), store.size());
+            for(int i = 0; i < blocks.size(); i++) {
+                assertEquals(blocks.get(i).hash, store.get(i).hash);
+            }
+            assertEquals(blocks.size() - 1, validator.getValidatedHeight());
+            //初始交易的输出全部被花掉，剩下每笔转账给B的1个和最后一次找零
+            assertEquals(blocks.size(), validator.getUTXOs().size());
+
+            //再次导出的内容与第一次完全相同
+            ByteArrayOutputStream again = new ByteArrayOutputStream();
+            ChainStream.export(store, again);
+            assertTrue(Arrays.equals(Files.readAllBytes(file.toPath()), again.toByteArray()));
+        }
+    }
+
+    @Test
+    public void test2() throws Exception {
+        //篡改一笔交易后导入：之前的块保留，之后的块不会被导入；截断的流被拒绝
+        List<Block> blocks = createBlocks(150);
+        blocks.get(100).transactions.get(0).value = Amount.coins(500);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ChainStream.export(blocks, bytes);
+
+        MemoryBlockStore store = new MemoryBlockStore();
+        assertThrows(IOException.class, () -> ChainStream.importChain(
+                new ByteArrayInputStream(bytes.toByteArray()), store, new ChainValidator(), 0));
+        assertEquals(64, store.size());
+
+        blocks.get(100).transactions.get(0).value = Amount.coins(1);
+        bytes.reset();
+        ChainStream.export(blocks, bytes);
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 100);
+        assertThrows(IOException.class, () -> ChainStream.importChain(
+                new ByteArrayInputStream(truncated), new MemoryBlockStore(), new ChainValidator(), 0));
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //通过ZJChain导出再导入，导入后UTXO与余额被重建
+        List<Block> blocks = createBlocks(10);
+        ZJChain source = new ZJChain();
+        source.getContext().blockChain.addAll(blocks);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals(10, source.exportChain(bytes));
+
+        ZJChain zjChain = new ZJChain();
+        zjChain.setDifficulty(0);
+        ChainContext context = zjChain.getContext();
+        assertEquals(10, zjChain.importChain(new ByteArrayInputStream(bytes.toByteArray())));
+        PublicKey walletB = context.blockChain.get(1).transactions.get(0).recipient;
+        assertEquals(Amount.coins(9), context.UTXOs.getBalance(walletB));
+        assertTrue(zjChain.isChainValid());
+    }
+
+    @Test
+    public void test4() throws Exception {
+        //CRC正确但区块编码无效时抛出IOException；通道也可以按难度规则导入
+        List<Block> blocks = createBlocks(5);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ChainStream.export(blocks, bytes);
+        assertEquals(5, ChainStream.importChain(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+                new MemoryBlockStore(), new ChainValidator(), DifficultyEngine.fixed(Target.ofNibbles(0))));
+
+        //第一条记录：[int magic][int 版本][int 长度][int CRC32][区块编码]
+        for(int variant = 0; variant < 2; variant++) {
+            byte[] corrupted = bytes.toByteArray();
+            ByteBuffer buffer = ByteBuffer.wrap(corrupted);
+            int length = buffer.getInt(8);
+            if(variant == 0) {
+                //其它编码版本
+                corrupted[16] = 0x7F;
+            } else {
+                //版本与hash之后的内容无效
+                Arrays.fill(corrupted, 16 + 40, 16 + length, (byte) 0x7F);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(corrupted, 16, length);
+            buffer.putInt(12, (int) crc.getValue());
+            IOException e = assertThrows(IOException.class, () -> ChainStream.importChain(
+                    new ByteArrayInputStream(corrupted), new MemoryBlockStore(), new ChainValidator(), 0));
+            assertTrue(e.getMessage().contains("第0个块"), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+import utils.HashUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DifficultyEngineTest {
+
+    /**
+     * 按难度规则逐块挖出一条空块组成的链，第i块的时间戳为 i * spacing
+     */
+    private static List<Block> buildChain(DifficultyEngine engine, int size, long spacing) {
+        List<Block> chain = new ArrayList<>();
+        String prevHash = "0";
+        for(int i = 0; i < size; i++) {
+            Block block = new Block(prevHash);
+            block.timestamp = i * spacing;
+            block.mineBlock(engine.getNextTarget(chain), new SerialMiner());
+            chain.add(block);
+            prevHash = block.hash;
+        }
+        return chain;
+    }
+
+    @Test
+    public void test1() {
+        //按16进制位的目标与原来的难度检查一致，按比特的目标粒度更细
+        for(int i = 0; i < 2000; i++) {
+            byte[] hash = HashUtil.sha256(String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+            for(int difficulty = 0; difficulty <= 3; difficulty++) {
+                assertEquals(HashUtil.hasLeadingZeroNibbles(hash, difficulty), Target.ofNibbles(difficulty).isMetBy(hash));
+            }
+            assertEquals(Target.ofZeroBits(5).isMetBy(hash), Target.ofZeroBits(5).isMetBy(HashUtil.toHex(hash)));
+        }
+        assertTrue(Target.ofZeroBits(5).isHarderThan(Target.ofNibbles(1)));
+        assertTrue(Target.ofNibbles(2).isHarderThan(Target.ofZeroBits(5)));
+        assertEquals(8.0, Target.ofNibbles(2).getZeroBits(), 1e-9);
+        assertFalse(Target.MAX.isMetBy("not a hash"));
+
+        //调整在精确的整数上进行，并限制在limit以内
+        assertEquals(Target.ofZeroBits(10), Target.ofZeroBits(8).scale(1, 4, Target.MAX));
+        assertEquals(Target.ofZeroBits(4), Target.ofZeroBits(8).scale(1000, 1, Target.ofZeroBits(4)));
+    }
+
+    @Test
+    public void test2() {
+        //出块比期望快4倍，调整后的目标难4倍；校验器按高度检查目标
+        DifficultyEngine engine = new DifficultyEngine(Target.ofZeroBits(4), 1000, 4);
+        List<Block> chain = buildChain(engine, 8, 250);
+        Target[] targets = engine.getTargets(chain, 1, 9);
+        for(int height = 1; height < 4; height++) {
+            assertEquals(Target.ofZeroBits(4), targets[height - 1]);
+        }
+        //高度4使用区块0到3的时间戳：用时750ms，期望3000ms
+        assertEquals(Target.ofZeroBits(6), targets[3]);
+        assertEquals(Target.ofZeroBits(6), engine.getTarget(chain, 7));
+        //高度8使用区块3到7的时间戳，仍然是4倍
+        assertEquals(Target.ofZeroBits(8), engine.getNextTarget(chain));
+        assertTrue(new ChainValidator().validate(chain, null, engine));
+
+        //只满足初始目标、不满足调整后目标的块无效
+        Block easy = new Block(chain.get(7).hash);
+        easy.timestamp = 8 * 250;
+        do {
+            easy.timestamp++;
+            easy.mineBlock(Target.ofZeroBits(4), new SerialMiner());
+        } while(Target.ofZeroBits(8).isMetBy(easy.hash));
+        chain.add(easy);
+        assertFalse(new ChainValidator().validate(chain, null, engine));
+        //换成固定难度时同一条链有效，难度规则改变后检查点不能复用
+        ChainValidator validator = new ChainValidator();
+        assertTrue(validator.validate(chain, null, DifficultyEngine.fixed(Target.ofZeroBits(4))));
+        assertFalse(validator.validate(chain, null, engine));
+    }
+
+    @Test
+    public void test3() {
+        //慢于期望时目标变容易，但不超过limit；全网与本机算力可以估算
+        DifficultyEngine engine = new DifficultyEngine(Target.ofZeroBits(6), 100, 2, Target.ofZeroBits(3));
+        ZJChain zjChain = new ZJChain();
+        zjChain.setDifficultyEngine(engine);
+        ChainContext context = zjChain.getContext();
+        String prevHash = "0";
+        for(int i = 0; i < 6; i++) {
+            Block block = new Block(prevHash);
+            block.timestamp = i * 1000L;
+            zjChain.addBlock(block);
+            prevHash = block.hash;
+        }
+        //门限按整数缩放，与ofZeroBits(4)只差最低几位
+        assertEquals(4.0, engine.getTarget(context.blockChain, 2).getZeroBits(), 1e-6);
+        assertEquals(Target.ofZeroBits(3), context.getNextTarget());
+        assertTrue(zjChain.isChainValid());
+        System.out.println("全网算力：" + zjChain.getNetworkHashRate(4) + " 本机算力：" + zjChain.getLocalHashRate());
+        assertTrue(zjChain.getNetworkHashRate(4) > 0);
+        assertTrue(zjChain.getLocalHashRate() > 0);
+        assertEquals(0, new DifficultyEngine(Target.ofZeroBits(6), 100, 2).getNetworkHashRate(new ArrayList<>(), 4), 0);
+    }
+
+    @Test
+    public void test4() {
+        //时间戳不能早于前面区块的中位数，也不能远超本机时间；之后的目标从缓存的调整点继续计算
+        DifficultyEngine engine = new DifficultyEngine(Target.ofZeroBits(4), 1000, 4);
+        List<Block> chain = buildChain(engine, 20, 1000);
+        assertTrue(new ChainValidator().validate(chain, null, engine));
+
+        Block early = new Block(chain.get(19).hash);
+        early.timestamp = 13 * 1000L;
+        early.mineBlock(engine.getNextTarget(chain), new SerialMiner());
+        chain.add(early);
+        assertFalse(new ChainValidator().validate(chain, null, engine));
+        chain.remove(20);
+
+        Block future = new Block(chain.get(19).hash);
+        future.timestamp = System.currentTimeMillis() + ChainValidator.MAX_FUTURE_MILLIS + 60000;
+        future.mineBlock(engine.getNextTarget(chain), new SerialMiner());
+        chain.add(future);
+        assertFalse(new ChainValidator().validate(chain, null, engine));
+        chain.remove(20);
+
+        //与中位数相同的时间戳有效
+        Block median = new Block(chain.get(19).hash);
+        median.timestamp = 14 * 1000L;
+        median.mineBlock(engine.getNextTarget(chain), new SerialMiner());
+        chain.add(median);
+        assertTrue(new ChainValidator().validate(chain, null, engine));
+
+        int[] reads = new int[1];
+        List<Block> counting = new AbstractList<Block>() {
+            @Override
+            public Block get(int index) {
+                reads[0]++;
+                return chain.get(index);
+            }
+
+            @Override
+            public int size() {
+                return chain.size();
+            }
+        };
+        DifficultyEngine fresh = new DifficultyEngine(Target.ofZeroBits(4), 1000, 4);
+        Target next = fresh.getNextTarget(counting);
+        int firstReads = reads[0];
+        reads[0] = 0;
+        assertEquals(next, fresh.getNextTarget(counting));
+        //只读取缓存的调整点前一块，确认仍是同一条链
+        assertEquals(1, reads[0]);
+        assertTrue(firstReads > reads[0]);
+        assertEquals(engine.getTargets(chain, 1, 21)[19], fresh.getTargets(chain, 1, 21)[19]);
+    }
+
+    @Test
+    public void test5() {
+        //放宽后的门限超过2^63时仍然是更容易的目标，而不是被当成负数限制为最难的门限
+        assertEquals(Target.of(3L << 62), Target.of(1L << 62).scale(3, 1, Target.MAX));
+        assertEquals(Target.of((3L << 62) - 2), Target.ofZeroBits(1).scale(3, 2, Target.MAX));
+        assertEquals(Target.MAX, Target.ofZeroBits(1).scale(4, 1, Target.MAX));
+        assertEquals(Target.of(1), Target.of(1).scale(1, 4, Target.MAX));
+
+        //出块一直很慢，两次调整（各放宽4倍）后门限超过2^63，下一块仍然容易挖出
+        DifficultyEngine engine = new DifficultyEngine(Target.ofNibbles(1), 100, 2);
+        List<Block> chain = buildChain(engine, 4, 1000);
+        Target next = engine.getNextTarget(chain);
+        assertTrue(Target.ofNibbles(1).isHarderThan(next));
+        assertTrue(next.getZeroBits() < 1);
+    }
+}
@@ -0,0 +1,194 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.Security;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LocalClusterTest {
+
+    private static void awaitHeight(LocalCluster cluster, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        for(Node node : cluster.getNodes()) {
+            while(node.getBlockChain().size() < size && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * 等待条件成立，最多10秒
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void test1() throws Exception {
+        //区块与交易经过转发到达所有节点，每个节点的区块链相同，重复的消息被丢弃
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        try (LocalCluster cluster = new LocalCluster(6, 2)) {
+            LocalCluster.Propagation propagation = cluster.measureBlockPropagation(5);
+            System.out.println(propagation);
+            assertEquals(5, propagation.latencies.length);
+            LocalCluster.Throughput throughput = cluster.measureTransactionThroughput(300);
+            System.out.println(throughput);
+            assertTrue(throughput.getTransactionsPerSecond() > 0);
+
+            Node first = cluster.getNodes().get(0);
+            long duplicates = 0;
+            for(Node node : cluster.getNodes()) {
+                assertEquals(6, node.getBlockChain().size());
+                for(int i = 0; i < 6; i++) {
+                    assertEquals(first.getBlockChain().get(i).hash, node.getBlockChain().get(i).hash);
+                }
+                assertEquals(300, node.getTransactionCount());
+                assertEquals(0, node.getRejected());
+                duplicates += node.getDuplicates();
+            }
+            //有环的拓扑中一定会收到重复消息
+            assertTrue(duplicates > 0);
+        }
+    }
+
+    @Test
+    public void test2() throws Exception {
+        //后一块先到达时暂存，前一块到达后一起接到链尾；无效的区块不被接受也不被转发
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        try (LocalCluster cluster = new LocalCluster(3, 2)) {
+            Node origin = cluster.getNodes().get(0);
+            Block block1 = new Block(cluster.getGenesis().hash);
+            block1.mineBlock(2);
+            Block block2 = new Block(block1.hash);
+            block2.mineBlock(2);
+            origin.broadcast(block2);
+            assertTrue(origin.broadcast(block1));
+            assertFalse(origin.broadcast(block1));
+            awaitHeight(cluster, 3);
+            for(Node node : cluster.getNodes()) {
+                assertEquals(3, node.getBlockChain().size());
+                assertEquals(block2.hash, node.getBlockChain().get(2).hash);
+            }
+
+            Block invalid = new Block(block2.hash);
+            invalid.mineBlock(2);
+            invalid.nonce++;
+            origin.broadcast(invalid);
+            long deadline = System.currentTimeMillis() + 10000;
+            for(Node node : cluster.getNodes()) {
+                while(node != origin && node.getRejected() == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+            }
+            Block block3 = new Block(block2.hash);
+            block3.mineBlock(2);
+            cluster.getNodes().get(1).broadcast(block3);
+            awaitHeight(cluster, 4);
+            for(Node node : cluster.getNodes()) {
+                if(node != origin) {
+                    assertEquals(block3.hash, node.getBlockChain().get(3).hash);
+                    assertEquals(1, node.getRejected());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //声称真实区块hash的无效区块被拒绝后，真实区块仍能被接收；暂存的区块数有上限
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        try (LocalCluster cluster = new LocalCluster(3, 2)) {
+            Node origin = cluster.getNodes().get(0);
+            Block real = new Block(cluster.getGenesis().hash);
+            real.mineBlock(2);
+            Block forged = BlockCodec.decode(BlockCodec.encode(real));
+            forged.nonce++;
+            origin.broadcast(forged);
+            long deadline = System.currentTimeMillis() + 10000;
+            for(Node node : cluster.getNodes()) {
+                while(node != origin && node.getRejected() == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+            }
+            Node honest = cluster.getNodes().get(1);
+            Node other = cluster.getNodes().get(2);
+            honest.broadcast(real);
+            while(other.getBlockChain().size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(real.hash, honest.getBlockChain().get(1).hash);
+            assertEquals(real.hash, other.getBlockChain().get(1).hash);
+            assertEquals(1, other.getRejected());
+
+            //前一块永远不会到达的区块
+            for(int i = 0; i < Node.MAX_ORPHANS + 100; i++) {
+                Block orphan = new Block(utils.StringUtil.applySha256("missing" + i));
+                orphan.mineBlock(2);
+                honest.broadcast(orphan);
+            }
+            deadline = System.currentTimeMillis() + 20000;
+            while(other.getMessagesReceived() < Node.MAX_ORPHANS + 100 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(100);
+            assertEquals(Node.MAX_ORPHANS, honest.getOrphanCount());
+            assertEquals(Node.MAX_ORPHANS, other.getOrphanCount());
+        }
+    }
+
+    @Test
+    public void test4() throws Exception {
+        //重放另一笔有效交易并声称待处理交易的id，不能让真实交易被当作重复丢弃；签名无效的交易消息重复收到时不再验证
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        try (LocalCluster cluster = new LocalCluster(3, 2)) {
+            Node origin = cluster.getNodes().get(0);
+            Node honest = cluster.getNodes().get(1);
+            Node other = cluster.getNodes().get(2);
+            List<Transaction> received = new CopyOnWriteArrayList<>();
+            other.setListener(new Node.Listener() {
+                @Override
+                public void onTransaction(Node node, Transaction transaction) {
+                    received.add(transaction);
+                }
+            });
+            Wallet walletA = new Wallet();
+            Wallet walletB = new Wallet();
+            Transaction replayed = new Transaction(walletA.publicKey, walletB.publicKey, Amount.coins(1), null);
+            replayed.generateSignature(walletA.privateKey);
+            replayed.transactionId = "pending";
+            Transaction real = new Transaction(walletA.publicKey, walletB.publicKey, Amount.coins(5), null);
+            real.generateSignature(walletA.privateKey);
+            real.transactionId = "pending";
+
+            assertTrue(origin.broadcast(replayed));
+            await(() -> received.size() == 1);
+            assertTrue(honest.broadcast(real));
+            await(() -> received.size() == 2);
+            assertEquals(2, received.size());
+            assertEquals(Amount.coins(5), received.get(1).value);
+            assertEquals(Amount.coins(5), other.getTransaction("pending").value);
+            assertFalse(honest.broadcast(real));
+
+            Transaction forged = new Transaction(walletA.publicKey, walletB.publicKey, Amount.coins(7), null);
+            forged.signature = real.signature;
+            forged.transactionId = "forged";
+            origin.broadcast(forged);
+            await(() -> other.getRejected() == 1 && honest.getRejected() == 1);
+            long before = other.getMessagesReceived();
+            //honest也拒绝了这条消息，还可以再发一次
+            assertTrue(honest.broadcast(forged));
+            await(() -> other.getMessagesReceived() > before);
+            assertEquals(1, other.getRejected());
+            assertEquals(2, received.size());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedBlockStoreTest {
+
+    @TempDir
+    File directory;
+
+    /**
+     * 生成一条带交易的链（不挖矿，只用于存储测试）
+     */
+    private List<Block> createBlocks(int count) {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        List<Block> blocks = new ArrayList<>();
+        String prevHash = "0";
+        for(int i = 0; i < count; i++) {
+            Block block = new Block(prevHash);
+            Transaction transaction = new Transaction(walletA.publicKey, walletB.publicKey, i, new ArrayList<>());
+            transaction.generateSignature(walletA.privateKey);
+            transaction.transactionId = "tx" + i;
+            transaction.outputs.add(new TransactionOutput(walletB.publicKey, i, transaction.transactionId));
+            block.transactions.add(transaction);
+            block.hash = block.calculateHash(i);
+            block.nonce = i;
+            blocks.add(block);
+            prevHash = block.hash;
+        }
+        return blocks;
+    }
+
+    @Test
+    public void test1() throws Exception {
+        //写入后重新打开，按高度和hash读取的区块与写入的一致；段文件很小，会跨多个段
+        List<Block> blocks = createBlocks(50);
+        MappedBlockStore store = new MappedBlockStore(directory, 4096, false);
+        for(Block block : blocks) {
+            store.add(block);
+        }
+        store.close();
+        assertTrue(new File(directory, "segment-00001.dat").exists());
+
+        store = new MappedBlockStore(directory, 4096, false);
+        assertEquals(blocks.size(), store.size());
+        for(int i = 0; i < blocks.size(); i++) {
+            Block expected = blocks.get(i);
+            Block actual = store.get(i);
+            assertEquals(expected.hash, actual.hash);
+            assertEquals(expected.prevHash, actual.prevHash);
+            assertEquals(expected.timestamp, actual.timestamp);
+            assertEquals(expected.nonce, actual.nonce);
+            assertEquals(expected.calculateHash(), actual.calculateHash());
+            Transaction transaction = actual.transactions.get(0);
+            assertEquals(expected.transactions.get(0).transactionId, transaction.transactionId);
+            assertTrue(transaction.verifySignature());
+            assertEquals(i, store.getHeight(expected.hash));
+            assertEquals(expected.hash, store.getByHash(expected.hash).hash);
+        }
+        assertNull(store.getByHash("missing"));
+
+        //重新打开后可以继续追加
+        Block next = new Block(blocks.get(blocks.size() - 1).hash);
+        store.add(next);
+        assertEquals(blocks.size(), store.getHeight(next.hash));
+        store.close();
+    }
+
+    @Test
+    public void test2() throws Exception {
+        //最后一条记录损坏（写入一半）时，重新打开会丢弃它
+        List<Block> blocks = createBlocks(3);
+        MappedBlockStore store = new MappedBlockStore(directory, 1 << 16, true);
+        for(Block block : blocks) {
+            store.add(block);
+        }
+        store.close();
+
+        File segment = new File(directory, "segment-00000.dat");
+        try(RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            //破坏最后一条记录的CRC
+            long position = 8;
+            for(int i = 0; i < 2; i++) {
+                file.seek(position);
+                position += 8 + file.readInt();
+            }
+            file.seek(position + 4);
+            file.writeInt(0);
+        }
+
+        store = new MappedBlockStore(directory, 1 << 16, true);
+        assertEquals(2, store.size());
+        assertEquals(-1, store.getHeight(blocks.get(2).hash));
+        store.add(blocks.get(2));
+        assertEquals(3, store.size());
+        store.close();
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //截断后删除多余的段文件，重新打开只有保留的块，之后可以追加其它分支的块
+        List<Block> blocks = createBlocks(50);
+        MappedBlockStore store = new MappedBlockStore(directory, 4096, false);
+        for(Block block : blocks) {
+            store.add(block);
+        }
+        store.truncate(5);
+        assertEquals(5, store.size());
+        assertEquals(-1, store.getHeight(blocks.get(5).hash));
+        assertEquals(4, store.getHeight(blocks.get(4).hash));
+        assertTrue(!new File(directory, "segment-00001.dat").exists());
+        Block fork = new Block(blocks.get(4).hash);
+        store.add(fork);
+        store.close();
+
+        store = new MappedBlockStore(directory, 4096, false);
+        assertEquals(6, store.size());
+        assertEquals(5, store.getHeight(fork.hash));
+        assertEquals(fork.hash, store.get(5).hash);
+        store.truncate(0);
+        assertEquals(0, store.size());
+        store.add(blocks.get(0));
+        assertEquals(0, store.getHeight(blocks.get(0).hash));
+        store.close();
+    }
+
+    @Test
+    public void test4() throws Exception {
+        //截断后追加一个编码长度相同的块，重新打开时被截断的后续块不会重新出现
+        List<Block> blocks = createBlocks(8);
+        MappedBlockStore store = new MappedBlockStore(directory, 1 << 16, false);
+        for(Block block : blocks) {
+            store.add(block);
+        }
+        store.truncate(5);
+        Block replacement = BlockCodec.decode(BlockCodec.encode(blocks.get(5)));
+        replacement.hash = utils.StringUtil.applySha256("replacement");
+        assertEquals(BlockCodec.encode(blocks.get(5)).length, BlockCodec.encode(replacement).length);
+        store.add(replacement);
+        store.close();
+
+        store = new MappedBlockStore(directory, 1 << 16, false);
+        assertEquals(6, store.size());
+        assertEquals(replacement.hash, store.get(5).hash);
+        assertEquals(-1, store.getHeight(blocks.get(6).hash));
+        assertEquals(-1, store.getHeight(blocks.get(7).hash));
+        store.close();
+    }
+}
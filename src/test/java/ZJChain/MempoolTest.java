@@ -0,0 +1,158 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MempoolTest {
+
+    /**
+     * 创建一笔花费指定UTXO的交易
+     */
+    private static Transaction spend(Wallet from, Wallet to, TransactionOutput coin, long value) {
+        ArrayList<TransactionInput> inputs = new ArrayList<>();
+        inputs.add(new TransactionInput(coin.id));
+        Transaction transaction = new Transaction(from.publicKey, to.publicKey, value, inputs);
+        transaction.generateSignature(from.privateKey);
+        return transaction;
+    }
+
+    @Test
+    public void test1() throws Exception {
+        //多个线程并发提交，花费同一个UTXO的两笔交易只接收一笔；模板按输入总额排序，打包后UTXO被更新
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        ChainContext context = new ChainContext();
+        List<TransactionOutput> coins = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            TransactionOutput coin = new TransactionOutput(walletA.publicKey, Amount.coins(i + 1), "coin" + i);
+            context.UTXOs.put(coin.id, coin);
+            coins.add(coin);
+        }
+        Mempool mempool = new Mempool(context, 100, 4, Mempool.BY_INPUTS_VALUE);
+        try {
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for(TransactionOutput coin : coins) {
+                results.add(mempool.submit(spend(walletA, walletB, coin, Amount.coins(1))));
+                results.add(mempool.submit(spend(walletA, walletB, coin, coin.value)));
+            }
+            int accepted = 0;
+            for(CompletableFuture<Boolean> result : results) {
+                if(result.get()) {
+                    accepted++;
+                }
+            }
+            assertEquals(coins.size(), accepted);
+            assertEquals(coins.size(), mempool.size());
+            //交易池不修改UTXO集合
+            assertEquals(Amount.coins(210), walletA.getBalance(context));
+
+            List<Transaction> template = mempool.getBlockTemplate(5);
+            assertEquals(5, template.size());
+            for(int i = 0; i < template.size(); i++) {
+                assertEquals(Amount.coins(20 - i), template.get(i).getInputsValue());
+            }
+
+            //打包前其中一个输入已被花费，该交易被丢弃
+            Transaction first = template.get(0);
+            context.UTXOs.remove(first.inputs.get(0).transactionOutputId);
+            Block block = new Block("prev");
+            assertEquals(4, mempool.fillBlock(block, 5));
+            assertEquals(coins.size() - 5, mempool.size());
+            assertFalse(mempool.contains(first.transactionId));
+            assertEquals(4, block.transactions.size());
+            long sent = 0;
+            for(Transaction transaction : block.transactions) {
+                sent += transaction.value;
+            }
+            assertEquals(sent, walletB.getBalance(context));
+            assertEquals(Amount.coins(190), walletA.getBalance(context) + walletB.getBalance(context));
+        } finally {
+            mempool.shutdown();
+        }
+    }
+
+    @Test
+    public void test2() throws Exception {
+        //容量满时淘汰输入总额最低的交易；区块确认后移除其中的交易与冲突交易
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        ChainContext context = new ChainContext();
+        List<TransactionOutput> coins = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            TransactionOutput coin = new TransactionOutput(walletA.publicKey, Amount.coins(i + 1), "coin" + i);
+            context.UTXOs.put(coin.id, coin);
+            coins.add(coin);
+        }
+        Mempool mempool = new Mempool(context, 5, 1, Mempool.BY_INPUTS_VALUE);
+        try {
+            List<Transaction> added = new ArrayList<>();
+            for(int i = 9; i >= 0; i--) {
+                Transaction transaction = spend(walletA, walletB, coins.get(i), Amount.coins(1));
+                //前5笔输入总额最高，之后加入的都比池中的低，直接被淘汰
+                assertEquals(i >= 5, mempool.add(transaction));
+                added.add(transaction);
+            }
+            assertEquals(5, mempool.size());
+            assertEquals(Amount.coins(10), mempool.getBlockTemplate(1).get(0).getInputsValue());
+
+            //区块中的交易花费了coin9（与池中交易冲突），并包含池中的另一笔交易
+            Block block = new Block("prev");
+            block.transactions.add(spend(walletA, walletB, coins.get(9), Amount.coins(2)));
+            block.transactions.add(added.get(1));
+            mempool.removeBlock(block);
+            assertEquals(3, mempool.size());
+            assertFalse(mempool.contains(added.get(0).transactionId));
+            assertFalse(mempool.contains(added.get(1).transactionId));
+            assertTrue(mempool.contains(added.get(2).transactionId));
+        } finally {
+            mempool.shutdown();
+        }
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //未签名与签名错误的交易不能进入交易池，也不能直接处理，被花费的UTXO保持不变
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet thief = new Wallet();
+        ChainContext context = new ChainContext();
+        TransactionOutput coin = new TransactionOutput(walletA.publicKey, Amount.coins(10), "coin");
+        context.UTXOs.put(coin.id, coin);
+        Mempool mempool = new Mempool(context, 10, 1, Mempool.BY_INPUTS_VALUE);
+        try {
+            ArrayList<TransactionInput> inputs = new ArrayList<>();
+            inputs.add(new TransactionInput(coin.id));
+            Transaction unsigned = new Transaction(walletA.publicKey, thief.publicKey, Amount.coins(10), inputs);
+            assertFalse(mempool.add(unsigned));
+            assertFalse(unsigned.processTransaction(context));
+
+            //用自己的私钥冒充walletA签名
+            Transaction misSigned = new Transaction(walletA.publicKey, thief.publicKey, Amount.coins(10), inputs);
+            misSigned.generateSignature(thief.privateKey);
+            assertFalse(mempool.add(misSigned));
+            assertFalse(misSigned.processTransaction(context));
+
+            //签名后修改金额
+            Transaction tampered = spend(walletA, thief, coin, Amount.coins(1));
+            tampered.value = Amount.coins(10);
+            assertFalse(mempool.add(tampered));
+
+            assertEquals(0, mempool.size());
+            assertTrue(context.UTXOs.containsKey(coin.id));
+            assertEquals(Amount.coins(10), walletA.getBalance(context));
+            assertEquals(0, thief.getBalance(context));
+        } finally {
+            mempool.shutdown();
+        }
+    }
+}
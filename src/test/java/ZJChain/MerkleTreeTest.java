@@ -0,0 +1,128 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+import utils.HashUtil;
+import utils.MerkleProof;
+import utils.MerkleTree;
+import utils.StringUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MerkleTreeTest {
+
+    private static List<String> createIds(int count) throws Exception {
+        List<String> ids = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            ids.add(StringUtil.applySha256("tx" + i));
+        }
+        return ids;
+    }
+
+    /**
+     * 按定义递归计算根，作为对照
+     */
+    private static byte[] root(List<String> ids, int from, int to) {
+        if(to - from == 1) {
+            return MerkleTree.leafHash(ids.get(from));
+        }
+        //左子树取不超过一半的最大2的幂个叶子
+        int half = Integer.highestOneBit(to - from - 1);
+        return MerkleTree.parentHash(root(ids, from, from + half), root(ids, from + half, to));
+    }
+
+    @Test
+    public void test1() throws Exception {
+        //一次构建、逐个追加与递归定义得到的根相同，每个叶子的证明都能通过验证
+        List<String> ids = createIds(40);
+        MerkleTree incremental = new MerkleTree();
+        assertEquals("", incremental.getRootHex());
+        for(int n = 1; n <= ids.size(); n++) {
+            List<String> prefix = ids.subList(0, n);
+            incremental.append(ids.get(n - 1));
+            String expected = HashUtil.toHex(root(prefix, 0, n));
+            assertEquals(expected, new MerkleTree(prefix).getRootHex());
+            assertEquals(expected, incremental.getRootHex());
+            for(int i = 0; i < n; i++) {
+                MerkleProof proof = incremental.getProof(i);
+                assertTrue(proof.verify(ids.get(i), expected));
+                assertFalse(proof.verify(ids.get((i + 1) % ids.size()), expected));
+            }
+        }
+        //单笔交易时根是该交易的叶子摘要，而不是交易id本身
+        assertEquals(HashUtil.toHex(MerkleTree.leafHash(ids.get(0))), new MerkleTree(ids.subList(0, 1)).getRootHex());
+        assertFalse(ids.get(0).equals(new MerkleTree(ids.subList(0, 1)).getRootHex()));
+    }
+
+    @Test
+    public void test2() throws Exception {
+        //节点较多时并行构建，结果与逐个追加相同，证明长度为log2(n)
+        List<String> ids = createIds(100000);
+        MerkleTree parallel = new MerkleTree(ids);
+        MerkleTree incremental = new MerkleTree();
+        for(String id : ids) {
+            incremental.append(id);
+        }
+        assertEquals(incremental.getRootHex(), parallel.getRootHex());
+        MerkleProof proof = parallel.getProof(77777);
+        assertEquals(17, proof.size());
+        assertTrue(proof.verify(ids.get(77777), parallel.getRootHex()));
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //区块追加交易后增量更新merkleRoot；修改交易后校验器发现merkleRoot不一致
+        Block block = new Block("0");
+        List<String> ids = createIds(10);
+        for(int i = 0; i < ids.size(); i++) {
+            Transaction transaction = new Transaction(null, null, Amount.coins(1), null);
+            transaction.transactionId = ids.get(i);
+            block.transactions.add(transaction);
+            assertEquals(HashUtil.toHex(root(ids, 0, i + 1)), block.updateMerkleRoot());
+        }
+        assertTrue(block.getMerkleProof(3).verify(ids.get(3), block.merkleRoot));
+        block.transactions.get(3).transactionId = ids.get(4);
+        assertEquals(StringUtil.getMerkleRoot(block.transactions), block.updateMerkleRoot());
+        assertFalse(block.getMerkleProof(3).verify(ids.get(3), block.merkleRoot));
+
+        //区块头不变而交易被篡改
+        Block genesis = new Block("0");
+        genesis.mineBlock(1);
+        Block next = new Block(genesis.hash);
+        next.mineBlock(1);
+        List<Block> chain = new ArrayList<>();
+        chain.add(genesis);
+        chain.add(next);
+        assertTrue(new ChainValidator().validate(chain, null, 1));
+        next.transactions.add(block.transactions.get(0));
+        assertFalse(new ChainValidator().validate(chain, null, 1));
+    }
+
+    @Test
+    public void test4() throws Exception {
+        //中间节点的摘要不能当作交易id，用更短的证明通过验证
+        List<String> ids = createIds(4);
+        MerkleTree tree = new MerkleTree(ids);
+        String left = HashUtil.toHex(MerkleTree.parentHash(MerkleTree.leafHash(ids.get(0)), MerkleTree.leafHash(ids.get(1))));
+        String right = HashUtil.toHex(MerkleTree.parentHash(MerkleTree.leafHash(ids.get(2)), MerkleTree.leafHash(ids.get(3))));
+        List<String> forgedIds = new ArrayList<>();
+        forgedIds.add(left);
+        forgedIds.add(right);
+        MerkleTree forged = new MerkleTree(forgedIds);
+        assertNotEquals(tree.getRootHex(), forged.getRootHex());
+        assertFalse(forged.getProof(0).verify(left, tree.getRootHex()));
+        assertFalse(forged.getProof(1).verify(right, tree.getRootHex()));
+
+        //证明记录了下标与叶子数
+        MerkleProof proof = tree.getProof(2);
+        assertEquals(2, proof.getIndex());
+        assertEquals(4, proof.getTreeSize());
+        assertTrue(proof.verify(ids.get(2), tree.getRootHex()));
+        assertFalse(proof.verify(ids.get(3), tree.getRootHex()));
+    }
+}
@@ -0,0 +1,106 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void test1() {
+        //分位数按2的幂分桶估计，计时器给出每个数量的耗时与每秒处理的数量
+        Metrics metrics = new Metrics();
+        Metrics.Histogram histogram = metrics.histogram("values");
+        for(int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 1e-9);
+        assertTrue(histogram.getPercentile(0.5) >= 500 && histogram.getPercentile(0.5) < 1000);
+        assertEquals(1000, histogram.getPercentile(0.99));
+
+        Metrics.Timer timer = metrics.timer("work");
+        timer.record(2_000_000_000L, 10);
+        assertEquals(5.0, timer.getThroughput(), 1e-9);
+        metrics.counter("events").add(3);
+        metrics.gauge("answer", () -> 42);
+        Map<String, Double> snapshot = metrics.snapshot();
+        assertEquals(3.0, snapshot.get("events"));
+        assertEquals(42.0, snapshot.get("answer"));
+        assertEquals(200.0, snapshot.get("work.perItemMs"), 1e-9);
+        assertEquals(1000.0, snapshot.get("values.max"));
+        assertThrows(IllegalArgumentException.class, () -> metrics.timer("events"));
+        assertThrows(IllegalArgumentException.class, () -> metrics.gauge("work", () -> 0));
+    }
+
+    @Test
+    public void test2() {
+        //挖矿、交易处理、交易池与校验都记录到所属链的指标中
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        ZJChain zjChain = new ZJChain();
+        zjChain.setDifficulty(1);
+        ChainContext context = zjChain.getContext();
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        Block block = zjChain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(100));
+        for(int i = 0; i < 3; i++) {
+            Block next = new Block(block.hash);
+            assertTrue(next.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(1)), context));
+            zjChain.addBlock(next);
+            block = next;
+        }
+        assertTrue(zjChain.isChainValid());
+
+        Mempool mempool = new Mempool(context);
+        Transaction transaction = walletA.sendFunds(context, walletB.publicKey, Amount.coins(1));
+        assertTrue(mempool.add(transaction));
+        assertFalse(mempool.add(transaction));
+
+        Map<String, Double> snapshot = context.metrics.snapshot();
+        System.out.print(context.metrics);
+        assertEquals(4.0, snapshot.get(Metrics.MINING + ".count"));
+        assertTrue(snapshot.get(Metrics.MINING + ".perSecond") > 0);
+        assertEquals(3.0, snapshot.get(Metrics.TRANSACTION_PROCESS + ".count"));
+        assertEquals(2.0, snapshot.get(Metrics.TRANSACTION_ADMISSION + ".count"));
+        assertEquals(1.0, snapshot.get(Metrics.TRANSACTION_REJECTED));
+        assertEquals(3.0, snapshot.get(Metrics.VALIDATION + ".items"));
+        assertEquals(3.0, snapshot.get(Metrics.SIGNATURES + ".items"));
+        assertTrue(snapshot.get(Metrics.SIGNATURES + ".perSecond") > 0);
+        assertEquals(4.0, snapshot.get(Metrics.CHAIN_HEIGHT));
+        assertEquals((double) context.UTXOs.size(), snapshot.get(Metrics.UTXO_SIZE));
+        assertTrue(snapshot.get(Metrics.LOCAL_HASH_RATE) > 0);
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //通过HTTP读取指标快照
+        Metrics metrics = new Metrics();
+        metrics.counter("blocks").add(7);
+        try (MetricsServer server = new MetricsServer(metrics, 0)) {
+            URL url = new URL("http://127.0.0.1:" + server.getPort() + "/metrics");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[1024];
+                int n;
+                while((n = in.read(buffer)) > 0) {
+                    body.write(buffer, 0, n);
+                }
+            }
+            assertEquals("blocks 7\n", new String(body.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+}
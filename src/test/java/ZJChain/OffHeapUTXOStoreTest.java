@@ -0,0 +1,129 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+import utils.HashUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffHeapUTXOStoreTest {
+
+    @Test
+    public void test1() {
+        //与MemoryUTXOStore执行相同的添加、替换与删除，扩容与复用记录后内容、余额与按地址的输出都一致
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet[] wallets = {new Wallet(), new Wallet(), new Wallet()};
+        OffHeapUTXOStore offHeap = new OffHeapUTXOStore();
+        MemoryUTXOStore memory = new MemoryUTXOStore();
+        Map<String, TransactionOutput> created = new HashMap<>();
+        for(int i = 0; i < 40000; i++) {
+            String parent = HashUtil.toHex(HashUtil.sha256(("p" + i).getBytes(StandardCharsets.UTF_8)));
+            TransactionOutput output = new TransactionOutput(wallets[i % 3].publicKey, i + 1, parent);
+            created.put(output.id, output);
+            assertNull(offHeap.put(output.id, output));
+            memory.put(output.id, output);
+            if(i % 4 == 3) {
+                //删除较早的输出，空出的记录被之后的输出复用
+                TransactionOutput removed = new TransactionOutput(wallets[(i - 2) % 3].publicKey, i - 1,
+                        HashUtil.toHex(HashUtil.sha256(("p" + (i - 2)).getBytes(StandardCharsets.UTF_8))));
+                assertEquals(removed.value, offHeap.remove(removed.id).value);
+                memory.remove(removed.id);
+                created.remove(removed.id);
+            }
+        }
+        //非16进制的父交易id与没有接收方的输出保存在堆中
+        TransactionOutput genesis = new TransactionOutput(wallets[0].publicKey, 1000, "0");
+        TransactionOutput ownerless = new TransactionOutput("x", null, 5, "0");
+        for(UTXOStore store : new UTXOStore[]{offHeap, memory}) {
+            store.put(genesis.id, genesis);
+            store.put(ownerless.id, ownerless);
+        }
+        created.put(genesis.id, genesis);
+        created.put(ownerless.id, ownerless);
+
+        assertEquals(memory.size(), offHeap.size());
+        assertEquals(created.size(), offHeap.size());
+        for(TransactionOutput output : created.values()) {
+            TransactionOutput read = offHeap.get(output.id);
+            assertEquals(output.id, read.id);
+            assertEquals(output.value, read.value);
+            assertEquals(output.parentTransactionId, read.parentTransactionId);
+            assertEquals(output.getRecipientAddress(), read.getRecipientAddress());
+            assertTrue(offHeap.containsKey(output.id));
+        }
+        Set<String> ids = new HashSet<>();
+        for(TransactionOutput output : offHeap.values()) {
+            assertTrue(ids.add(output.id));
+        }
+        assertEquals(created.keySet(), ids);
+        for(Wallet wallet : wallets) {
+            Address address = Address.of(wallet.publicKey);
+            assertEquals(memory.getBalance(address), offHeap.getBalance(address));
+            assertEquals(memory.getOutputs(address).size(), offHeap.getOutputs(address).size());
+        }
+        assertEquals(memory.getLedger().getTotal(), offHeap.getLedger().getTotal());
+
+        //替换为另一个拥有者，余额随之转移
+        TransactionOutput moved = new TransactionOutput(genesis.id, Address.of(wallets[1].publicKey), 1000, "0");
+        long before = offHeap.getBalance(Address.of(wallets[1].publicKey));
+        assertEquals(genesis.value, offHeap.put(genesis.id, moved).value);
+        assertEquals(before + 1000, offHeap.getBalance(Address.of(wallets[1].publicKey)));
+        assertEquals(memory.getBalance(Address.of(wallets[0].publicKey)) - 1000,
+                offHeap.getBalance(Address.of(wallets[0].publicKey)));
+
+        offHeap.clear();
+        assertEquals(0, offHeap.size());
+        assertFalse(offHeap.values().iterator().hasNext());
+        assertNull(offHeap.get(genesis.id));
+        assertEquals(0, offHeap.getBalance(Address.of(wallets[0].publicKey)));
+    }
+
+    @Test
+    public void test2() {
+        //UTXOSet使用堆外存储运行整条链：转账、余额溢出检查、冻结与校验
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        ZJChain zjChain = new ZJChain(new ChainContext(new MemoryBlockStore(), new UTXOSet(new OffHeapUTXOStore())));
+        zjChain.setDifficulty(1);
+        ChainContext context = zjChain.getContext();
+        zjChain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(100));
+        for(int i = 0; i < 5; i++) {
+            Block block = new Block(context.getTip().hash);
+            assertTrue(block.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(3)), context));
+            zjChain.addBlock(block);
+        }
+        assertEquals(Amount.coins(85), walletA.getBalance(context));
+        assertEquals(Amount.coins(15), walletB.getBalance(context));
+        assertEquals(Amount.coins(100), context.UTXOs.getLedger().getTotal());
+        assertTrue(zjChain.isChainValid());
+
+        UTXOSet.Frozen frozen = context.UTXOs.freeze();
+        Block block = new Block(context.getTip().hash);
+        assertTrue(block.addTransaction(walletB.sendFunds(context, walletA.publicKey, Amount.coins(15)), context));
+        zjChain.addBlock(block);
+        long total = 0;
+        for(TransactionOutput output : frozen.getOutputs()) {
+            total += output.value;
+        }
+        frozen.close();
+        assertEquals(Amount.coins(100), total);
+        assertEquals(0, walletB.getBalance(context));
+
+        TransactionOutput huge = new TransactionOutput(walletA.publicKey, Long.MAX_VALUE,
+                HashUtil.toHex(HashUtil.sha256(new byte[1])));
+        assertThrows(ArithmeticException.class, () -> context.UTXOs.put(huge.id, huge));
+        assertFalse(context.UTXOs.containsKey(huge.id));
+        assertEquals(Amount.coins(100), walletA.getBalance(context));
+    }
+}
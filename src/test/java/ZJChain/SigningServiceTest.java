@@ -0,0 +1,73 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SigningServiceTest {
+
+    @Test
+    public void test1() throws Exception {
+        //多个线程批量生成的钱包各不相同，都能签名与验签
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        SigningService service = new SigningService(4);
+        try {
+            List<Wallet> wallets = service.generateWallets(40);
+            assertEquals(40, wallets.size());
+            Set<Address> addresses = new HashSet<>();
+            for(Wallet wallet : wallets) {
+                assertTrue(addresses.add(wallet.getAddress()));
+                Transaction transaction = new Transaction(wallet.publicKey, wallets.get(0).publicKey, Amount.coins(1), null);
+                transaction.generateSignature(wallet.privateKey);
+                assertTrue(transaction.verifySignature());
+            }
+            assertEquals(40, service.getMetrics().timer(Metrics.KEY_GENERATION).getItems());
+            assertTrue(service.getKeyGenerationThroughput() > 0);
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void test2() {
+        //来自多个钱包的一批交易并行签名后全部通过验证；缺少私钥时整批不签名
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        SigningService service = new SigningService(4);
+        try {
+            List<Wallet> wallets = service.generateWallets(5);
+            List<Transaction> transactions = new ArrayList<>();
+            for(int i = 0; i < 200; i++) {
+                Wallet from = wallets.get(i % wallets.size());
+                Wallet to = wallets.get((i + 1) % wallets.size());
+                transactions.add(new Transaction(from.publicKey, to.publicKey, Amount.coins(i + 1), null));
+            }
+            assertTrue(service.sign(transactions, wallets) == transactions);
+            VerificationResult result = new SignatureVerifier(2).verify(transactions);
+            assertTrue(result.isValid());
+            assertEquals(200, service.getMetrics().timer(Metrics.SIGNING).getItems());
+            assertTrue(service.getSigningThroughput() > 0);
+
+            Wallet stranger = new Wallet();
+            Transaction unknown = new Transaction(stranger.publicKey, wallets.get(0).publicKey, Amount.coins(1), null);
+            List<Transaction> batch = new ArrayList<>(Collections.nCopies(10, transactions.get(0)));
+            batch.add(unknown);
+            assertThrows(IllegalArgumentException.class, () -> service.sign(batch, wallets));
+            assertNull(unknown.signature);
+
+            service.sign(Collections.singletonList(unknown), stranger.privateKey);
+            assertTrue(new SignatureVerifier(1).verify(Collections.singletonList(unknown)).isValid());
+        } finally {
+            service.shutdown();
+        }
+    }
+}
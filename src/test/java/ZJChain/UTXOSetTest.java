@@ -0,0 +1,195 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+import utils.StringUtil;
+
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UTXOSetTest {
+
+    @Test
+    public void test1() throws Exception {
+        //多个线程同时花费同一个UTXO，只能有一个成功
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        UTXOSet utxos = new UTXOSet();
+        TransactionOutput coin = new TransactionOutput(walletA.publicKey, Amount.coins(10), "0");
+        utxos.put(coin.id, coin);
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for(int i = 0; i < threads; i++) {
+            TransactionOutput output = new TransactionOutput(walletB.publicKey, Amount.coins(10), String.valueOf(i + 1));
+            results.add(executor.submit(() -> {
+                start.await();
+                return utxos.spend(Collections.singletonList(coin.id), Collections.singletonList(output));
+            }));
+        }
+        start.countDown();
+        int succeeded = 0;
+        for(Future<Boolean> result : results) {
+            if(result.get()) {
+                succeeded++;
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(1, succeeded);
+        assertEquals(1, utxos.size());
+        assertEquals(Amount.coins(0), utxos.getBalance(walletA.publicKey));
+        assertEquals(Amount.coins(10), utxos.getBalance(walletB.publicKey));
+    }
+
+    @Test
+    public void test2() throws Exception {
+        //不相交的花费可以并行完成，余额与索引保持一致
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        UTXOSet utxos = new UTXOSet();
+        int coins = 1000;
+        List<TransactionOutput> owned = new ArrayList<>();
+        for(int i = 0; i < coins; i++) {
+            TransactionOutput coin = new TransactionOutput(walletA.publicKey, Amount.coins(1), "a" + i);
+            utxos.put(coin.id, coin);
+            owned.add(coin);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for(int i = 0; i < coins; i++) {
+            TransactionOutput coin = owned.get(i);
+            TransactionOutput output = new TransactionOutput(walletB.publicKey, Amount.coins(1), "b" + i);
+            results.add(executor.submit(() ->
+                    utxos.spend(Collections.singletonList(coin.id), Collections.singletonList(output))));
+        }
+        for(Future<Boolean> result : results) {
+            assertEquals(true, result.get());
+        }
+        executor.shutdown();
+
+        assertEquals(coins, utxos.size());
+        assertEquals(0, utxos.getOutputs(walletA.publicKey).size());
+        assertEquals(coins, utxos.getOutputs(walletB.publicKey).size());
+        assertEquals(Amount.coins(coins), utxos.getBalance(walletB.publicKey));
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //由编码重新生成的公钥是不同的对象，但地址相等，可以查到同一个拥有者的余额
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        PublicKey decoded = KeyFactory.getInstance("ECDSA", "BC")
+                .generatePublic(new X509EncodedKeySpec(walletA.publicKey.getEncoded()));
+        assertNotSame(walletA.publicKey, decoded);
+        Address address = Address.of(decoded);
+        assertEquals(walletA.getAddress(), address);
+        assertEquals(walletA.getAddress().hashCode(), address.hashCode());
+        assertEquals(StringUtil.getStringFromKey(walletA.publicKey), address.toString());
+        assertEquals(Address.HASH_LENGTH, address.getHash().length);
+
+        UTXOSet utxos = new UTXOSet();
+        TransactionOutput coin = new TransactionOutput(walletA.publicKey, Amount.coins(10), "0");
+        utxos.put(coin.id, coin);
+        assertTrue(coin.isMine(decoded));
+        assertFalse(coin.isMine(new Wallet().publicKey));
+        assertEquals(Amount.coins(10), utxos.getBalance(decoded));
+        assertEquals(1, utxos.getOutputs(address).size());
+        //使用地址创建的交易输出与使用公钥创建的id相同
+        assertEquals(coin.id, new TransactionOutput(address, Amount.coins(10), "0").id);
+    }
+
+    @Test
+    public void test4() throws Exception {
+        //金额为精确的整数：反复加减不产生误差；账本按地址汇总余额与总额，溢出时抛出异常
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        List<Wallet> wallets = new ArrayList<>();
+        for(int i = 0; i < 40; i++) {
+            wallets.add(new Wallet());
+        }
+        UTXOSet utxos = new UTXOSet();
+        long total = 0;
+        for(int i = 0; i < 1000; i++) {
+            //0.1个币，用float累加1000次会产生误差
+            TransactionOutput output = new TransactionOutput(wallets.get(i % wallets.size()).publicKey,
+                    Amount.COIN / 10, String.valueOf(i));
+            utxos.put(output.id, output);
+            total += output.value;
+        }
+        assertEquals(Amount.coins(100), total);
+        assertEquals(Amount.coins(100) / wallets.size(), utxos.getBalance(wallets.get(0).publicKey));
+
+        Ledger ledger = utxos.getLedger();
+        assertEquals(wallets.size(), ledger.size());
+        assertEquals(total, ledger.getTotal());
+        for(Wallet wallet : wallets) {
+            assertEquals(utxos.getBalance(wallet.getAddress()), ledger.get(wallet.getAddress()));
+        }
+        assertFalse(ledger.debit(wallets.get(0).getAddress(), Amount.coins(100)));
+        assertTrue(ledger.debit(wallets.get(0).getAddress(), Amount.COIN));
+        assertEquals(total - Amount.COIN, ledger.getTotal());
+        assertEquals("98.50000000", Amount.format(ledger.getTotal() - Amount.COIN / 2));
+
+        Address address = wallets.get(1).getAddress();
+        assertThrows(ArithmeticException.class, () -> ledger.credit(address, Long.MAX_VALUE));
+        //溢出时账本不变
+        assertEquals(total - Amount.COIN, ledger.getTotal());
+        TransactionOutput huge = new TransactionOutput(address, Long.MAX_VALUE, "huge");
+        assertThrows(ArithmeticException.class, () -> utxos.put(huge.id, huge));
+        assertFalse(utxos.containsKey(huge.id));
+        assertEquals(Amount.coins(100) / wallets.size(), utxos.getBalance(address));
+    }
+
+    @Test
+    public void test5() throws Exception {
+        //加入新输出使拥有者余额溢出时，spend不做任何修改：已移除的输入与已加入的输出都恢复
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        for(UTXOSet utxos : new UTXOSet[]{new UTXOSet(), new UTXOSet(new OffHeapUTXOStore())}) {
+            spendWithOverflow(utxos, walletA, walletB);
+        }
+    }
+
+    private static void spendWithOverflow(UTXOSet utxos, Wallet walletA, Wallet walletB) {
+        TransactionOutput input = new TransactionOutput(walletA.publicKey, Amount.coins(10), "input");
+        TransactionOutput rich = new TransactionOutput(walletB.publicKey, Long.MAX_VALUE - Amount.coins(1), "rich");
+        utxos.put(input.id, input);
+        utxos.put(rich.id, rich);
+
+        List<TransactionOutput> outputs = new ArrayList<>();
+        outputs.add(new TransactionOutput(walletA.publicKey, Amount.coins(8), "spend"));
+        outputs.add(new TransactionOutput(walletB.publicKey, Amount.coins(2), "spend"));
+        assertFalse(utxos.spend(Collections.singletonList(input.id), outputs));
+        assertTrue(utxos.containsKey(input.id));
+        assertFalse(utxos.containsKey(outputs.get(0).id));
+        assertFalse(utxos.containsKey(outputs.get(1).id));
+        assertEquals(2, utxos.size());
+        assertEquals(Amount.coins(10), utxos.getBalance(walletA.publicKey));
+        assertEquals(Long.MAX_VALUE - Amount.coins(1), utxos.getBalance(walletB.publicKey));
+
+        outputs.set(1, new TransactionOutput(walletA.publicKey, Amount.coins(2), "spend"));
+        assertTrue(utxos.spend(Collections.singletonList(input.id), outputs));
+        assertFalse(utxos.containsKey(input.id));
+        assertEquals(Amount.coins(10), utxos.getBalance(walletA.publicKey));
+    }
+}
@@ -0,0 +1,160 @@
+package ZJChain;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UTXOSnapshotTest {
+
+    /**
+     * 初始交易给walletA 100个币，之后每块walletA向walletB转账1个币
+     */
+    private static ZJChain buildChain(Wallet walletA, Wallet walletB, int count) {
+        ZJChain zjChain = new ZJChain();
+        zjChain.setDifficulty(1);
+        zjChain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(100));
+        addTransfers(zjChain, walletA, walletB, count);
+        return zjChain;
+    }
+
+    private static void addTransfers(ZJChain zjChain, Wallet from, Wallet to, int count) {
+        ChainContext context = zjChain.getContext();
+        for(int i = 0; i < count; i++) {
+            Block next = new Block(context.getTip().hash);
+            assertTrue(next.addTransaction(from.sendFunds(context, to.publicKey, Amount.coins(1)), context));
+            zjChain.addBlock(next);
+        }
+    }
+
+    private static Set<String> ids(UTXOSet UTXOs) {
+        Set<String> ids = new HashSet<>();
+        for(TransactionOutput output : UTXOs.values()) {
+            ids.add(output.id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void test1() {
+        //冻结后的修改不影响冻结视图，视图按id排序，关闭后不再复制原值
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        UTXOSet UTXOs = new UTXOSet();
+        List<TransactionOutput> outputs = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            TransactionOutput output = new TransactionOutput(walletA.publicKey, Amount.coins(1), String.valueOf(i));
+            outputs.add(output);
+            UTXOs.put(output.id, output);
+        }
+        UTXOSet.Frozen frozen = UTXOs.freeze();
+        TransactionOutput created = new TransactionOutput(walletA.publicKey, Amount.coins(5), "new");
+        assertTrue(UTXOs.spend(Arrays.asList(outputs.get(0).id, outputs.get(1).id),
+                Collections.singletonList(created)));
+        UTXOs.put(outputs.get(2).id, new TransactionOutput(outputs.get(2).id, Address.of(walletA.publicKey), 7, "x"));
+        assertEquals(4, frozen.getCopied());
+
+        List<TransactionOutput> view = frozen.getOutputs();
+        assertEquals(100, view.size());
+        for(int i = 1; i < view.size(); i++) {
+            assertTrue(view.get(i - 1).id.compareTo(view.get(i).id) < 0);
+        }
+        Set<String> viewIds = new HashSet<>();
+        for(TransactionOutput output : view) {
+            viewIds.add(output.id);
+            assertEquals(Amount.coins(1), output.value);
+        }
+        for(TransactionOutput output : outputs) {
+            assertTrue(viewIds.contains(output.id));
+        }
+        UTXOs.clear();
+        assertEquals(100, frozen.getOutputs().size());
+
+        frozen.close();
+        assertThrows(IllegalStateException.class, frozen::getOutputs);
+        UTXOs.put(created.id, created);
+        assertEquals(0, frozen.getCopied());
+    }
+
+    @Test
+    public void test2() throws Exception {
+        //由快照恢复UTXO集合，只重放快照之后的块；损坏或不属于这条链的快照被拒绝
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        ZJChain zjChain = buildChain(walletA, walletB, 5);
+        ChainContext context = zjChain.getContext();
+        File file = Files.createTempFile("utxo", ".snapshot").toFile();
+        try {
+            assertEquals(context.UTXOs.size(), zjChain.saveSnapshot(file));
+            addTransfers(zjChain, walletA, walletB, 3);
+
+            ZJChain restored = new ZJChain(new ChainContext(context.blockChain));
+            restored.setDifficulty(1);
+            ChainContext restoredContext = restored.getContext();
+            assertEquals(3, restored.loadSnapshot(file));
+            assertEquals(ids(context.UTXOs), ids(restoredContext.UTXOs));
+            assertEquals(Amount.coins(92), walletA.getBalance(restoredContext));
+            assertEquals(Amount.coins(8), walletB.getBalance(restoredContext));
+            assertEquals(context.genesisTransaction.transactionId, restoredContext.genesisTransaction.transactionId);
+            assertEquals(9, restoredContext.index.getIndexedHeight());
+            assertTrue(restored.isChainValid());
+
+            //快照中的块不在另一条链上
+            ZJChain other = buildChain(walletA, walletB, 1);
+            assertThrows(IOException.class, () -> other.loadSnapshot(file));
+            assertEquals(Amount.coins(99), walletA.getBalance(other.getContext()));
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(raf.length() / 2);
+                int b = raf.read();
+                raf.seek(raf.length() / 2);
+                raf.write(b ^ 1);
+            }
+            assertThrows(IOException.class, () -> restored.loadSnapshot(file));
+            assertEquals(Amount.coins(92), walletA.getBalance(restoredContext));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void test3() throws Exception {
+        //每隔固定块数在后台写快照
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        ZJChain zjChain = buildChain(walletA, walletB, 0);
+        File file = Files.createTempFile("utxo", ".snapshot").toFile();
+        file.delete();
+        try {
+            zjChain.setSnapshotInterval(file, 4);
+            addTransfers(zjChain, walletA, walletB, 3);
+            for(int i = 0; i < 100 && !file.exists(); i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(file.exists());
+            zjChain.setSnapshotInterval(file, 0);
+            addTransfers(zjChain, walletA, walletB, 2);
+
+            ZJChain restored = new ZJChain(new ChainContext(zjChain.getContext().blockChain));
+            assertEquals(2, restored.loadSnapshot(file));
+            assertEquals(Amount.coins(5), walletB.getBalance(restored.getContext()));
+        } finally {
+            file.delete();
+        }
+    }
+}
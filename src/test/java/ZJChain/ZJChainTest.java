@@ -3,6 +3,15 @@ package ZJChain;
 import org.junit.jupiter.api.Test;
 
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ZJChainTest {
     @Test
@@ -13,18 +22,18 @@ public class ZJChainTest {
         for(int i = 0; i < 10; i++) {
             //创建新块
             Block block;
-            if(zjChain.blockChain.size() == 0) {
+            if(zjChain.getContext().blockChain.size() == 0) {
                 block = new Block("0");
                 block.mineBlock(5);
             } else {
-                block = new Block(zjChain.blockChain.get(
-                        zjChain.blockChain.size() - 1).hash);
+                block = new Block(zjChain.getContext().blockChain.get(
+                        zjChain.getContext().blockChain.size() - 1).hash);
                 block.mineBlock(5);
             }
             zjChain.addBlock(block);
         }
 
-        for(Block block : zjChain.blockChain) {
+        for(Block block : zjChain.getContext().blockChain) {
             System.out.println("hash: " + block.hash + " prevHash: " + block.prevHash);
         }
         System.out.println("isvalid：" + zjChain.isChainValid());
@@ -37,6 +46,7 @@ public class ZJChainTest {
 
         //初始化区块链
         ZJChain zjChain = new ZJChain();
+        ChainContext context = zjChain.getContext();
 
         //创建钱包
         Wallet walletA = new Wallet();
@@ -44,43 +54,124 @@ public class ZJChainTest {
         //初始交易的钱包
         Wallet coinBase = new Wallet();
 
-        //创建初始交易
-        //最初的交易的value从coinbase凭空出现
+        //创建初始交易：最初的交易的value从coinbase凭空出现，交易输出加入UTXOs
         System.out.println("第一次交易：coinbase向walletA转账100");
-        ZJChain.genesisTransaction = new Transaction(coinBase.publicKey, walletA.publicKey, 100f, null);
-        //生成coinbase对此次交易的签名
-        ZJChain.genesisTransaction.generateSignature(coinBase.privateKey);
-        //初始交易id设为0
-        ZJChain.genesisTransaction.transactionId = "0";
-        //因为初始交易是凭空生成，所以很多参数需要手动设置
-        ZJChain.genesisTransaction.outputs.add(new TransactionOutput(
-                ZJChain.genesisTransaction.recipient,
-                ZJChain.genesisTransaction.value,
-                ZJChain.genesisTransaction.transactionId));
-        //将本次交易输出添加到UTXOs
-        ZJChain.UTXOs.put(ZJChain.genesisTransaction.outputs.get(0).id,
-                ZJChain.genesisTransaction.outputs.get(0));
-
         System.out.println("挖矿生成第一个区块。。。");
-        //前面的哈希值为手动设为0
-        Block genesis = new Block("0");
-        //添加交易
-        genesis.addTransaction(ZJChain.genesisTransaction);
-        //将该块加入区块链中
-        zjChain.addBlock(genesis);
+        //创世块前面的哈希值为0，挖矿后加入区块链中
+        Block genesis = zjChain.createGenesis(coinBase, walletA.publicKey, Amount.coins(100));
 
         System.out.println("第二笔交易： walletA向walletB转账20");
-        System.out.println("WalletA的余额：" + walletA.getBalance());
-        System.out.println("WalletB的余额：" + walletB.getBalance());
+        System.out.println("WalletA的余额：" + walletA.getBalance(context));
+        System.out.println("WalletB的余额：" + walletB.getBalance(context));
         //新生成一个区块用于记账
         System.out.println("挖矿生成第二个区块。。。");
         Block block1 = new Block(genesis.hash);
-        block1.addTransaction(walletA.sendFunds(walletB.publicKey, 20f));
+        block1.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(20)), context);
         zjChain.addBlock(block1);
         System.out.println("第二笔交易结束");
-        System.out.println("WalletA的余额：" + walletA.getBalance());
-        System.out.println("WalletB的余额：" + walletB.getBalance());
+        System.out.println("WalletA的余额：" + walletA.getBalance(context));
+        System.out.println("WalletB的余额：" + walletB.getBalance(context));
 
         zjChain.isChainValid();
     }
+
+    @Test
+    public void test3() {
+        //批量并行验证交易签名
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        List<Transaction> transactions = new ArrayList<>();
+        for(int i = 0; i < 32; i++) {
+            Transaction transaction = new Transaction(walletA.publicKey, walletB.publicKey, i + 1, null);
+            transaction.generateSignature(walletA.privateKey);
+            transactions.add(transaction);
+        }
+        SignatureVerifier verifier = new SignatureVerifier(4);
+        VerificationResult result = verifier.verify(transactions);
+        assertTrue(result.isValid());
+        for(int i = 0; i < result.size(); i++) {
+            assertEquals(VerificationResult.Status.VALID, result.getStatus(i));
+        }
+
+        //篡改交易额后签名应失效
+        transactions.get(20).value = 1000;
+        result = verifier.verify(transactions);
+        verifier.shutdown();
+        assertFalse(result.isValid());
+        assertEquals(20, result.getFirstFailure());
+        assertEquals(VerificationResult.Status.INVALID, result.getStatus(20));
+    }
+
+    @Test
+    public void test4() {
+        //校验包含交易的区块链，并在追加无效块后重新校验
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        ZJChain zjChain = new ZJChain();
+        zjChain.setDifficulty(2);
+        ChainContext context = zjChain.getContext();
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        Block genesis = zjChain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(100));
+
+        Block block1 = new Block(genesis.hash);
+        assertTrue(block1.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(20)), context));
+        zjChain.addBlock(block1);
+        Block block2 = new Block(block1.hash);
+        assertTrue(block2.addTransaction(walletB.sendFunds(context, walletA.publicKey, Amount.coins(5)), context));
+        zjChain.addBlock(block2);
+        assertEquals(Amount.coins(85), walletA.getBalance(context));
+        assertEquals(Amount.coins(15), walletB.getBalance(context));
+        assertEquals(2, context.UTXOs.getOutputs(walletA.publicKey).size());
+        assertTrue(zjChain.isChainValid());
+        //再次校验只检查新块
+        assertTrue(zjChain.isChainValid());
+
+        Block block3 = new Block("bad");
+        zjChain.addBlock(block3);
+        assertFalse(zjChain.isChainValid());
+    }
+
+    /**
+     * 在一条新链上创建初始交易并完成count次转账，返回该链
+     */
+    private static ZJChain buildChain(Wallet walletA, Wallet walletB, int count) {
+        ZJChain zjChain = new ZJChain();
+        zjChain.setDifficulty(1);
+        ChainContext context = zjChain.getContext();
+        Block block = zjChain.createGenesis(new Wallet(), walletA.publicKey, Amount.coins(100));
+        for(int i = 0; i < count; i++) {
+            Block next = new Block(block.hash);
+            assertTrue(next.addTransaction(walletA.sendFunds(context, walletB.publicKey, Amount.coins(1)), context));
+            zjChain.addBlock(next);
+            block = next;
+        }
+        return zjChain;
+    }
+
+    @Test
+    public void test5() throws Exception {
+        //同一对钱包在两条链上同时交易，两条链的区块、UTXO与交易序号互不影响
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Wallet walletA = new Wallet();
+        Wallet walletB = new Wallet();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ZJChain> first = executor.submit(() -> buildChain(walletA, walletB, 10));
+            Future<ZJChain> second = executor.submit(() -> buildChain(walletA, walletB, 3));
+            ChainContext one = first.get().getContext();
+            ChainContext two = second.get().getContext();
+            assertEquals(11, one.blockChain.size());
+            assertEquals(4, two.blockChain.size());
+            assertEquals(10, one.getSequence());
+            assertEquals(3, two.getSequence());
+            assertEquals(Amount.coins(90), walletA.getBalance(one));
+            assertEquals(Amount.coins(97), walletA.getBalance(two));
+            assertEquals(Amount.coins(3), walletB.getBalance(two));
+            assertTrue(first.get().isChainValid());
+            assertTrue(second.get().isChainValid());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }